@@ -0,0 +1,109 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.facade;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.message.MessageStore;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.message.MessageStoreProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.ratelimit.RateLimitProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.ratelimit.RateLimiter;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.roster.RosterCache;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.HibernationProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionHibernation;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionRegistry;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.StubSessions;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.OutboundProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.WebSocketTextMessageHelper;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPClient;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.websocket.Session;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link XMPPFacade#sendMessage} up to the XMPP client: session lookup, dispatch on the
+ * message type, metrics and the hand-off to the message store. The XMPP client, roster cache and
+ * WebSocket helper are stubbed so no network or database is involved, and the message store is
+ * disabled, so it returns at once.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class XMPPFacadeBenchmark {
+
+    private static final String CONTACTS = "[\"jose\",\"maria\",\"lucia\"]";
+
+    @Param({"NEW_MESSAGE", "GET_CONTACTS"})
+    private MessageType messageType;
+
+    private XMPPFacade xmppFacade;
+    private Session session;
+    private WebsocketMessage message;
+
+    @Setup
+    public void setUp() throws XmppStringprepException {
+        ChatMetrics chatMetrics = new ChatMetrics(new SimpleMeterRegistry());
+        SessionRegistry sessionRegistry = new SessionRegistry();
+        XMPPClient xmppClient = new XMPPClient(new XMPPProperties(), null, null, chatMetrics) {
+            @Override
+            public void sendMessage(AbstractXMPPConnection connection, String message, String to) {
+            }
+        };
+        WebSocketTextMessageHelper webSocketTextMessageHelper = new WebSocketTextMessageHelper(new OutboundProperties(), chatMetrics) {
+            @Override
+            public void send(Session session, WebsocketMessage websocketMessage) {
+            }
+        };
+        RosterCache rosterCache = new RosterCache(xmppClient, sessionRegistry, webSocketTextMessageHelper, chatMetrics) {
+            @Override
+            public String getContacts(AbstractXMPPConnection connection) {
+                return CONTACTS;
+            }
+        };
+        MessageStoreProperties messageStoreProperties = new MessageStoreProperties();
+        messageStoreProperties.setEnabled(false);
+        // Limits high enough that the benchmark pays for the bucket update without being throttled.
+        RateLimitProperties rateLimitProperties = new RateLimitProperties();
+        rateLimitProperties.getLimits().replaceAll((messageType, limit) -> new RateLimitProperties.Limit(1e9, 1_000_000));
+
+        xmppFacade = new XMPPFacade(null, webSocketTextMessageHelper, xmppClient, sessionRegistry, null, null, null, null,
+                null, null, new MessageStore(messageStoreProperties, null), null, rosterCache, null, null, new RateLimiter(rateLimitProperties),
+                new SessionHibernation(new HibernationProperties(), sessionRegistry, null), null, chatMetrics);
+
+        session = StubSessions.create("benchmark");
+        AbstractXMPPConnection connection = new XMPPTCPConnection(XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("localhost")
+                .build());
+        sessionRegistry.register(session, "sergio", connection);
+        message = WebsocketMessage.builder()
+                .from("sergio")
+                .to("jose")
+                .content("hello world, this is a typical chat message")
+                .messageType(messageType)
+                .build();
+    }
+
+    @Benchmark
+    public void sendMessage() {
+        xmppFacade.sendMessage(message, session);
+    }
+}
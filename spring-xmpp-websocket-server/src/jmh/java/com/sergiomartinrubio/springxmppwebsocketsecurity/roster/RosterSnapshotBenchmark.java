@@ -0,0 +1,70 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.roster;
+
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Roster JSON building: the full GET_CONTACTS content of a new snapshot, and the delta plus the
+ * re-encoded content after one contact is renamed by a roster push.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class RosterSnapshotBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int contacts;
+
+    private Map<BareJid, String> entries;
+    private Map<BareJid, String> renamed;
+    private Map<BareJid, String> restored;
+    private RosterSnapshot snapshot;
+    private boolean rename;
+
+    @Setup
+    public void setUp() throws XmppStringprepException {
+        entries = new LinkedHashMap<>();
+        for (int i = 0; i < contacts; i++) {
+            entries.put(JidCreate.bareFrom("contact-" + i + "@localhost"), "contact-" + i);
+        }
+        BareJid first = entries.keySet().iterator().next();
+        renamed = Map.of(first, "renamed");
+        restored = Map.of(first, entries.get(first));
+        snapshot = new RosterSnapshot();
+        snapshot.put(entries);
+    }
+
+    @Benchmark
+    public String encode() {
+        RosterSnapshot created = new RosterSnapshot();
+        created.put(entries);
+        return created.getEncoded();
+    }
+
+    @Benchmark
+    public void renameContact(Blackhole blackhole) {
+        rename = !rename;
+        blackhole.consume(snapshot.put(rename ? renamed : restored));
+        blackhole.consume(snapshot.getEncoded());
+    }
+}
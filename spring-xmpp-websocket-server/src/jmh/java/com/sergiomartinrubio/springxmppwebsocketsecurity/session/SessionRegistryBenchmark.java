@@ -0,0 +1,109 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.session;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionRegistry.RegisteredSession;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.websocket.Session;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lookups on a populated {@link SessionRegistry}, alone and while another thread keeps registering
+ * and removing a session, as the WebSocket and Smack listener threads do.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SessionRegistryBenchmark {
+
+    private static final int SESSIONS_PER_USER = 2;
+
+    @Param({"1000", "100000"})
+    private int sessions;
+
+    private SessionRegistry sessionRegistry;
+    private Session[] registered;
+    private String[] usernames;
+
+    @Setup
+    public void setUp() throws XmppStringprepException {
+        sessionRegistry = new SessionRegistry();
+        registered = new Session[sessions];
+        usernames = new String[sessions / SESSIONS_PER_USER];
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = "user-" + i;
+        }
+        for (int i = 0; i < sessions; i++) {
+            String username = usernames[i / SESSIONS_PER_USER];
+            registered[i] = StubSessions.create(String.valueOf(i));
+            sessionRegistry.register(registered[i], username, JidCreate.bareFrom(username + "@localhost"), null);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Optional<RegisteredSession> getSession() {
+        return sessionRegistry.getSession(registered[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Set<Session> getSessionsByUsername() {
+        return sessionRegistry.getSessionsByUsername(usernames[ThreadLocalRandom.current().nextInt(usernames.length)]);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public Optional<RegisteredSession> getSessionWhileChurning() {
+        return getSession();
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public Optional<?> registerAndRemove(ChurningSession churningSession) {
+        sessionRegistry.register(churningSession.session, churningSession.username, churningSession.jid, null);
+        return sessionRegistry.remove(churningSession.session);
+    }
+
+    @State(Scope.Thread)
+    public static class ChurningSession {
+
+        private static final AtomicInteger IDS = new AtomicInteger();
+
+        private Session session;
+        private String username;
+        private BareJid jid;
+
+        @Setup
+        public void setUp() throws XmppStringprepException {
+            int id = IDS.incrementAndGet();
+            session = StubSessions.create("churn-" + id);
+            username = "churn-" + id;
+            jid = JidCreate.bareFrom(username + "@localhost");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.session;
+
+import javax.websocket.Session;
+import java.lang.reflect.Proxy;
+
+/**
+ * WebSocket sessions for benchmarks. Mocks record every call, which would be measured and would grow
+ * the heap over a run, so these answer the few calls the server makes on a session directly.
+ */
+public final class StubSessions {
+
+    private StubSessions() {
+    }
+
+    public static Session create(String id) {
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> id;
+                    case "isOpen" -> true;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "Session " + id;
+                    default -> null;
+                });
+    }
+}
@@ -0,0 +1,50 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to hash and to verify a password per BCrypt work factor. Every login of an existing account
+ * that misses the credential cache pays one verification, and every new account pays one hash.
+ */
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class BCryptUtilsBenchmark {
+
+    private static final String PASSWORD = "benchmark-password";
+
+    @Param({"4", "8", "10", "12"})
+    private int workFactor;
+
+    private String hashedPassword;
+
+    @Setup
+    public void setUp() {
+        hashedPassword = BCryptUtils.hash(PASSWORD, workFactor);
+    }
+
+    @Benchmark
+    public String hash() {
+        return BCryptUtils.hash(PASSWORD, workFactor);
+    }
+
+    @Benchmark
+    public boolean isMatch() {
+        return BCryptUtils.isMatch(PASSWORD, hashedPassword);
+    }
+}
@@ -0,0 +1,93 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
+
+import com.google.gson.Gson;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.websocket.DecodeException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per microsecond through the WebSocket encoders and decoders, for a typical chat message and
+ * for a long one that needs escaping. The {@code gsonPerFrame} variants are the former encoding with
+ * a new {@link Gson} per frame, kept as the baseline. Add {@code -prof gc} to the JMH arguments for
+ * the bytes allocated per frame.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MessageCodecThroughputBenchmark {
+
+    @Param({"42", "4096"})
+    private int contentLength;
+
+    private final MessageEncoder messageEncoder = new MessageEncoder();
+    private final MessageDecoder messageDecoder = new MessageDecoder();
+    private final BinaryMessageEncoder binaryMessageEncoder = new BinaryMessageEncoder();
+    private final BinaryMessageDecoder binaryMessageDecoder = new BinaryMessageDecoder();
+
+    private WebsocketMessage message;
+    private String text;
+    private ByteBuffer binary;
+
+    @Setup
+    public void setUp() {
+        StringBuilder content = new StringBuilder(contentLength);
+        for (int i = 0; i < contentLength; i++) {
+            content.append(i % 64 == 63 ? '\n' : (char) ('a' + i % 26));
+        }
+        message = WebsocketMessage.builder()
+                .from("sergio")
+                .to("jose")
+                .content(content.toString())
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+        text = messageEncoder.encode(message);
+        binary = binaryMessageEncoder.encode(message);
+    }
+
+    @Benchmark
+    public String gsonPerFrameEncode() {
+        return new Gson().toJson(message);
+    }
+
+    @Benchmark
+    public WebsocketMessage gsonPerFrameDecode() {
+        return new Gson().fromJson(text, WebsocketMessage.class);
+    }
+
+    @Benchmark
+    public String encode() {
+        return messageEncoder.encode(message);
+    }
+
+    @Benchmark
+    public WebsocketMessage decode() throws DecodeException {
+        return messageDecoder.decode(text);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBinary() {
+        return binaryMessageEncoder.encode(message);
+    }
+
+    @Benchmark
+    public WebsocketMessage decodeBinary() throws DecodeException {
+        return binaryMessageDecoder.decode(binary.duplicate());
+    }
+}
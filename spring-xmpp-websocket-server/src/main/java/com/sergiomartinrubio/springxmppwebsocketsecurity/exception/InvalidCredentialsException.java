@@ -0,0 +1,9 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.exception;
+
+public class InvalidCredentialsException extends RuntimeException {
+
+    private static final String MESSAGE = "Invalid password for user '%s'.";
+    public InvalidCredentialsException(String username) {
+        super(String.format(MESSAGE, username));
+    }
+}
@@ -0,0 +1,19 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.exception;
+
+import java.time.Duration;
+
+public class LoginRejectedException extends RuntimeException {
+
+    private static final String MESSAGE = "Login for user '%s' was rejected, retry after %d ms.";
+
+    private final Duration retryAfter;
+
+    public LoginRejectedException(String username, Duration retryAfter) {
+        super(String.format(MESSAGE, username, retryAfter.toMillis()), null, false, false);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
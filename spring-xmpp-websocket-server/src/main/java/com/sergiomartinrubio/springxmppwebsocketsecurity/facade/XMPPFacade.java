@@ -1,96 +1,227 @@
 package com.sergiomartinrubio.springxmppwebsocketsecurity.facade;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.exception.InvalidCredentialsException;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.exception.LoginRejectedException;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.exception.XMPPGenericException;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.CredentialVerifier;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.LoginAdmission;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.LoginExecutor;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.LoginProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.message.MessageHistory;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics.ErrorPath;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.message.MessageStore;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.Account;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.ChatMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.HistoryPage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.SendStatus;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.service.AccountService;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.presence.PresenceCoalescer;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.ratelimit.RateLimiter;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.resume.ResumableSession;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.resume.ResumableSessions;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.roster.RosterCache;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionHibernation;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionMailboxes;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionRegistry;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionRegistry.RegisteredSession;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.utils.BCryptUtils;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.WebSocketTextMessageHelper;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.StreamRecovery;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPClient;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.gateway.XMPPGateway;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.AbstractXMPPConnection;
 import org.jivesoftware.smack.packet.Presence;
-import org.jivesoftware.smack.roster.RosterEntry;
-import org.jivesoftware.smack.tcp.XMPPTCPConnection;
-import org.springframework.boot.configurationprocessor.json.JSONArray;
 import org.springframework.stereotype.Component;
 
 import javax.websocket.Session;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.ERROR;
 import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.FORBIDDEN;
 import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.GET_CONTACTS;
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.GET_HISTORY;
 import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.JOIN_SUCCESS;
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.NEW_MESSAGE;
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.REAUTHENTICATE;
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.RETRY_AFTER;
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.SEND_STATUS;
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.THROTTLED;
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.UNSUPPORTED;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class XMPPFacade {
 
-    private static final Map<Session, XMPPTCPConnection> CONNECTIONS = new HashMap<>();
-
     private final AccountService accountService;
     private final WebSocketTextMessageHelper webSocketTextMessageHelper;
     private final XMPPClient xmppClient;
+    private final SessionRegistry sessionRegistry;
+    private final LoginExecutor loginExecutor;
+    private final LoginProperties loginProperties;
+    private final LoginAdmission loginAdmission;
+    private final XMPPGateway xmppGateway;
+    private final CredentialVerifier credentialVerifier;
+    private final ResumableSessions resumableSessions;
+    private final MessageStore messageStore;
+    private final MessageHistory messageHistory;
+    private final RosterCache rosterCache;
+    private final PresenceCoalescer presenceCoalescer;
+    private final StreamRecovery streamRecovery;
+    private final RateLimiter rateLimiter;
+    private final SessionHibernation sessionHibernation;
+    private final SessionMailboxes sessionMailboxes;
+    private final ChatMetrics chatMetrics;
 
-    public void startSession(Session session, String username, String password) {
-        // TODO: Save user session to avoid having to login again when the websocket connection is closed
-        //      1. Generate token
-        //      2. Save username and token in Redis
-        //      3. Return token to client and store it in a cookie or local storage
-        //      4. When starting a websocket session check if the token is still valid and bypass XMPP authentication
-        Optional<Account> account = accountService.getAccount(username);
+    private final ConcurrentMap<Session, CompletableFuture<String>> reauthentications = new ConcurrentHashMap<>();
 
-        if (account.isPresent() && !BCryptUtils.isMatch(password, account.get().getPassword())) {
-            log.warn("Invalid password for user {}.", username);
-            webSocketTextMessageHelper.send(session, WebsocketMessage.builder().messageType(FORBIDDEN).build());
-            return;
+    public CompletableFuture<Void> startSession(Session session, String username, String password) {
+        return startSession(session, username, password, null);
+    }
+
+    /**
+     * Starts the XMPP session asynchronously on the {@link LoginExecutor}, so the calling WebSocket
+     * thread is released immediately. A valid resume token takes over the parked connection of the
+     * previous session and a user with an open connection joins it, both once the password is
+     * verified, anything else falls back to a full login. Full logins wait for their turn in the
+     * {@link LoginAdmission} queue. The client gets JOIN_SUCCESS, with the next resume token as
+     * content, FORBIDDEN or ERROR once the pipeline completes, or RETRY_AFTER when the server is too
+     * busy to take the login.
+     */
+    public CompletableFuture<Void> startSession(Session session, String username, String password, String resumeToken) {
+        if (xmppGateway.isEnabled()) {
+            return admit(session, username, () -> startGatewaySession(session, username, password));
+        }
+        if (resumeToken == null) {
+            return startSharedSession(session, username, password);
         }
 
-        Optional<XMPPTCPConnection> connection = xmppClient.connect(username, password);
+        return loginExecutor.stage(() -> authenticate(username, password).flatMap(verified -> resumableSessions.resume(session, resumeToken, username)),
+                        loginProperties.getAuthenticationTimeout(),
+                        late -> late.ifPresent(resumed -> {
+                            resumableSessions.discard(session);
+                            xmppClient.disconnect(resumed.getConnection());
+                        }))
+                .handle((resumed, e) -> {
+                    if (e != null) {
+                        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                        if (cause instanceof InvalidCredentialsException) {
+                            failSession(session, username, cause);
+                            return CompletableFuture.<Void>completedFuture(null);
+                        }
+                        chatMetrics.error(ErrorPath.RESUME_FAILURE);
+                        log.warn("Resuming session for user {} failed, logging in again.", username, e);
+                        return startSharedSession(session, username, password);
+                    }
+                    if (resumed.isEmpty()) {
+                        return startSharedSession(session, username, password);
+                    }
+                    completeAttach(session, username, resumed.get());
+                    return CompletableFuture.<Void>completedFuture(null);
+                })
+                .thenCompose(Function.identity());
+    }
 
-        if (connection.isEmpty()) {
-            webSocketTextMessageHelper.send(session, WebsocketMessage.builder().messageType(ERROR).build());
-            return;
-        }
+    /**
+     * Runs the operation the client requested. A hibernated session is logged in again first, the
+     * returned stage completes once the operation ran on the new connection, so the mailbox of the
+     * session holds the operations behind it without blocking a thread on the login.
+     */
+    public CompletableFuture<Void> sendMessage(WebsocketMessage message, Session session) {
+        chatMetrics.received(message.getMessageType());
+        Optional<RegisteredSession> registeredSession = sessionRegistry.getSession(session);
 
-        try {
-            if (account.isEmpty()) {
-                xmppClient.createAccount(connection.get(), username, password);
-            }
-            xmppClient.login(connection.get());
-        } catch (XMPPGenericException e) {
-            handleXMPPGenericException(session, connection.get(), e);
-            return;
+        if (registeredSession.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
         }
 
-        CONNECTIONS.put(session, connection.get());
-        log.info("Session was stored.");
-
-        xmppClient.addIncomingMessageListener(connection.get(), session);
+        long throttledNanos = rateLimiter.tryAcquire(registeredSession.get().getUsername(), message.getMessageType());
+        if (throttledNanos > 0) {
+            throttle(session, registeredSession.get().getUsername(), message, throttledNanos);
+            return CompletableFuture.completedFuture(null);
+        }
 
-        webSocketTextMessageHelper.send(session, WebsocketMessage.builder().to(username).messageType(JOIN_SUCCESS).build());
+        if (registeredSession.get().isHibernated() || sessionHibernation.isHibernated(session)) {
+            return wake(session).thenAcceptAsync(woken -> woken.ifPresent(registered -> dispatch(message, session, registered)),
+                    sessionMailboxes.getExecutor());
+        }
+        dispatch(message, session, registeredSession.get());
+        return CompletableFuture.completedFuture(null);
     }
 
-    public void sendMessage(WebsocketMessage message, Session session) {
-        XMPPTCPConnection connection = CONNECTIONS.get(session);
+    private void dispatch(WebsocketMessage message, Session session, RegisteredSession registeredSession) {
+        sessionHibernation.touch(session);
+
+        AbstractXMPPConnection connection = registeredSession.getConnection();
 
         if (connection == null) {
+            sendGatewayMessage(message, session, registeredSession.getUsername());
             return;
         }
 
         switch (message.getMessageType()) {
             case NEW_MESSAGE -> {
+                if (rejectIncomplete(session, registeredSession.getUsername(), message)) {
+                    return;
+                }
                 try {
                     xmppClient.sendMessage(connection, message.getContent(), message.getTo());
-                    // TODO: save message for both users in DB
+                    sessionHibernation.wakeUser(message.getTo());
+                    storeMessage(registeredSession.getUsername(), message);
+                } catch (XMPPGenericException e) {
+                    handleXMPPGenericException(session, connection, e);
+                }
+            }
+            case MULTI_MESSAGE -> {
+                if (rejectIncomplete(session, registeredSession.getUsername(), message)) {
+                    return;
+                }
+                Optional<List<String>> recipients = recipients(message.getTo());
+                if (recipients.isEmpty()) {
+                    log.warn("Invalid recipients '{}' from user {}.", message.getTo(), connection.getUser());
+                    completeMultiMessage(session, registeredSession.getUsername(), message,
+                            Map.of(Objects.toString(message.getTo(), ""), SendStatus.INVALID_RECIPIENT));
+                    return;
+                }
+                Map<String, SendStatus> statuses = xmppClient.sendMessages(connection, message.getContent(), recipients.get());
+                completeMultiMessage(session, registeredSession.getUsername(), message, statuses);
+            }
+            case BROADCAST_MESSAGE -> {
+                if (rejectIncomplete(session, registeredSession.getUsername(), message)) {
+                    return;
+                }
+                Map<String, SendStatus> statuses;
+                try {
+                    statuses = xmppClient.broadcastMessage(connection, message.getContent());
                 } catch (XMPPGenericException e) {
                     handleXMPPGenericException(session, connection, e);
+                    return;
                 }
+                completeMultiMessage(session, registeredSession.getUsername(), message, statuses);
             }
             case ADD_CONTACT -> {
                 try {
@@ -100,50 +231,556 @@ public class XMPPFacade {
                 }
             }
             case GET_CONTACTS -> {
-                Set<RosterEntry> contacts = Set.of();
+                String contacts;
                 try {
-                    contacts = xmppClient.getContacts(connection);
+                    contacts = rosterCache.getContacts(connection);
                 } catch (XMPPGenericException e) {
                     handleXMPPGenericException(session, connection, e);
+                    return;
                 }
 
-                JSONArray jsonArray = new JSONArray();
-                for (RosterEntry entry : contacts) {
-                    jsonArray.put(entry.getName());
-                }
                 WebsocketMessage responseMessage = WebsocketMessage.builder()
-                        .content(jsonArray.toString())
+                        .content(contacts)
                         .messageType(GET_CONTACTS)
                         .build();
-                log.info("Returning list of contacts {} for user {}.", jsonArray, connection.getUser());
+                log.info("Returning list of contacts {} for user {}.", contacts, connection.getUser());
                 webSocketTextMessageHelper.send(session, responseMessage);
             }
+            case GET_HISTORY -> sendHistory(session, registeredSession.getUsername(), message);
             default -> log.warn("Message type not implemented.");
         }
     }
 
-    public void disconnect(Session session) {
-        XMPPTCPConnection connection = CONNECTIONS.get(session);
+    /**
+     * Answers an operation the server had no room to queue with THROTTLED, so the client backs off
+     * and sends it again instead of losing it.
+     */
+    public void refuse(Session session, WebsocketMessage message, Duration retryAfter) {
+        sendThrottled(session, message, retryAfter.toNanos());
+    }
 
-        if (connection == null) {
+    /**
+     * Hands the password a client sent in answer to REAUTHENTICATE to its waking session. Called
+     * outside the session's mailbox, which holds further operations until the session woke up.
+     */
+    public void reauthenticate(Session session, String password) {
+        CompletableFuture<String> credentials = reauthentications.remove(session);
+        if (credentials == null) {
+            log.debug("Session {} sent credentials while not waking up.", session.getId());
             return;
         }
+        credentials.complete(Objects.toString(password, ""));
+    }
+
+    public void disconnect(Session session) {
+        disconnect(session, true);
+    }
+
+    /**
+     * Closes the XMPP connection of the session, or parks it for a later resume when the WebSocket
+     * went away unexpectedly and resuming is enabled. A connection other sessions of the user still
+     * share stays open.
+     */
+    public void disconnect(Session session, boolean resumable) {
+        sessionRegistry.remove(session).ifPresent(connection -> {
+            boolean kept = resumable ? resumableSessions.park(session) : resumableSessions.release(session);
+            if (!kept) {
+                closeConnection(session, connection);
+            }
+        });
+        resumableSessions.discard(session);
+        sessionHibernation.untrack(session);
+        cancelReauthentication(session);
+        webSocketTextMessageHelper.release(session);
+    }
+
+    private void cancelReauthentication(Session session) {
+        CompletableFuture<String> credentials = reauthentications.remove(session);
+        if (credentials != null) {
+            credentials.cancel(false);
+        }
+    }
 
+    private void closeConnection(Session session, AbstractXMPPConnection connection) {
         try {
             xmppClient.sendStanza(connection, Presence.Type.unavailable);
         } catch (XMPPGenericException e) {
+            chatMetrics.error(ErrorPath.XMPP_ERROR);
             log.error("XMPP error.", e);
             webSocketTextMessageHelper.send(session, WebsocketMessage.builder().messageType(ERROR).build());
         }
 
         xmppClient.disconnect(connection);
-        CONNECTIONS.remove(session);
     }
 
-    private void handleXMPPGenericException(Session session, XMPPTCPConnection connection, Exception e) {
+    /**
+     * Starts the login once admitted. Failures of the login itself are handled by the login, so only
+     * a rejection by the admission control reaches the handler here.
+     */
+    private CompletableFuture<Void> admit(Session session, String username, Supplier<CompletableFuture<Void>> login) {
+        return loginAdmission.submit(username, login, () -> !session.isOpen())
+                .exceptionally(e -> {
+                    failSession(session, username, e instanceof CompletionException ? e.getCause() : e);
+                    return null;
+                });
+    }
+
+    /**
+     * Joins the session to the open connection of the user once the password is verified, or falls
+     * back to a full login when the user has none.
+     */
+    private CompletableFuture<Void> startSharedSession(Session session, String username, String password) {
+        if (!resumableSessions.isShared(username)) {
+            return admit(session, username, () -> startXMPPSession(session, username, password));
+        }
+
+        return loginExecutor.stage(() -> authenticate(username, password), loginProperties.getAuthenticationTimeout(), account -> {})
+                .thenApply(account -> account.flatMap(verified -> resumableSessions.join(session, username)))
+                .handle((shared, e) -> {
+                    if (e != null) {
+                        failSession(session, username, e instanceof CompletionException ? e.getCause() : e);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    if (shared.isEmpty()) {
+                        return admit(session, username, () -> startXMPPSession(session, username, password));
+                    }
+                    completeAttach(session, username, shared.get());
+                    return CompletableFuture.<Void>completedFuture(null);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<Void> startXMPPSession(Session session, String username, String password) {
+        return loginExecutor.stage(() -> authenticate(username, password), loginProperties.getAuthenticationTimeout(), account -> {})
+                .thenCompose(account -> loginExecutor.stage(() -> connect(username, password), loginProperties.getConnectTimeout(), xmppClient::disconnect)
+                        .thenCompose(connection -> loginExecutor.stage(() -> login(connection, account, username, password), loginProperties.getLoginTimeout(), loggedIn -> {})
+                                .whenComplete((loggedIn, e) -> {
+                                    if (e != null) {
+                                        xmppClient.disconnect(connection);
+                                    }
+                                })))
+                .handle((connection, e) -> {
+                    if (e == null) {
+                        completeSession(session, username, connection);
+                    } else {
+                        failSession(session, username, e instanceof CompletionException ? e.getCause() : e);
+                    }
+                    return null;
+                });
+    }
+
+    private CompletableFuture<Void> startGatewaySession(Session session, String username, String password) {
+        return loginExecutor.stage(() -> authenticate(username, password), loginProperties.getAuthenticationTimeout(), account -> {})
+                .thenCompose(account -> loginExecutor.stage(() -> {
+                    if (account.isEmpty()) {
+                        accountService.saveAccount(new Account(username, BCryptUtils.hash(password)));
+                        log.info("Account for user '{}' created.", username);
+                    }
+                    return username;
+                }, loginProperties.getLoginTimeout(), created -> {}))
+                .handle((created, e) -> {
+                    if (e == null) {
+                        completeGatewaySession(session, username);
+                    } else {
+                        failSession(session, username, e instanceof CompletionException ? e.getCause() : e);
+                    }
+                    return null;
+                });
+    }
+
+    private void completeGatewaySession(Session session, String username) {
+        sessionRegistry.register(session, username, xmppGateway.getJid(username), null);
+
+        if (!session.isOpen()) {
+            sessionRegistry.remove(session);
+            return;
+        }
+        log.info("Gateway session was stored.");
+
+        webSocketTextMessageHelper.send(session, WebsocketMessage.builder().to(username).messageType(JOIN_SUCCESS).build());
+    }
+
+    /**
+     * Runs the operations the gateway can serve. Component JIDs have no server-side roster, so
+     * GET_CONTACTS and the other operations are answered with UNSUPPORTED, carrying the requested
+     * message type, instead of an empty answer the client cannot tell from an empty roster.
+     */
+    private void sendGatewayMessage(WebsocketMessage message, Session session, String username) {
+        switch (message.getMessageType()) {
+            case NEW_MESSAGE -> {
+                if (rejectIncomplete(session, username, message)) {
+                    return;
+                }
+                try {
+                    xmppGateway.sendMessage(username, message.getTo(), message.getContent());
+                    storeMessage(username, message);
+                } catch (XMPPGenericException e) {
+                    chatMetrics.error(ErrorPath.GATEWAY_ERROR);
+                    log.error("XMPP gateway error. Removing session...", e);
+                    endSession(session);
+                    webSocketTextMessageHelper.send(session, WebsocketMessage.builder().messageType(ERROR).build());
+                }
+            }
+            case GET_HISTORY -> sendHistory(session, username, message);
+            default -> {
+                log.warn("Message type {} is not available in gateway mode.", message.getMessageType());
+                webSocketTextMessageHelper.send(session, WebsocketMessage.builder()
+                        .content(message.getMessageType().name())
+                        .messageType(UNSUPPORTED)
+                        .build());
+            }
+        }
+    }
+
+    /**
+     * Answers an operation over the user's rate limit with THROTTLED, carrying the message type and
+     * the milliseconds until the next one is allowed as a JSON object.
+     */
+    private void throttle(Session session, String username, WebsocketMessage message, long throttledNanos) {
+        chatMetrics.throttled(message.getMessageType());
+        log.debug("User {} throttled on {}.", username, message.getMessageType());
+        sendThrottled(session, message, throttledNanos);
+    }
+
+    private void sendThrottled(Session session, WebsocketMessage message, long throttledNanos) {
+        JsonObject content = new JsonObject();
+        content.addProperty("messageType", message.getMessageType().name());
+        content.addProperty("retryAfter", TimeUnit.NANOSECONDS.toMillis(throttledNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+
+        webSocketTextMessageHelper.send(session, WebsocketMessage.builder()
+                .to(message.getTo())
+                .content(content.toString())
+                .messageType(THROTTLED)
+                .build());
+    }
+
+    /**
+     * Answers a message that cannot be delivered nor stored, a NEW_MESSAGE without recipient or any
+     * send without content, with SEND_STATUS for its whole {@code to} instead of sending it.
+     */
+    private boolean rejectIncomplete(Session session, String username, WebsocketMessage message) {
+        SendStatus status;
+        if (message.getMessageType() == NEW_MESSAGE && (message.getTo() == null || message.getTo().isBlank())) {
+            status = SendStatus.INVALID_RECIPIENT;
+        } else if (message.getContent() == null) {
+            status = SendStatus.INVALID_CONTENT;
+        } else {
+            return false;
+        }
+        log.warn("Rejecting {} from user {}: {}.", message.getMessageType(), username, status);
+        completeMultiMessage(session, username, message, Map.of(Objects.toString(message.getTo(), ""), status));
+        return true;
+    }
+
+    /**
+     * Stores the message for every recipient it was sent to and answers with the status of each
+     * recipient, as a JSON object of recipient to {@link SendStatus}.
+     */
+    private void completeMultiMessage(Session session, String username, WebsocketMessage message, Map<String, SendStatus> statuses) {
+        JsonObject content = new JsonObject();
+        Instant sentAt = Instant.now();
+        for (Map.Entry<String, SendStatus> status : statuses.entrySet()) {
+            content.addProperty(status.getKey(), status.getValue().name());
+            if (status.getValue() == SendStatus.SENT) {
+                sessionHibernation.wakeUser(status.getKey());
+                messageStore.store(ChatMessage.builder()
+                        .sender(username)
+                        .recipient(status.getKey())
+                        .content(message.getContent())
+                        .sentAt(sentAt)
+                        .build());
+            }
+        }
+
+        webSocketTextMessageHelper.send(session, WebsocketMessage.builder()
+                .content(content.toString())
+                .messageType(SEND_STATUS)
+                .build());
+    }
+
+    /**
+     * Parses the recipients of a MULTI_MESSAGE, sent as a JSON array of usernames. When the array
+     * cannot be parsed the whole {@code to} is answered as a single invalid recipient.
+     */
+    private static Optional<List<String>> recipients(String to) {
+        if (to == null) {
+            return Optional.empty();
+        }
+        try (JsonReader reader = new JsonReader(new StringReader(to))) {
+            List<String> recipients = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                recipients.add(reader.nextString());
+            }
+            reader.endArray();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                return Optional.empty();
+            }
+            return Optional.of(recipients);
+        } catch (IOException | IllegalStateException e) {
+            return Optional.empty();
+        }
+    }
+
+    private void storeMessage(String username, WebsocketMessage message) {
+        messageStore.store(ChatMessage.builder()
+                .sender(username)
+                .recipient(message.getTo())
+                .content(message.getContent())
+                .sentAt(Instant.now())
+                .build());
+    }
+
+    /**
+     * Answers with one page of the conversation with {@code to}, older than the cursor sent as
+     * content. The page is a JSON object with the messages, newest first, and the cursor of the
+     * next page when there is one.
+     */
+    private void sendHistory(Session session, String username, WebsocketMessage message) {
+        HistoryPage page = messageHistory.getPage(username, message.getTo(), message.getContent());
+
+        JsonArray messages = new JsonArray();
+        for (ChatMessage chatMessage : page.getMessages()) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("from", chatMessage.getSender());
+            entry.addProperty("to", chatMessage.getRecipient());
+            entry.addProperty("content", chatMessage.getContent());
+            entry.addProperty("sentAt", chatMessage.getSentAt().toEpochMilli());
+            messages.add(entry);
+        }
+        JsonObject content = new JsonObject();
+        content.add("messages", messages);
+        if (page.getCursor() != null) {
+            content.addProperty("cursor", page.getCursor());
+        }
+
+        webSocketTextMessageHelper.send(session, WebsocketMessage.builder()
+                .to(message.getTo())
+                .content(content.toString())
+                .messageType(GET_HISTORY)
+                .build());
+    }
+
+    private Optional<Account> authenticate(String username, String password) {
+        Optional<Account> account = accountService.getAccount(username);
+
+        if (account.isPresent() && !credentialVerifier.verify(username, password, account.get().getPassword())) {
+            throw new InvalidCredentialsException(username);
+        }
+        return account;
+    }
+
+    private AbstractXMPPConnection connect(String username, String password) {
+        return xmppClient.connect(username, password)
+                .orElseThrow(() -> new XMPPGenericException(username, null));
+    }
+
+    private AbstractXMPPConnection login(AbstractXMPPConnection connection, Optional<Account> account, String username, String password) {
+        if (account.isEmpty()) {
+            xmppClient.createAccount(connection, username, password);
+        }
+        xmppClient.login(connection, username, password);
+        return connection;
+    }
+
+    /**
+     * Sets up the listeners of a freshly logged in connection before the session becomes visible in
+     * the registry, so a WebSocket closing at any point finds a complete session to park or close.
+     * A WebSocket that closed before the session was registered is caught by the check after it.
+     */
+    private void completeSession(Session session, String username, AbstractXMPPConnection connection) {
+        ResumableSession resumableSession = resumableSessions.open(session, username, connection);
+        xmppClient.addIncomingMessageListener(connection, message -> {
+            sessionRegistry.getSessionsByConnection(connection).forEach(sessionHibernation::touch);
+            resumableSession.deliver(message);
+        });
+        xmppClient.addPresenceListener(connection, presence -> presenceCoalescer.offer(connection, presence));
+        streamRecovery.enable(connection, () -> handleLostConnection(connection));
+        resumableSessions.share(resumableSession);
+        trackActivity(session, username);
+        sessionRegistry.register(session, username, connection);
+
+        if (!session.isOpen()) {
+            log.info("WebSocket session for user {} closed during login.", username);
+            sessionHibernation.untrack(session);
+            sessionRegistry.remove(session).ifPresent(bound -> {
+                if (!resumableSessions.release(session) && resumableSession.getHolders().isEmpty()) {
+                    xmppClient.disconnect(bound);
+                }
+            });
+            return;
+        }
+        log.info("Session was stored.");
+
+        webSocketTextMessageHelper.send(session, WebsocketMessage.builder()
+                .to(username)
+                .content(resumableSession.getToken())
+                .messageType(JOIN_SUCCESS)
+                .build());
+        resumableSession.attach(session);
+    }
+
+    /**
+     * Attaches the session to a resumed or shared connection, whose listeners are already set up.
+     */
+    private void completeAttach(Session session, String username, ResumableSession resumableSession) {
+        sessionRegistry.register(session, username, resumableSession.getConnection());
+
+        if (!session.isOpen()) {
+            log.info("WebSocket session for user {} closed while attaching.", username);
+            disconnect(session);
+            return;
+        }
+
+        webSocketTextMessageHelper.send(session, WebsocketMessage.builder()
+                .to(username)
+                .content(resumableSession.getToken())
+                .messageType(JOIN_SUCCESS)
+                .build());
+        resumableSession.attach(session);
+        trackActivity(session, username);
+    }
+
+    private void trackActivity(Session session, String username) {
+        sessionHibernation.track(session, username, () -> hibernate(session), () -> wake(session));
+    }
+
+    /**
+     * Releases the XMPP connection of an idle session. A connection shared with other sessions of the
+     * user is only released once all of them are idle, and they hibernate together. The unavailable
+     * presence sent on disconnect makes the XMPP server keep the messages for the user in its offline
+     * storage, and hands them over on the next login.
+     */
+    private void hibernate(Session session) {
+        Optional<RegisteredSession> registeredSession = sessionRegistry.getSession(session);
+        if (registeredSession.isPresent() && registeredSession.get().isHibernated()) {
+            return;
+        }
+        if (registeredSession.isEmpty() || registeredSession.get().getConnection() == null) {
+            sessionHibernation.untrack(session);
+            return;
+        }
+        List<Session> holders = resumableSessions.getHolders(session);
+        if (!sessionHibernation.hibernate(holders)) {
+            return;
+        }
+        for (Session holder : holders) {
+            sessionRegistry.hibernate(holder).ifPresent(connection -> {
+                if (!resumableSessions.release(holder)) {
+                    xmppClient.disconnect(connection);
+                }
+            });
+        }
+    }
+
+    /**
+     * Logs a hibernated session in again, or joins it to the connection another session of the user
+     * opened meanwhile. The server does not keep passwords, so the client is asked for its
+     * credentials with REAUTHENTICATE first, and they are verified like on any login. The returned
+     * stage completes with the session bound to its new connection, so the operation that woke the
+     * session up runs on it. The client gets JOIN_SUCCESS with a new resume token. When the client
+     * does not answer in time or the login fails the session hibernates again, so its next operation
+     * tries once more.
+     */
+    private CompletableFuture<Optional<RegisteredSession>> wake(Session session) {
+        Optional<RegisteredSession> registeredSession = sessionRegistry.getSession(session);
+        if (registeredSession.isEmpty()) {
+            return CompletableFuture.completedFuture(registeredSession);
+        }
+        boolean tracked = sessionHibernation.wake(session);
+        if (!registeredSession.get().isHibernated()) {
+            return CompletableFuture.completedFuture(registeredSession);
+        }
+        if (!tracked) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        String username = registeredSession.get().getUsername();
+        CompletableFuture<String> credentials = new CompletableFuture<>();
+        reauthentications.put(session, credentials);
+        webSocketTextMessageHelper.send(session, WebsocketMessage.builder().to(username).messageType(REAUTHENTICATE).build());
+
+        return credentials.orTimeout(sessionHibernation.getReauthenticationTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((password, e) -> reauthentications.remove(session, credentials))
+                .thenCompose(password -> startSharedSession(session, username, password))
+                .handle((started, e) -> {
+                    if (e != null) {
+                        log.warn("Session {} of user {} was not reauthenticated.", session.getId(), username);
+                    }
+                    Optional<RegisteredSession> woken = sessionRegistry.getSession(session);
+                    if (woken.isPresent() && woken.get().isHibernated()) {
+                        sessionHibernation.wakeFailed(session);
+                        return Optional.empty();
+                    }
+                    return woken;
+                });
+    }
+
+    private void failSession(Session session, String username, Throwable e) {
+        if (e instanceof LoginRejectedException) {
+            webSocketTextMessageHelper.send(session, WebsocketMessage.builder()
+                    .content(String.valueOf(((LoginRejectedException) e).getRetryAfter().toMillis()))
+                    .messageType(RETRY_AFTER)
+                    .build());
+            return;
+        }
+        if (e instanceof InvalidCredentialsException) {
+            chatMetrics.error(ErrorPath.INVALID_CREDENTIALS);
+            log.warn("Invalid password for user {}.", username);
+            webSocketTextMessageHelper.send(session, WebsocketMessage.builder().messageType(FORBIDDEN).build());
+            return;
+        }
+        if (e instanceof TimeoutException) {
+            chatMetrics.error(ErrorPath.LOGIN_TIMEOUT);
+            log.error("Login for user {} timed out.", username);
+        } else {
+            chatMetrics.error(ErrorPath.LOGIN_FAILURE);
+            log.error("Login for user {} failed.", username, e);
+        }
+        webSocketTextMessageHelper.send(session, WebsocketMessage.builder().messageType(ERROR).build());
+    }
+
+    /**
+     * Ends the sessions of a connection that could not be recovered. A parked connection has no
+     * session and is left to expire.
+     */
+    private void handleLostConnection(AbstractXMPPConnection connection) {
+        chatMetrics.error(ErrorPath.CONNECTION_LOST);
+        endSessions(connection);
+    }
+
+    private void handleXMPPGenericException(Session session, AbstractXMPPConnection connection, Exception e) {
+        if (streamRecovery.isRecovering(connection)) {
+            chatMetrics.error(ErrorPath.XMPP_ERROR_RECOVERING);
+            log.warn("XMPP error while the connection is being recovered, keeping the session.", e);
+            return;
+        }
+        chatMetrics.error(ErrorPath.XMPP_ERROR);
         log.error("XMPP error. Disconnecting and removing session...", e);
+        endSession(session);
+        endSessions(connection);
         xmppClient.disconnect(connection);
         webSocketTextMessageHelper.send(session, WebsocketMessage.builder().messageType(ERROR).build());
-        CONNECTIONS.remove(session);
+    }
+
+    /**
+     * Removes every session still bound to the connection, including the ones sharing it with the
+     * session that failed, and tells their clients.
+     */
+    private void endSessions(AbstractXMPPConnection connection) {
+        for (Session session : List.copyOf(sessionRegistry.getSessionsByConnection(connection))) {
+            endSession(session);
+            webSocketTextMessageHelper.send(session, WebsocketMessage.builder().messageType(ERROR).build());
+        }
+    }
+
+    /**
+     * Forgets a session that ended on an error while its WebSocket stays open, so that neither the
+     * hibernation sweep nor a pending wake-up keeps it alive.
+     */
+    private void endSession(Session session) {
+        sessionRegistry.remove(session);
+        resumableSessions.discard(session);
+        sessionHibernation.untrack(session);
+        cancelReauthentication(session);
     }
 }
@@ -0,0 +1,38 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.login;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Sizing of the BCrypt pool and of the cache of recently verified credentials.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "xmpp.credentials")
+public class CredentialProperties {
+
+    /**
+     * Number of threads running BCrypt. BCrypt is CPU bound, so more threads than cores only adds
+     * contention.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of verifications waiting for a BCrypt thread before new ones are rejected.
+     */
+    private int queueCapacity = 64;
+
+    /**
+     * How long a successful verification is remembered. Zero disables the cache.
+     */
+    private Duration cacheTtl = Duration.ofMinutes(5);
+
+    /**
+     * Maximum number of remembered verifications.
+     */
+    private int cacheSize = 10_000;
+
+}
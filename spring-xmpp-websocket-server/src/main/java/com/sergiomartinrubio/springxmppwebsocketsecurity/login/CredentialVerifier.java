@@ -0,0 +1,156 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.login;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.utils.BCryptUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies passwords against their BCrypt hash on a dedicated, bounded pool of CPU threads.
+ * <p>
+ * Successful verifications are remembered for a short time so a browser that reconnects with the
+ * same credentials skips BCrypt. Entries are keyed by an HMAC of username and password with a
+ * random per-process key, so the cache never holds a plain or cheaply reversible password, and they
+ * are bound to the stored hash so a password change invalidates them. The cache is a bounded
+ * Caffeine cache whose entries expire {@code cache-ttl} after the verification.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(CredentialProperties.class)
+public class CredentialVerifier implements DisposableBean {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final CredentialProperties credentialProperties;
+    private final ThreadPoolExecutor bcryptExecutor;
+    private final ThreadLocal<Mac> mac;
+    private final Cache<ByteBuffer, String> verified;
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+
+    public CredentialVerifier(CredentialProperties credentialProperties) {
+        this.credentialProperties = credentialProperties;
+        this.bcryptExecutor = new ThreadPoolExecutor(credentialProperties.getThreads(), credentialProperties.getThreads(),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(credentialProperties.getQueueCapacity()),
+                new CustomizableThreadFactory("bcrypt-"));
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(credentialProperties.getCacheSize())
+                .expireAfterWrite(credentialProperties.getCacheTtl())
+                .build();
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec secretKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac instance = Mac.getInstance(HMAC_ALGORITHM);
+                instance.init(secretKey);
+                return instance;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(HMAC_ALGORITHM + " is not available.", e);
+            }
+        });
+    }
+
+    /**
+     * Blocks until the password is verified. Throws {@link java.util.concurrent.RejectedExecutionException}
+     * when the BCrypt queue is full.
+     */
+    public boolean verify(String username, String plainTextPassword, String hashedPassword) {
+        boolean cacheEnabled = !credentialProperties.getCacheTtl().isZero();
+        ByteBuffer key = null;
+        if (cacheEnabled) {
+            key = cacheKey(username, plainTextPassword);
+            if (hashedPassword.equals(verified.getIfPresent(key))) {
+                cacheHits.increment();
+                return true;
+            }
+            cacheMisses.increment();
+        }
+
+        long submitted = System.nanoTime();
+        Future<Boolean> match = bcryptExecutor.submit(() -> {
+            queueWaitNanos.add(System.nanoTime() - submitted);
+            verifications.increment();
+            return BCryptUtils.isMatch(plainTextPassword, hashedPassword);
+        });
+
+        boolean isMatch = await(match);
+        if (isMatch && cacheEnabled) {
+            verified.put(key, hashedPassword);
+        }
+        return isMatch;
+    }
+
+    public double getCacheHitRate() {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public long getCacheSize() {
+        return verified.estimatedSize();
+    }
+
+    public int getQueueDepth() {
+        return bcryptExecutor.getQueue().size();
+    }
+
+    public Duration getAverageQueueWait() {
+        long count = verifications.sum();
+        return count == 0 ? Duration.ZERO : Duration.ofNanos(queueWaitNanos.sum() / count);
+    }
+
+    @Override
+    public void destroy() {
+        bcryptExecutor.shutdownNow();
+    }
+
+    private static boolean await(Future<Boolean> match) {
+        try {
+            return match.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            match.cancel(true);
+            throw new IllegalStateException("Interrupted while verifying credentials.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Credential verification failed.", e.getCause());
+        }
+    }
+
+    private ByteBuffer cacheKey(String username, String plainTextPassword) {
+        Mac instance = mac.get();
+        instance.update(username.getBytes(StandardCharsets.UTF_8));
+        instance.update((byte) 0);
+        return ByteBuffer.wrap(instance.doFinal(plainTextPassword.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,290 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.login;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.exception.LoginRejectedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Admission control in front of the login pipeline.
+ * <p>
+ * A login starts once one of {@code maxConcurrent} slots and a token of the token bucket are free.
+ * Logins that cannot start straight away wait in a FIFO queue, so clients are served in the order
+ * they arrived. When the queue is full, or the expected wait is longer than {@code maxQueueWait},
+ * the login is rejected with a {@link LoginRejectedException} carrying the expected wait, which the
+ * client uses as its retry delay.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(LoginAdmissionProperties.class)
+public class LoginAdmission implements DisposableBean {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double DURATION_SMOOTHING = 0.2;
+
+    private final LoginAdmissionProperties loginAdmissionProperties;
+    private final ScheduledExecutorService drainScheduler;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<PendingLogin> queue = new ArrayDeque<>();
+
+    private final LongAdder admittedLogins = new LongAdder();
+    private final LongAdder rejectedLogins = new LongAdder();
+    private final LongAdder abandonedLogins = new LongAdder();
+
+    private int inFlight;
+    private double tokens;
+    private long lastRefill;
+    private boolean drainScheduled;
+
+    /**
+     * Moving average of the login duration, used to estimate how long the queue takes to clear.
+     */
+    private double averageLoginNanos;
+
+    public LoginAdmission(LoginAdmissionProperties loginAdmissionProperties) {
+        this.loginAdmissionProperties = loginAdmissionProperties;
+        this.tokens = loginAdmissionProperties.getBurst();
+        this.averageLoginNanos = loginAdmissionProperties.getExpectedLoginDuration().toNanos();
+        this.lastRefill = System.nanoTime();
+        this.drainScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("xmpp-login-admission-"));
+    }
+
+    /**
+     * Runs the login when its turn comes. The returned future completes with the login, or
+     * exceptionally with a {@link LoginRejectedException}. A queued login that is
+     * {@code abandoned} by the time its turn comes, because the client went away, is skipped
+     * without using a slot.
+     */
+    public CompletableFuture<Void> submit(String username, Supplier<CompletableFuture<Void>> login, BooleanSupplier abandoned) {
+        if (!loginAdmissionProperties.isEnabled()) {
+            return login.get();
+        }
+
+        PendingLogin pendingLogin = new PendingLogin(login, abandoned);
+        boolean start = false;
+        Duration retryAfter = null;
+
+        lock.lock();
+        try {
+            refill();
+            if (queue.isEmpty() && inFlight < loginAdmissionProperties.getMaxConcurrent() && tokens >= 1) {
+                tokens--;
+                inFlight++;
+                start = true;
+            } else {
+                Duration expectedWait = estimateWait(queue.size() + 1);
+                if (queue.size() >= loginAdmissionProperties.getQueueCapacity()
+                        || expectedWait.compareTo(loginAdmissionProperties.getMaxQueueWait()) > 0) {
+                    retryAfter = clampRetryAfter(expectedWait);
+                } else {
+                    queue.addLast(pendingLogin);
+                    if (inFlight < loginAdmissionProperties.getMaxConcurrent()) {
+                        scheduleDrain();
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (retryAfter != null) {
+            rejectedLogins.increment();
+            log.info("Login for user {} rejected, retry after {} ms.", username, retryAfter.toMillis());
+            return CompletableFuture.failedFuture(new LoginRejectedException(username, retryAfter));
+        }
+        if (start) {
+            start(pendingLogin);
+        }
+        return pendingLogin.result;
+    }
+
+    public int getQueuedLogins() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlightLogins() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmittedLogins() {
+        return admittedLogins.sum();
+    }
+
+    public long getRejectedLogins() {
+        return rejectedLogins.sum();
+    }
+
+    public long getAbandonedLogins() {
+        return abandonedLogins.sum();
+    }
+
+    @Override
+    public void destroy() {
+        drainScheduler.shutdownNow();
+    }
+
+    private void start(PendingLogin pendingLogin) {
+        admittedLogins.increment();
+        long started = System.nanoTime();
+        CompletableFuture<Void> login;
+        try {
+            login = pendingLogin.login.get();
+        } catch (RuntimeException e) {
+            login = CompletableFuture.failedFuture(e);
+        }
+        login.whenComplete((result, e) -> {
+            complete(started);
+            if (e != null) {
+                pendingLogin.result.completeExceptionally(e);
+            } else {
+                pendingLogin.result.complete(result);
+            }
+        });
+    }
+
+    private void complete(long started) {
+        lock.lock();
+        try {
+            inFlight--;
+            long duration = System.nanoTime() - started;
+            averageLoginNanos += DURATION_SMOOTHING * (duration - averageLoginNanos);
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * Starts queued logins, in order, while there are free slots and tokens.
+     */
+    private void drain() {
+        List<PendingLogin> ready = new ArrayList<>();
+        List<PendingLogin> skipped = new ArrayList<>();
+
+        lock.lock();
+        try {
+            refill();
+            while (!queue.isEmpty() && inFlight < loginAdmissionProperties.getMaxConcurrent()) {
+                PendingLogin next = queue.peekFirst();
+                if (next.abandoned.getAsBoolean()) {
+                    skipped.add(queue.pollFirst());
+                    continue;
+                }
+                if (tokens < 1) {
+                    scheduleDrain();
+                    break;
+                }
+                queue.pollFirst();
+                tokens--;
+                inFlight++;
+                ready.add(next);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (PendingLogin pendingLogin : skipped) {
+            abandonedLogins.increment();
+            pendingLogin.result.complete(null);
+        }
+        ready.forEach(this::start);
+    }
+
+    /**
+     * Schedules a drain for when the next token is available. Must be called holding the lock.
+     */
+    private void scheduleDrain() {
+        if (drainScheduled) {
+            return;
+        }
+        long delay = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / loginAdmissionProperties.getRate() * NANOS_PER_SECOND);
+        drainScheduled = true;
+        try {
+            drainScheduler.schedule(() -> {
+                lock.lock();
+                try {
+                    drainScheduled = false;
+                } finally {
+                    lock.unlock();
+                }
+                drain();
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            drainScheduled = false;
+            log.debug("Login admission is shut down, queued logins were not started.");
+        }
+    }
+
+    /**
+     * Refills the token bucket for the time elapsed since the last refill. Must be called holding
+     * the lock.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(loginAdmissionProperties.getBurst(),
+                tokens + (now - lastRefill) / NANOS_PER_SECOND * loginAdmissionProperties.getRate());
+        lastRefill = now;
+    }
+
+    /**
+     * Expected wait of the login at the given queue position: the longer of the time the bucket
+     * takes to hand out enough tokens and the time the slots take to work through the queue. Must
+     * be called holding the lock.
+     */
+    private Duration estimateWait(int position) {
+        double rateNanos = Math.max(0, position - tokens) / loginAdmissionProperties.getRate() * NANOS_PER_SECOND;
+        double concurrencyNanos = inFlight < loginAdmissionProperties.getMaxConcurrent() && queue.isEmpty()
+                ? 0
+                : position * averageLoginNanos / loginAdmissionProperties.getMaxConcurrent();
+        return Duration.ofNanos((long) Math.max(rateNanos, concurrencyNanos));
+    }
+
+    private Duration clampRetryAfter(Duration expectedWait) {
+        if (expectedWait.compareTo(loginAdmissionProperties.getMinRetryAfter()) < 0) {
+            return loginAdmissionProperties.getMinRetryAfter();
+        }
+        if (expectedWait.compareTo(loginAdmissionProperties.getMaxRetryAfter()) > 0) {
+            return loginAdmissionProperties.getMaxRetryAfter();
+        }
+        return expectedWait;
+    }
+
+    private static final class PendingLogin {
+
+        private final Supplier<CompletableFuture<Void>> login;
+        private final BooleanSupplier abandoned;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private PendingLogin(Supplier<CompletableFuture<Void>> login, BooleanSupplier abandoned) {
+            this.login = login;
+            this.abandoned = abandoned;
+        }
+    }
+}
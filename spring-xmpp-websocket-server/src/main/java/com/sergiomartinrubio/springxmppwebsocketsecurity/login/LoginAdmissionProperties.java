@@ -0,0 +1,64 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.login;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Limits on how many logins start and how fast, so a reconnect storm is spread out instead of
+ * hitting the database, BCrypt and the XMPP server all at once.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "xmpp.login.admission")
+public class LoginAdmissionProperties {
+
+    /**
+     * Queue logins behind the limits below. When disabled every login starts straight away.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Maximum number of logins in progress at the same time.
+     */
+    private int maxConcurrent = 16;
+
+    /**
+     * Logins started per second once the burst is used up.
+     */
+    private double rate = 20;
+
+    /**
+     * Logins that can start back to back after a quiet period.
+     */
+    private int burst = 40;
+
+    /**
+     * Maximum number of logins waiting for their turn. Further clients are told to retry later.
+     */
+    private int queueCapacity = 1000;
+
+    /**
+     * Maximum time a login may wait for its turn. Clients whose expected wait is longer are told to
+     * retry later instead of being queued.
+     */
+    private Duration maxQueueWait = Duration.ofSeconds(15);
+
+    /**
+     * Expected duration of one login, used to estimate waits until real logins have been measured.
+     */
+    private Duration expectedLoginDuration = Duration.ofSeconds(1);
+
+    /**
+     * Lower bound of the retry delay sent to rejected clients.
+     */
+    private Duration minRetryAfter = Duration.ofSeconds(1);
+
+    /**
+     * Upper bound of the retry delay sent to rejected clients.
+     */
+    private Duration maxRetryAfter = Duration.ofSeconds(30);
+
+}
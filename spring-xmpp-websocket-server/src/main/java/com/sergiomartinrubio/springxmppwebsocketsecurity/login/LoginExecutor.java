@@ -0,0 +1,113 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.login;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executor for the blocking stages of a login (database, BCrypt, TCP connect, SASL), so they
+ * never run on WebSocket container threads.
+ * <p>
+ * Virtual threads are used when the JVM provides them, otherwise a fixed pool of platform threads
+ * with a bounded queue. Either way at most {@code threads + queueCapacity} stages are accepted and
+ * any further stage is rejected straight away.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(LoginProperties.class)
+public class LoginExecutor implements Executor, DisposableBean {
+
+    private final ExecutorService executorService;
+    private final Semaphore permits;
+
+    public LoginExecutor(LoginProperties loginProperties) {
+        this.permits = new Semaphore(loginProperties.getThreads() + loginProperties.getQueueCapacity());
+        this.executorService = createExecutorService(loginProperties);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Too many logins in progress.");
+        }
+        try {
+            executorService.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a single pipeline stage with its own timeout. The stage keeps running after a timeout
+     * because blocking Smack calls cannot be interrupted safely, so a result that arrives too late is
+     * handed to {@code discardLateResult} to release whatever it holds.
+     */
+    public <T> CompletableFuture<T> stage(Supplier<T> task, Duration timeout, Consumer<T> discardLateResult) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            CompletableFuture.supplyAsync(task, this).whenComplete((value, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else if (!result.complete(value) && value != null) {
+                    discardLateResult.accept(value);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdown();
+    }
+
+    private static ExecutorService createExecutorService(LoginProperties loginProperties) {
+        if (loginProperties.isVirtualThreads()) {
+            try {
+                ExecutorService virtualThreads = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+                log.info("Login pipeline running on virtual threads.");
+                return virtualThreads;
+            } catch (ReflectiveOperationException e) {
+                log.info("Virtual threads are not available, login pipeline running on platform threads.");
+            }
+        }
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                loginProperties.getThreads(),
+                loginProperties.getThreads(),
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, loginProperties.getQueueCapacity())),
+                new CustomizableThreadFactory("xmpp-login-"));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+}
@@ -0,0 +1,47 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.login;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Sizing and timeouts of the asynchronous pipeline that starts XMPP sessions.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "xmpp.login")
+public class LoginProperties {
+
+    /**
+     * Maximum number of login stages running at the same time.
+     */
+    private int threads = 16;
+
+    /**
+     * Maximum number of login stages waiting for a free thread before new logins are rejected.
+     */
+    private int queueCapacity = 256;
+
+    /**
+     * Run login stages on virtual threads when the JVM supports them.
+     */
+    private boolean virtualThreads = true;
+
+    /**
+     * Maximum time to look up the account and verify the password.
+     */
+    private Duration authenticationTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Maximum time to open the TCP connection and negotiate the XMPP stream.
+     */
+    private Duration connectTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Maximum time to register the account (if needed) and authenticate against the XMPP server.
+     */
+    private Duration loginTimeout = Duration.ofSeconds(10);
+
+}
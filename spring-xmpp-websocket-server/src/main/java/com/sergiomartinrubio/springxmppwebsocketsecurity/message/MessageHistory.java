@@ -0,0 +1,58 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.message;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.ChatMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.HistoryPage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.repository.MessageRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads conversations page by page with keyset pagination: the cursor is the id of the oldest
+ * message already sent, and the next page seeks right below it instead of skipping rows with an
+ * OFFSET. Only one page is held in memory and sent at a time, clients ask for older pages with the
+ * returned cursor.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@EnableConfigurationProperties(MessageHistoryProperties.class)
+public class MessageHistory {
+
+    private final MessageHistoryProperties messageHistoryProperties;
+    private final MessageRepository messageRepository;
+
+    /**
+     * Returns the page of the conversation older than the cursor, or the latest page when the cursor
+     * is null.
+     */
+    public HistoryPage getPage(String username, String peer, String cursor) {
+        long beforeId;
+        try {
+            beforeId = cursor == null ? Long.MAX_VALUE : Long.parseLong(cursor);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid history cursor '{}' from user '{}'.", cursor, username);
+            return new HistoryPage(List.of(), null);
+        }
+
+        int pageSize = messageHistoryProperties.getPageSize();
+        List<ChatMessage> found = messageRepository.findConversation(username, peer, beforeId, pageSize + 1);
+
+        List<ChatMessage> page = new ArrayList<>(Math.min(found.size(), pageSize));
+        int characters = 0;
+        for (ChatMessage message : found) {
+            characters += message.getContent().length();
+            if (page.size() == pageSize || (!page.isEmpty() && characters > messageHistoryProperties.getMaxPageCharacters())) {
+                break;
+            }
+            page.add(message);
+        }
+
+        String nextCursor = page.size() < found.size() ? String.valueOf(page.get(page.size() - 1).getId()) : null;
+        return new HistoryPage(page, nextCursor);
+    }
+}
@@ -0,0 +1,26 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.message;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Bounds of the conversation history pages sent to the clients.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "messages.history")
+public class MessageHistoryProperties {
+
+    /**
+     * Maximum number of messages in one page.
+     */
+    private int pageSize = 50;
+
+    /**
+     * Maximum number of content characters in one page, so a page of long messages still fits in a
+     * reasonable frame. A page always holds at least one message.
+     */
+    private int maxPageCharacters = 64 * 1024;
+
+}
@@ -0,0 +1,192 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.message;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.ChatMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.repository.MessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind buffer for sent messages. The send path only enqueues, a single writer thread takes
+ * the messages in JDBC batches of up to {@code batch-size}, written as soon as a batch is full or
+ * {@code flush-interval} after its first message.
+ * <p>
+ * When the buffer is full the send path waits up to {@code offer-timeout} and then gives the message
+ * up rather than slowing down the chat. On shutdown new messages are refused and everything already
+ * buffered is written before the datasource goes away.
+ * <p>
+ * A batch the database refuses because of one of its rows, or that still fails after
+ * {@code max-attempts}, is written again row by row so only the failing rows are lost.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(MessageStoreProperties.class)
+public class MessageStore implements InitializingBean, DisposableBean {
+
+    private final MessageStoreProperties messageStoreProperties;
+    private final MessageRepository messageRepository;
+    private final BlockingQueue<ChatMessage> buffer;
+
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public MessageStore(MessageStoreProperties messageStoreProperties, MessageRepository messageRepository) {
+        this.messageStoreProperties = messageStoreProperties;
+        this.messageRepository = messageRepository;
+        this.buffer = new ArrayBlockingQueue<>(messageStoreProperties.getBufferCapacity());
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!messageStoreProperties.isEnabled()) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::write, "message-store-writer");
+        writer.start();
+    }
+
+    /**
+     * Buffers the message for writing. Returns false when it will not be persisted.
+     */
+    public boolean store(ChatMessage message) {
+        if (message.getRecipient() == null || message.getContent() == null) {
+            rejected.increment();
+            log.warn("Message from '{}' without recipient or content not persisted.", message.getSender());
+            return false;
+        }
+        if (!running) {
+            return false;
+        }
+        try {
+            if (buffer.offer(message, messageStoreProperties.getOfferTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejected.increment();
+        log.warn("Message store buffer is full, message from '{}' to '{}' not persisted.",
+                message.getSender(), message.getRecipient());
+        return false;
+    }
+
+    public int getBufferDepth() {
+        return buffer.size();
+    }
+
+    public long getStoredMessages() {
+        return stored.sum();
+    }
+
+    public long getRejectedMessages() {
+        return rejected.sum();
+    }
+
+    public long getFailedMessages() {
+        return failed.sum();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.join(messageStoreProperties.getShutdownTimeout().toMillis());
+        if (writer.isAlive()) {
+            writer.interrupt();
+            log.error("Message store did not drain in {}, {} messages not persisted.",
+                    messageStoreProperties.getShutdownTimeout(), buffer.size());
+        }
+    }
+
+    private void write() {
+        int batchSize = messageStoreProperties.getBatchSize();
+        long flushIntervalNanos = messageStoreProperties.getFlushInterval().toNanos();
+        while (running || !buffer.isEmpty()) {
+            List<ChatMessage> batch = new ArrayList<>(batchSize);
+            try {
+                ChatMessage first = buffer.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize && running) {
+                    buffer.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    ChatMessage next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                buffer.drainTo(batch, batchSize - batch.size());
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void flush(List<ChatMessage> batch) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                messageRepository.saveAll(batch);
+                stored.add(batch.size());
+                return;
+            } catch (DataIntegrityViolationException e) {
+                log.warn("Batch of {} messages refused, writing its rows one by one.", batch.size(), e);
+                flushEach(batch);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= messageStoreProperties.getMaxAttempts()) {
+                    log.error("Writing {} messages failed after {} attempts, writing its rows one by one.", batch.size(), attempt, e);
+                    flushEach(batch);
+                    return;
+                }
+                log.warn("Writing {} messages failed, retrying.", batch.size(), e);
+                Thread.sleep(messageStoreProperties.getFlushInterval().toMillis() * attempt);
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of a failed batch one at a time. A batch of one row already failed as a whole.
+     */
+    private void flushEach(List<ChatMessage> batch) {
+        if (batch.size() == 1) {
+            failed.increment();
+            return;
+        }
+        for (ChatMessage message : batch) {
+            try {
+                messageRepository.saveAll(List.of(message));
+                stored.increment();
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.error("Writing message from '{}' to '{}' failed, message not persisted.",
+                        message.getSender(), message.getRecipient(), e);
+            }
+        }
+    }
+}
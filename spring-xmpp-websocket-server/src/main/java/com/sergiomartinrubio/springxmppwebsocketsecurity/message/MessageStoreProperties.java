@@ -0,0 +1,52 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.message;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Sizing of the write-behind buffer between the send path and the {@code message} table.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "messages.store")
+public class MessageStoreProperties {
+
+    /**
+     * Persist sent messages.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Maximum number of messages written in one JDBC batch. A full batch is written straight away.
+     */
+    private int batchSize = 500;
+
+    /**
+     * Maximum time a message waits in the buffer before its batch is written.
+     */
+    private Duration flushInterval = Duration.ofMillis(200);
+
+    /**
+     * Maximum number of messages waiting to be written.
+     */
+    private int bufferCapacity = 10_000;
+
+    /**
+     * How long the send path waits for room in a full buffer before the message is not persisted.
+     */
+    private Duration offerTimeout = Duration.ofMillis(50);
+
+    /**
+     * Number of attempts to write a batch before it is given up.
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * Maximum time to write the buffered messages on shutdown.
+     */
+    private Duration shutdownTimeout = Duration.ofSeconds(30);
+
+}
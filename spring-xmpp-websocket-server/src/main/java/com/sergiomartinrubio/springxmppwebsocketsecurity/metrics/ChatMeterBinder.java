@@ -0,0 +1,171 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.metrics;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.CredentialVerifier;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.LoginAdmission;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.LoginExecutor;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.message.MessageStore;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.presence.PresenceCoalescer;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.ratelimit.RateLimiter;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.resume.ResumableSessions;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.service.AccountService;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionHibernation;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionMailboxes;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionRegistry;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.WebSocketTextMessageHelper;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.StreamRecovery;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.pool.XMPPConnectionPool;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes the counters the components already keep as gauges and function counters. They are
+ * read when the registry is scraped, so nothing is added to the paths that update them.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChatMeterBinder implements MeterBinder {
+
+    private final SessionRegistry sessionRegistry;
+    private final ResumableSessions resumableSessions;
+    private final XMPPConnectionPool xmppConnectionPool;
+    private final WebSocketTextMessageHelper webSocketTextMessageHelper;
+    private final LoginExecutor loginExecutor;
+    private final LoginAdmission loginAdmission;
+    private final CredentialVerifier credentialVerifier;
+    private final AccountService accountService;
+    private final MessageStore messageStore;
+    private final PresenceCoalescer presenceCoalescer;
+    private final StreamRecovery streamRecovery;
+    private final SessionMailboxes sessionMailboxes;
+    private final RateLimiter rateLimiter;
+    private final SessionHibernation sessionHibernation;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        gauge(registry, "chat.sessions.active", "WebSocket sessions with a completed login",
+                sessionRegistry, SessionRegistry::getActiveSessions);
+        gauge(registry, "chat.users.connected", "Users with at least one session",
+                sessionRegistry, SessionRegistry::getConnectedUsers);
+        gauge(registry, "chat.sessions.hibernated", "Idle sessions whose XMPP connection was released",
+                sessionHibernation, SessionHibernation::getHibernatedSessions);
+        counter(registry, "chat.hibernation", "Session hibernation transitions", "event", "hibernated",
+                sessionHibernation, SessionHibernation::getHibernations);
+        counter(registry, "chat.hibernation", "Session hibernation transitions", "event", "woken",
+                sessionHibernation, SessionHibernation::getWakeUps);
+
+        Gauge.builder("xmpp.connections", sessionRegistry, SessionRegistry::getBoundConnections)
+                .description("Open XMPP connections by state")
+                .tag("state", "bound")
+                .register(registry);
+        Gauge.builder("xmpp.connections", resumableSessions, ResumableSessions::getParkedSessions)
+                .description("Open XMPP connections by state")
+                .tag("state", "parked")
+                .register(registry);
+        gauge(registry, "xmpp.connections.shared", "XMPP connections open for further sessions of their user to join",
+                resumableSessions, ResumableSessions::getSharedConnections);
+        counter(registry, "chat.sessions.joined", "Sessions that joined the open XMPP connection of their user",
+                resumableSessions, ResumableSessions::getJoinedSessions);
+        Gauge.builder("xmpp.connections", xmppConnectionPool, XMPPConnectionPool::getReady)
+                .description("Open XMPP connections by state")
+                .tag("state", "pooled")
+                .register(registry);
+        gauge(registry, "xmpp.pool.target", "Warm connections the pool keeps ready",
+                xmppConnectionPool, XMPPConnectionPool::getTarget);
+        counter(registry, "xmpp.pool.requests", "Connection requests by pool outcome", "result", "hit",
+                xmppConnectionPool, XMPPConnectionPool::getHits);
+        counter(registry, "xmpp.pool.requests", "Connection requests by pool outcome", "result", "miss",
+                xmppConnectionPool, XMPPConnectionPool::getMisses);
+
+        gauge(registry, "websocket.outbound.queue.depth", "Messages waiting in all outbound queues",
+                webSocketTextMessageHelper, WebSocketTextMessageHelper::getTotalQueueDepth);
+        gauge(registry, "websocket.outbound.queue.depth.max", "Messages waiting in the deepest outbound queue",
+                webSocketTextMessageHelper, WebSocketTextMessageHelper::getMaxQueueDepth);
+
+        gauge(registry, "websocket.mailbox.depth", "Operations waiting in all session mailboxes",
+                sessionMailboxes, SessionMailboxes::getTotalDepth);
+        gauge(registry, "websocket.mailbox.depth.max", "Operations waiting in the deepest session mailbox",
+                sessionMailboxes, SessionMailboxes::getMaxDepth);
+
+        gauge(registry, "login.permits.available", "Logins that can start without queueing",
+                loginExecutor, LoginExecutor::getAvailablePermits);
+        gauge(registry, "chat.throttled.users", "Users whose rate limit buckets are kept",
+                rateLimiter, RateLimiter::getTrackedUsers);
+
+        gauge(registry, "login.admission.queued", "Logins waiting for their turn",
+                loginAdmission, LoginAdmission::getQueuedLogins);
+        gauge(registry, "login.admission.in_flight", "Admitted logins in progress",
+                loginAdmission, LoginAdmission::getInFlightLogins);
+        counter(registry, "login.admission", "Logins by admission outcome", "result", "admitted",
+                loginAdmission, LoginAdmission::getAdmittedLogins);
+        counter(registry, "login.admission", "Logins by admission outcome", "result", "rejected",
+                loginAdmission, LoginAdmission::getRejectedLogins);
+        counter(registry, "login.admission", "Logins by admission outcome", "result", "abandoned",
+                loginAdmission, LoginAdmission::getAbandonedLogins);
+        gauge(registry, "login.verifications.queued", "Password verifications waiting for a thread",
+                credentialVerifier, CredentialVerifier::getQueueDepth);
+        counter(registry, "login.verifications.cache", "Password verifications by cache outcome", "result", "hit",
+                credentialVerifier, CredentialVerifier::getCacheHits);
+        counter(registry, "login.verifications.cache", "Password verifications by cache outcome", "result", "miss",
+                credentialVerifier, CredentialVerifier::getCacheMisses);
+        counter(registry, "accounts.cache", "Account lookups by cache outcome", "result", "hit",
+                accountService, service -> service.getCacheStats().hitCount());
+        counter(registry, "accounts.cache", "Account lookups by cache outcome", "result", "miss",
+                accountService, service -> service.getCacheStats().missCount());
+        gauge(registry, "accounts.cache.size", "Accounts held in the cache",
+                accountService, AccountService::getCacheSize);
+
+        gauge(registry, "messages.store.buffer", "Messages waiting to be written",
+                messageStore, MessageStore::getBufferDepth);
+        counter(registry, "messages.store", "Messages by store outcome", "result", "stored",
+                messageStore, MessageStore::getStoredMessages);
+        counter(registry, "messages.store", "Messages by store outcome", "result", "rejected",
+                messageStore, MessageStore::getRejectedMessages);
+        counter(registry, "messages.store", "Messages by store outcome", "result", "failed",
+                messageStore, MessageStore::getFailedMessages);
+
+        counter(registry, "presence.received", "Presence changes received from the XMPP server",
+                presenceCoalescer, PresenceCoalescer::getReceivedPresences);
+        counter(registry, "presence.batches", "Coalesced presence batches sent to clients",
+                presenceCoalescer, PresenceCoalescer::getSentBatches);
+
+        String recovery = "XMPP stream recovery events";
+        counter(registry, "xmpp.stream.recovery", recovery, "event", "interrupted",
+                streamRecovery, StreamRecovery::getInterruptions);
+        counter(registry, "xmpp.stream.recovery", recovery, "event", "resumed",
+                streamRecovery, StreamRecovery::getResumptions);
+        counter(registry, "xmpp.stream.recovery", recovery, "event", "relogged",
+                streamRecovery, StreamRecovery::getRelogins);
+        counter(registry, "xmpp.stream.recovery", recovery, "event", "failed_attempt",
+                streamRecovery, StreamRecovery::getFailedAttempts);
+        counter(registry, "xmpp.stream.recovery", recovery, "event", "lost",
+                streamRecovery, StreamRecovery::getLostConnections);
+        counter(registry, "xmpp.stream.recovery", recovery, "event", "dropped_stanza",
+                streamRecovery, StreamRecovery::getDroppedStanzas);
+    }
+
+    private static <T> void gauge(MeterRegistry registry, String name, String description, T source, ToDoubleFunction<T> value) {
+        Gauge.builder(name, source, value)
+                .description(description)
+                .register(registry);
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, String description, T source, ToDoubleFunction<T> count) {
+        FunctionCounter.builder(name, source, count)
+                .description(description)
+                .register(registry);
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, String description, String tag, String tagValue,
+                                    T source, ToDoubleFunction<T> count) {
+        FunctionCounter.builder(name, source, count)
+                .description(description)
+                .tag(tag, tagValue)
+                .register(registry);
+    }
+}
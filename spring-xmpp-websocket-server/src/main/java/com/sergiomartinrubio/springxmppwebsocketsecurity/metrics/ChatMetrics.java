@@ -0,0 +1,117 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.metrics;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the hot paths. Every meter is registered up front and looked up by enum, so recording
+ * costs no registry lookup, and tags only take values from fixed enums: never usernames, JIDs or
+ * session ids.
+ */
+@Component
+public class ChatMetrics {
+
+    public enum Operation {
+        CONNECT, LOGIN, CREATE_ACCOUNT, SEND_MESSAGE, SEND_MESSAGES, GET_CONTACTS
+    }
+
+    public enum ErrorPath {
+        INVALID_CREDENTIALS, LOGIN_TIMEOUT, LOGIN_FAILURE, RESUME_FAILURE, XMPP_ERROR, XMPP_ERROR_RECOVERING,
+        CONNECTION_LOST, GATEWAY_ERROR, WEBSOCKET_SEND, OUTBOUND_DROPPED, MAILBOX_FULL
+    }
+
+    private final Map<Operation, Timer> operationTimers = new EnumMap<>(Operation.class);
+    private final Map<MessageType, Counter> received = new EnumMap<>(MessageType.class);
+    private final Map<MessageType, Counter> sent = new EnumMap<>(MessageType.class);
+    private final Map<MessageType, Counter> throttled = new EnumMap<>(MessageType.class);
+    private final Map<ErrorPath, Counter> errors = new EnumMap<>(ErrorPath.class);
+    private final Timer webSocketSendTimer;
+    private final Timer mailboxLatencyTimer;
+
+    public ChatMetrics(MeterRegistry meterRegistry) {
+        for (Operation operation : Operation.values()) {
+            operationTimers.put(operation, Timer.builder("xmpp.client.operations")
+                    .description("Duration of the calls to the XMPP server")
+                    .tag("operation", tag(operation))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        for (MessageType messageType : MessageType.values()) {
+            received.put(messageType, messageCounter(meterRegistry, "inbound", messageType));
+            sent.put(messageType, messageCounter(meterRegistry, "outbound", messageType));
+            throttled.put(messageType, Counter.builder("chat.throttled")
+                    .description("Client operations rejected by the per-user rate limits")
+                    .tag("type", messageType.name())
+                    .register(meterRegistry));
+        }
+        for (ErrorPath errorPath : ErrorPath.values()) {
+            errors.put(errorPath, Counter.builder("chat.errors")
+                    .description("Errors by the path that handled them")
+                    .tag("path", tag(errorPath))
+                    .register(meterRegistry));
+        }
+        webSocketSendTimer = Timer.builder("websocket.send")
+                .description("Duration of the writes to WebSocket clients")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        mailboxLatencyTimer = Timer.builder("websocket.mailbox.latency")
+                .description("Time client operations wait in their session mailbox before running")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Records an XMPP operation started at {@code startNanos}, as returned by {@link System#nanoTime()}.
+     */
+    public void recordOperation(Operation operation, long startNanos) {
+        operationTimers.get(operation).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordWebSocketSend(long startNanos) {
+        webSocketSendTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordMailboxLatency(long queuedNanos) {
+        mailboxLatencyTimer.record(System.nanoTime() - queuedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void received(MessageType messageType) {
+        if (messageType != null) {
+            received.get(messageType).increment();
+        }
+    }
+
+    public void sent(MessageType messageType) {
+        if (messageType != null) {
+            sent.get(messageType).increment();
+        }
+    }
+
+    public void throttled(MessageType messageType) {
+        throttled.get(messageType).increment();
+    }
+
+    public void error(ErrorPath errorPath) {
+        errors.get(errorPath).increment();
+    }
+
+    private static Counter messageCounter(MeterRegistry meterRegistry, String direction, MessageType messageType) {
+        return Counter.builder("chat.messages")
+                .description("WebSocket messages by direction and type")
+                .tag("direction", direction)
+                .tag("type", messageType.name())
+                .register(meterRegistry);
+    }
+
+    private static String tag(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,16 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+
+@Value
+@Builder
+public class ChatMessage {
+    Long id;
+    String sender;
+    String recipient;
+    String content;
+    Instant sentAt;
+}
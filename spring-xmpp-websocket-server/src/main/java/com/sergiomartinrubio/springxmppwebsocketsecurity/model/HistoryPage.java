@@ -0,0 +1,15 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.model;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * One page of a conversation, newest message first. The cursor requests the next, older page and
+ * is null on the last one.
+ */
+@Value
+public class HistoryPage {
+    List<ChatMessage> messages;
+    String cursor;
+}
@@ -1,5 +1,10 @@
 package com.sergiomartinrubio.springxmppwebsocketsecurity.model;
 
+/**
+ * The binary wire protocol encodes message types by ordinal: only append new types, and keep
+ * MESSAGE_TYPES in the React client's binaryCodec.js in the same order.
+ */
 public enum MessageType {
-    NEW_MESSAGE, JOIN_SUCCESS, LEAVE, ERROR, FORBIDDEN, ADD_CONTACT, GET_CONTACTS
+    NEW_MESSAGE, JOIN_SUCCESS, LEAVE, ERROR, FORBIDDEN, ADD_CONTACT, GET_CONTACTS, GET_HISTORY, ROSTER_DELTA, PRESENCE,
+    MULTI_MESSAGE, BROADCAST_MESSAGE, SEND_STATUS, RETRY_AFTER, THROTTLED, REAUTHENTICATE, UNSUPPORTED
 }
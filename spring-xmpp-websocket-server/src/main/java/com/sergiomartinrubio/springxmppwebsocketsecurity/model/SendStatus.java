@@ -0,0 +1,27 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.model;
+
+/**
+ * Outcome of a message for one recipient of a multi-recipient send.
+ */
+public enum SendStatus {
+    /**
+     * Handed to the connection for delivery.
+     */
+    SENT,
+    /**
+     * The recipient is not a valid username.
+     */
+    INVALID_RECIPIENT,
+    /**
+     * The message has no content.
+     */
+    INVALID_CONTENT,
+    /**
+     * Over the maximum number of recipients of one send.
+     */
+    REJECTED,
+    /**
+     * The connection was lost before the message could be written.
+     */
+    NOT_SENT
+}
@@ -0,0 +1,135 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.presence;
+
+import com.google.gson.JsonObject;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionRegistry;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.WebSocketTextMessageHelper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.packet.Presence;
+import org.jxmpp.jid.Jid;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.Session;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.PRESENCE;
+
+/**
+ * Collects the presence changes of every connection's contacts and sends them in batches. Within a
+ * flush interval only the latest state of each contact is kept, so a flapping contact costs one
+ * entry and a large roster coming online costs one frame per interval instead of one per stanza.
+ * <p>
+ * Batches go to the session currently bound to the connection, and are dropped while it is parked:
+ * the client asks for the contacts again after resuming.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@EnableConfigurationProperties(PresenceProperties.class)
+public class PresenceCoalescer implements InitializingBean, DisposableBean {
+
+    private final PresenceProperties presenceProperties;
+    private final SessionRegistry sessionRegistry;
+    private final WebSocketTextMessageHelper webSocketTextMessageHelper;
+
+    private final ConcurrentMap<AbstractXMPPConnection, Map<String, String>> pending = new ConcurrentHashMap<>();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private ScheduledExecutorService flushScheduler;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!presenceProperties.isEnabled()) {
+            return;
+        }
+        long interval = presenceProperties.getFlushInterval().toMillis();
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("xmpp-presence-"));
+        flushScheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records the latest presence of a contact of the connection, replacing any change not sent yet.
+     */
+    public void offer(AbstractXMPPConnection connection, Presence presence) {
+        Jid from = presence.getFrom();
+        if (!presenceProperties.isEnabled() || from == null || from.getLocalpartOrNull() == null) {
+            return;
+        }
+        String contact = from.getLocalpartOrNull().toString();
+        String state = state(presence);
+        received.increment();
+        // Updates and the flush both go through the map's per-key lock, so a batch taken by the
+        // flush is never written to again.
+        pending.compute(connection, (key, batch) -> {
+            Map<String, String> updated = batch == null ? new LinkedHashMap<>() : batch;
+            updated.put(contact, state);
+            return updated;
+        });
+    }
+
+    /**
+     * Sends one PRESENCE frame per connection with changes to each of its sessions, mapping contact names to their state.
+     */
+    void flush() {
+        for (AbstractXMPPConnection connection : pending.keySet()) {
+            Map<String, String> batch = pending.remove(connection);
+            if (batch == null) {
+                continue;
+            }
+            Set<Session> sessions = sessionRegistry.getSessionsByConnection(connection);
+            if (sessions.isEmpty()) {
+                continue;
+            }
+            WebsocketMessage message = WebsocketMessage.builder()
+                    .content(encode(batch))
+                    .messageType(PRESENCE)
+                    .build();
+            for (Session session : sessions) {
+                webSocketTextMessageHelper.send(session, message);
+                sent.increment();
+            }
+        }
+    }
+
+    public long getReceivedPresences() {
+        return received.sum();
+    }
+
+    public long getSentBatches() {
+        return sent.sum();
+    }
+
+    @Override
+    public void destroy() {
+        if (flushScheduler != null) {
+            flushScheduler.shutdownNow();
+        }
+    }
+
+    private static String state(Presence presence) {
+        if (presence.getType() != Presence.Type.available) {
+            return Presence.Type.unavailable.name();
+        }
+        return presence.getMode().name();
+    }
+
+    private static String encode(Map<String, String> batch) {
+        JsonObject content = new JsonObject();
+        batch.forEach(content::addProperty);
+        return content.toString();
+    }
+}
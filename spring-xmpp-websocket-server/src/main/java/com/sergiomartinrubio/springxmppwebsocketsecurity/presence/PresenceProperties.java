@@ -0,0 +1,28 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.presence;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Pacing of the presence updates sent to the clients.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "xmpp.presence")
+public class PresenceProperties {
+
+    /**
+     * Forward the presence of contacts to the clients.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Window in which presence changes are collapsed into the latest state of every contact. Each
+     * session gets at most one presence frame per window.
+     */
+    private Duration flushInterval = Duration.ofMillis(250);
+
+}
@@ -0,0 +1,68 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.ratelimit;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per-user limits on the operations WebSocket clients can request.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "websocket.rate-limit")
+public class RateLimitProperties {
+
+    /**
+     * Throttle users that go over the limits below.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Token bucket of each limited message type. Message types without an entry, or with a rate of
+     * zero, are not limited.
+     */
+    private Map<MessageType, Limit> limits = new EnumMap<>(Map.of(
+            MessageType.NEW_MESSAGE, new Limit(10, 20),
+            MessageType.ADD_CONTACT, new Limit(0.2, 5),
+            MessageType.MULTI_MESSAGE, new Limit(1, 3),
+            MessageType.BROADCAST_MESSAGE, new Limit(0.1, 2)));
+
+    /**
+     * Maximum number of users whose buckets are kept. The least recently used are evicted first.
+     */
+    private long maximumUsers = 100_000;
+
+    /**
+     * Buckets of users that sent nothing for this long are evicted. Must be longer than the time a
+     * bucket takes to refill, otherwise an eviction hands out a fresh burst early.
+     */
+    private Duration idleTimeout = Duration.ofMinutes(10);
+
+    @Getter
+    @Setter
+    public static class Limit {
+
+        /**
+         * Operations allowed per second once the burst is used up.
+         */
+        private double rate;
+
+        /**
+         * Operations allowed back to back after a quiet period.
+         */
+        private int burst;
+
+        public Limit() {
+        }
+
+        public Limit(double rate, int burst) {
+            this.rate = rate;
+            this.burst = burst;
+        }
+    }
+}
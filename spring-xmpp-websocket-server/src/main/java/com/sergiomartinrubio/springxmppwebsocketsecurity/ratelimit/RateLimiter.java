@@ -0,0 +1,86 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-user, per-{@link MessageType} token buckets.
+ * <p>
+ * Each bucket is a single {@code long} holding its theoretical arrival time (the generic cell rate
+ * algorithm), so taking a token is one compare-and-set and needs no lock or refill timer. A user's
+ * buckets live in one {@link AtomicLongArray} indexed by message type, held in a bounded Caffeine
+ * cache that evicts users who have been idle for {@code idleTimeout}.
+ */
+@Component
+@EnableConfigurationProperties(RateLimitProperties.class)
+public class RateLimiter {
+
+    private static final int MESSAGE_TYPES = MessageType.values().length;
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final long[] intervalNanos = new long[MESSAGE_TYPES];
+    private final long[] burstNanos = new long[MESSAGE_TYPES];
+    private final Cache<String, AtomicLongArray> buckets;
+
+    /**
+     * Times are stored relative to this origin, so zero means a bucket that was never used.
+     */
+    private final long origin = System.nanoTime();
+
+    public RateLimiter(RateLimitProperties rateLimitProperties) {
+        this.enabled = rateLimitProperties.isEnabled();
+        for (Map.Entry<MessageType, RateLimitProperties.Limit> limit : rateLimitProperties.getLimits().entrySet()) {
+            if (limit.getValue().getRate() <= 0) {
+                continue;
+            }
+            int index = limit.getKey().ordinal();
+            intervalNanos[index] = (long) (NANOS_PER_SECOND / limit.getValue().getRate());
+            burstNanos[index] = intervalNanos[index] * Math.max(1, limit.getValue().getBurst());
+        }
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(rateLimitProperties.getMaximumUsers())
+                .expireAfterAccess(rateLimitProperties.getIdleTimeout())
+                .build();
+    }
+
+    /**
+     * Takes a token from the user's bucket for the message type. Returns zero when the operation is
+     * allowed, otherwise the nanoseconds until the next token.
+     */
+    public long tryAcquire(String username, MessageType messageType) {
+        if (!enabled || messageType == null) {
+            return 0;
+        }
+        int index = messageType.ordinal();
+        long interval = intervalNanos[index];
+        if (interval == 0) {
+            return 0;
+        }
+
+        AtomicLongArray userBuckets = buckets.get(username, u -> new AtomicLongArray(MESSAGE_TYPES));
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long arrival = userBuckets.get(index);
+            long nextArrival = Math.max(arrival, now) + interval;
+            long allowedAt = nextArrival - burstNanos[index];
+            if (allowedAt > now) {
+                return allowedAt - now;
+            }
+            if (userBuckets.compareAndSet(index, arrival, nextArrival)) {
+                return 0;
+            }
+        }
+    }
+
+    public long getTrackedUsers() {
+        return buckets.estimatedSize();
+    }
+}
@@ -0,0 +1,63 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.repository;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.ChatMessage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Plain JDBC access to the {@code message} table, so inserts can be sent as one batch.
+ */
+@Repository
+@RequiredArgsConstructor
+public class MessageRepository {
+
+    private static final String INSERT = "INSERT INTO message (sender, recipient, content, sent_at) VALUES (?, ?, ?, ?)";
+
+    /**
+     * Each direction of the conversation is a backward range scan on the (sender, recipient, id)
+     * index starting right below the cursor, so the cost of a page does not depend on how deep in
+     * the history it is.
+     */
+    private static final String FIND_CONVERSATION = "SELECT id, sender, recipient, content, sent_at FROM ("
+            + "(SELECT id, sender, recipient, content, sent_at FROM message"
+            + " WHERE sender = ? AND recipient = ? AND id < ? ORDER BY id DESC LIMIT ?)"
+            + " UNION ALL "
+            + "(SELECT id, sender, recipient, content, sent_at FROM message"
+            + " WHERE sender = ? AND recipient = ? AND id < ? ORDER BY id DESC LIMIT ?)"
+            + ") conversation ORDER BY id DESC LIMIT ?";
+
+    private static final RowMapper<ChatMessage> CHAT_MESSAGE_MAPPER = (resultSet, rowNum) -> ChatMessage.builder()
+            .id(resultSet.getLong("id"))
+            .sender(resultSet.getString("sender"))
+            .recipient(resultSet.getString("recipient"))
+            .content(resultSet.getString("content"))
+            .sentAt(resultSet.getTimestamp("sent_at").toInstant())
+            .build();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void saveAll(List<ChatMessage> messages) {
+        jdbcTemplate.batchUpdate(INSERT, messages, messages.size(), (statement, message) -> {
+            statement.setString(1, message.getSender());
+            statement.setString(2, message.getRecipient());
+            statement.setString(3, message.getContent());
+            statement.setTimestamp(4, Timestamp.from(message.getSentAt()));
+        });
+    }
+
+    /**
+     * Returns up to {@code limit} messages exchanged between both users with an id lower than
+     * {@code beforeId}, newest first.
+     */
+    public List<ChatMessage> findConversation(String user, String peer, long beforeId, int limit) {
+        return jdbcTemplate.query(FIND_CONVERSATION, CHAT_MESSAGE_MAPPER,
+                user, peer, beforeId, limit,
+                peer, user, beforeId, limit,
+                limit);
+    }
+}
@@ -0,0 +1,42 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.resume;
+
+import lombok.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@Component
+@ConditionalOnProperty(prefix = "xmpp.resume", name = "store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryResumeTokenStore implements ResumeTokenStore {
+
+    private final ConcurrentMap<String, StoredToken> tokens = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(String token, String username, Instant expiresAt) {
+        tokens.put(token, new StoredToken(username, expiresAt));
+    }
+
+    @Override
+    public Optional<String> consume(String token) {
+        StoredToken stored = tokens.remove(token);
+        if (stored == null || !stored.getExpiresAt().isAfter(Instant.now())) {
+            return Optional.empty();
+        }
+        return Optional.of(stored.getUsername());
+    }
+
+    @Override
+    public void delete(String token) {
+        tokens.remove(token);
+    }
+
+    @Value
+    private static class StoredToken {
+        String username;
+        Instant expiresAt;
+    }
+}
@@ -0,0 +1,63 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.resume;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Stores resume tokens in the {@code resume_token} table. Only the SHA-256 digest of a token is
+ * written, so the table content cannot be replayed.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "xmpp.resume", name = "store", havingValue = "jdbc")
+public class JdbcResumeTokenStore implements ResumeTokenStore {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void save(String token, String username, Instant expiresAt) {
+        jdbcTemplate.update("INSERT INTO resume_token (token_hash, username, expires_at) VALUES (?, ?, ?)",
+                digest(token), username, Timestamp.from(expiresAt));
+    }
+
+    @Override
+    @Transactional
+    public Optional<String> consume(String token) {
+        String tokenHash = digest(token);
+        List<String> usernames = jdbcTemplate.queryForList(
+                "SELECT username FROM resume_token WHERE token_hash = ? AND expires_at > ?",
+                String.class, tokenHash, Timestamp.from(Instant.now()));
+        int deleted = jdbcTemplate.update("DELETE FROM resume_token WHERE token_hash = ?", tokenHash);
+
+        return deleted == 1 && !usernames.isEmpty() ? Optional.of(usernames.get(0)) : Optional.empty();
+    }
+
+    @Override
+    public void delete(String token) {
+        jdbcTemplate.update("DELETE FROM resume_token WHERE token_hash = ?", digest(token));
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : sha256.digest(token.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
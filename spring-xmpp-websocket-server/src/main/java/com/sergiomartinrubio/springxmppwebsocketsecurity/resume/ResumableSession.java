@@ -0,0 +1,119 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.resume;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.packet.Message;
+
+import javax.websocket.Session;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * An authenticated XMPP connection that outlives its WebSocket sessions. Every WebSocket session of
+ * the user holding the connection keeps it open, incoming messages are delivered to all attached
+ * sessions, or buffered while none is attached.
+ */
+@Slf4j
+public class ResumableSession {
+
+    @Getter
+    private final String username;
+
+    @Getter
+    private final AbstractXMPPConnection connection;
+
+    private final BiConsumer<Message, Session> transmitter;
+    private final int bufferCapacity;
+    private final Deque<Message> buffer = new ArrayDeque<>();
+    private final Set<Session> holders = new LinkedHashSet<>();
+    private final Set<Session> sessions = new LinkedHashSet<>();
+
+    @Getter
+    private volatile String token;
+
+    private boolean released;
+    private ScheduledFuture<?> expiry;
+
+    ResumableSession(String username, AbstractXMPPConnection connection, String token,
+                     BiConsumer<Message, Session> transmitter, int bufferCapacity) {
+        this.username = username;
+        this.connection = connection;
+        this.token = token;
+        this.transmitter = transmitter;
+        this.bufferCapacity = bufferCapacity;
+    }
+
+    public synchronized void deliver(Message message) {
+        if (!sessions.isEmpty()) {
+            for (Session session : sessions) {
+                transmitter.accept(message, session);
+            }
+            return;
+        }
+        if (buffer.size() >= bufferCapacity) {
+            buffer.pollFirst();
+            log.warn("Buffer of parked session for user '{}' is full, dropping the oldest message.", username);
+        }
+        buffer.addLast(message);
+    }
+
+    /**
+     * Sends the messages buffered so far to the session and delivers straight to it from now on.
+     */
+    public synchronized void attach(Session session) {
+        Message message;
+        while ((message = buffer.pollFirst()) != null) {
+            transmitter.accept(message, session);
+        }
+        sessions.add(session);
+    }
+
+    /**
+     * Returns the sessions holding the connection, including the ones still logging in.
+     */
+    public synchronized List<Session> getHolders() {
+        return List.copyOf(holders);
+    }
+
+    /**
+     * Adds the session to the holders of the connection. False once the last holder released it,
+     * from then on the connection is parked or closed and cannot be shared until it is resumed.
+     */
+    synchronized boolean retain(Session session) {
+        if (released) {
+            return false;
+        }
+        holders.add(session);
+        return true;
+    }
+
+    /**
+     * Stops delivering to the session and drops it from the holders. Returns true while other
+     * sessions still hold the connection.
+     */
+    synchronized boolean release(Session session) {
+        sessions.remove(session);
+        holders.remove(session);
+        released = holders.isEmpty();
+        return !released;
+    }
+
+    synchronized void park(ScheduledFuture<?> expiry) {
+        this.expiry = expiry;
+    }
+
+    synchronized void unpark(String token) {
+        if (expiry != null) {
+            expiry.cancel(false);
+            expiry = null;
+        }
+        this.token = token;
+        this.released = false;
+    }
+}
@@ -0,0 +1,235 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.resume;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPClient;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPMessageTransmitter;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.Session;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the {@link ResumableSession} of every WebSocket session and parks the ones whose WebSocket
+ * went away, so a reconnect presenting the resume token reattaches without a new TCP connection or
+ * SASL handshake.
+ * <p>
+ * With shared connections every further session of a user, such as another browser tab, joins the
+ * open connection of that user instead of logging in again. The connection is parked or closed when
+ * the last of its sessions goes away.
+ * <p>
+ * Parked connections only live in this process. With the JDBC token store a token presented to
+ * another instance is still consumed, but that instance has nothing to reattach and the client falls
+ * back to a full login.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(ResumeProperties.class)
+public class ResumableSessions implements DisposableBean {
+
+    private static final int TOKEN_BYTES = 32;
+
+    private final ResumeProperties resumeProperties;
+    private final ResumeTokenStore resumeTokenStore;
+    private final XMPPClient xmppClient;
+    private final XMPPMessageTransmitter xmppMessageTransmitter;
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentMap<Session, ResumableSession> attached = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ResumableSession> parked = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ResumableSession> shared = new ConcurrentHashMap<>();
+    private final LongAdder joinedSessions = new LongAdder();
+    private final ScheduledExecutorService expiryScheduler =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("xmpp-resume-"));
+
+    public ResumableSessions(ResumeProperties resumeProperties, ResumeTokenStore resumeTokenStore,
+                             XMPPClient xmppClient, XMPPMessageTransmitter xmppMessageTransmitter) {
+        this.resumeProperties = resumeProperties;
+        this.resumeTokenStore = resumeTokenStore;
+        this.xmppClient = xmppClient;
+        this.xmppMessageTransmitter = xmppMessageTransmitter;
+    }
+
+    /**
+     * Wraps a freshly logged in connection. The token is null when resuming is disabled.
+     */
+    public ResumableSession open(Session session, String username, AbstractXMPPConnection connection) {
+        ResumableSession resumableSession = new ResumableSession(username, connection,
+                resumeProperties.isEnabled() ? newToken() : null,
+                xmppMessageTransmitter::sendResponse, resumeProperties.getBufferCapacity());
+        resumableSession.retain(session);
+        attached.put(session, resumableSession);
+        return resumableSession;
+    }
+
+    /**
+     * Offers a connection whose listeners are set up to the further sessions of its user. The first
+     * connection of a user wins, one opened by a concurrent login is left to its own session.
+     */
+    public void share(ResumableSession resumableSession) {
+        if (resumeProperties.isShareConnections()) {
+            shared.putIfAbsent(resumableSession.getUsername(), resumableSession);
+        }
+    }
+
+    public boolean isShared(String username) {
+        return resumeProperties.isShareConnections() && shared.containsKey(username);
+    }
+
+    /**
+     * Joins the session to the open connection of the user. Empty when the user has none, or it was
+     * just released by its last session.
+     */
+    public Optional<ResumableSession> join(Session session, String username) {
+        if (!resumeProperties.isShareConnections()) {
+            return Optional.empty();
+        }
+        ResumableSession resumableSession = shared.get(username);
+        if (resumableSession == null) {
+            return Optional.empty();
+        }
+        if (!xmppClient.isAuthenticated(resumableSession.getConnection())) {
+            shared.remove(username, resumableSession);
+            return Optional.empty();
+        }
+        if (!resumableSession.retain(session)) {
+            return Optional.empty();
+        }
+        attached.put(session, resumableSession);
+        joinedSessions.increment();
+        log.info("Session for user '{}' joined the shared connection.", username);
+        return Optional.of(resumableSession);
+    }
+
+    /**
+     * Takes over the parked connection of the token for the new session, with a fresh token. Empty
+     * when the token is unknown, expired, issued to another user or parked by another instance.
+     */
+    public Optional<ResumableSession> resume(Session session, String token, String username) {
+        if (!resumeProperties.isEnabled() || !parked.containsKey(token)) {
+            return Optional.empty();
+        }
+        if (!resumeTokenStore.consume(token).map(username::equals).orElse(false)) {
+            log.warn("Resume token rejected for user '{}'.", username);
+            return Optional.empty();
+        }
+        ResumableSession resumableSession = parked.remove(token);
+        if (resumableSession == null) {
+            return Optional.empty();
+        }
+        resumableSession.unpark(newToken());
+
+        if (!xmppClient.isAuthenticated(resumableSession.getConnection())) {
+            xmppClient.disconnect(resumableSession.getConnection());
+            return Optional.empty();
+        }
+        resumableSession.retain(session);
+        attached.put(session, resumableSession);
+        share(resumableSession);
+        log.info("Session for user '{}' resumed.", username);
+        return Optional.of(resumableSession);
+    }
+
+    /**
+     * Parks the connection of a closed session for the grace period, unless other sessions still
+     * hold it. Returns false when the caller must close the connection itself.
+     */
+    public boolean park(Session session) {
+        ResumableSession resumableSession = attached.remove(session);
+        if (resumableSession == null) {
+            return false;
+        }
+        if (resumableSession.release(session)) {
+            return true;
+        }
+        shared.remove(resumableSession.getUsername(), resumableSession);
+        if (resumableSession.getToken() == null
+                || !xmppClient.isAuthenticated(resumableSession.getConnection()) || expiryScheduler.isShutdown()) {
+            return false;
+        }
+
+        String token = resumableSession.getToken();
+        resumableSession.park(expiryScheduler.schedule(() -> expire(token, resumableSession),
+                resumeProperties.getGracePeriod().toMillis(), TimeUnit.MILLISECONDS));
+        parked.put(token, resumableSession);
+        resumeTokenStore.save(token, resumableSession.getUsername(), Instant.now().plus(resumeProperties.getGracePeriod()));
+        log.info("Connection for user '{}' parked for {}.", resumableSession.getUsername(), resumeProperties.getGracePeriod());
+        return true;
+    }
+
+    /**
+     * Detaches a closed session from its connection. Returns true while other sessions still hold
+     * the connection, false when the caller must close it.
+     */
+    public boolean release(Session session) {
+        ResumableSession resumableSession = attached.remove(session);
+        if (resumableSession == null) {
+            return false;
+        }
+        if (resumableSession.release(session)) {
+            return true;
+        }
+        shared.remove(resumableSession.getUsername(), resumableSession);
+        return false;
+    }
+
+    /**
+     * Forgets a session whose connection is being closed.
+     */
+    public void discard(Session session) {
+        release(session);
+    }
+
+    /**
+     * Returns the sessions holding the connection of the session, the session included.
+     */
+    public List<Session> getHolders(Session session) {
+        ResumableSession resumableSession = attached.get(session);
+        return resumableSession == null ? List.of(session) : resumableSession.getHolders();
+    }
+
+    public int getParkedSessions() {
+        return parked.size();
+    }
+
+    public int getSharedConnections() {
+        return shared.size();
+    }
+
+    public long getJoinedSessions() {
+        return joinedSessions.sum();
+    }
+
+    @Override
+    public void destroy() {
+        expiryScheduler.shutdownNow();
+        parked.forEach(this::expire);
+    }
+
+    private void expire(String token, ResumableSession resumableSession) {
+        if (parked.remove(token, resumableSession)) {
+            resumeTokenStore.delete(token);
+            xmppClient.disconnect(resumableSession.getConnection());
+            log.info("Parked connection for user '{}' expired.", resumableSession.getUsername());
+        }
+    }
+
+    private String newToken() {
+        byte[] token = new byte[TOKEN_BYTES];
+        random.nextBytes(token);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+}
@@ -0,0 +1,49 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.resume;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Resume tokens let a reconnecting WebSocket take over the XMPP connection of its previous session,
+ * shared connections let all WebSocket sessions of a user use the same one.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "xmpp.resume")
+public class ResumeProperties {
+
+    /**
+     * Park XMPP connections of abnormally closed WebSocket sessions and hand out resume tokens.
+     */
+    private boolean enabled = true;
+
+    /**
+     * How long a parked connection waits for its WebSocket to come back before it is closed.
+     */
+    private Duration gracePeriod = Duration.ofSeconds(60);
+
+    /**
+     * Maximum number of incoming messages kept while a connection is parked, the oldest are dropped
+     * first.
+     */
+    private int bufferCapacity = 100;
+
+    /**
+     * Where resume tokens are kept.
+     */
+    private Store store = Store.MEMORY;
+
+    /**
+     * Serve all WebSocket sessions of a user, such as several browser tabs, from one XMPP connection.
+     */
+    private boolean shareConnections = true;
+
+    public enum Store {
+        MEMORY,
+        JDBC
+    }
+
+}
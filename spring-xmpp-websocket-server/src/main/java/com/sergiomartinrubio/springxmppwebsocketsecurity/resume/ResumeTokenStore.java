@@ -0,0 +1,21 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.resume;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Keeps the resume tokens of parked sessions, selected with {@code xmpp.resume.store}.
+ */
+public interface ResumeTokenStore {
+
+    void save(String token, String username, Instant expiresAt);
+
+    /**
+     * Removes the token and returns its username when it has not expired. A token can be consumed
+     * only once.
+     */
+    Optional<String> consume(String token);
+
+    void delete(String token);
+
+}
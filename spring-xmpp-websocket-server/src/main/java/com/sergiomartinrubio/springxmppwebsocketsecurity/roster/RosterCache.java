@@ -0,0 +1,164 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.roster;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics.Operation;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionRegistry;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.WebSocketTextMessageHelper;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPClient;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.ConnectionListener;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.roster.Roster;
+import org.jivesoftware.smack.roster.RosterEntry;
+import org.jivesoftware.smack.roster.RosterListener;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.Jid;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.Session;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.ROSTER_DELTA;
+
+/**
+ * Keeps a {@link RosterSnapshot} per XMPP connection, created on the first GET_CONTACTS and kept up
+ * to date by roster pushes. Every change is also pushed as a ROSTER_DELTA to the WebSocket sessions
+ * currently bound to the connection, so clients do not need to ask for the full list again. Deltas
+ * raised while a session is parked are not buffered: the client asks for the full list after
+ * resuming.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RosterCache {
+
+    private final XMPPClient xmppClient;
+    private final SessionRegistry sessionRegistry;
+    private final WebSocketTextMessageHelper webSocketTextMessageHelper;
+    private final ChatMetrics chatMetrics;
+
+    private final ConcurrentMap<AbstractXMPPConnection, RosterSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the encoded contact names of the connection's roster.
+     */
+    public String getContacts(AbstractXMPPConnection connection) {
+        long start = System.nanoTime();
+        try {
+            return getSnapshot(connection).getEncoded();
+        } finally {
+            chatMetrics.recordOperation(Operation.GET_CONTACTS, start);
+        }
+    }
+
+    private RosterSnapshot getSnapshot(AbstractXMPPConnection connection) {
+        RosterSnapshot snapshot = snapshots.get(connection);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        // The listener goes first so no push is missed between reading the entries and listening.
+        Roster roster = xmppClient.getRoster(connection);
+        RosterSnapshot created = new RosterSnapshot();
+        SnapshotListener listener = new SnapshotListener(connection, roster, created);
+        roster.addRosterListener(listener);
+        created.put(names(roster.getEntries()));
+
+        RosterSnapshot existing = snapshots.putIfAbsent(connection, created);
+        if (existing != null) {
+            roster.removeRosterListener(listener);
+            return existing;
+        }
+        connection.addConnectionListener(listener);
+        log.debug("Roster snapshot created for user '{}'.", connection.getUser());
+        return created;
+    }
+
+    private void push(AbstractXMPPConnection connection, String delta) {
+        if (delta == null) {
+            return;
+        }
+        WebsocketMessage message = WebsocketMessage.builder()
+                .content(delta)
+                .messageType(ROSTER_DELTA)
+                .build();
+        for (Session session : sessionRegistry.getSessionsByConnection(connection)) {
+            webSocketTextMessageHelper.send(session, message);
+        }
+    }
+
+    private static Map<BareJid, String> names(Collection<RosterEntry> entries) {
+        Map<BareJid, String> names = new HashMap<>();
+        for (RosterEntry entry : entries) {
+            String name = entry.getName();
+            names.put(entry.getJid(), name == null ? String.valueOf(entry.getJid().getLocalpartOrNull()) : name);
+        }
+        return names;
+    }
+
+    private class SnapshotListener implements RosterListener, ConnectionListener {
+
+        private final AbstractXMPPConnection connection;
+        private final Roster roster;
+        private final RosterSnapshot snapshot;
+
+        private SnapshotListener(AbstractXMPPConnection connection, Roster roster, RosterSnapshot snapshot) {
+            this.connection = connection;
+            this.roster = roster;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public void entriesAdded(Collection<Jid> addresses) {
+            entriesUpdated(addresses);
+        }
+
+        @Override
+        public void entriesUpdated(Collection<Jid> addresses) {
+            Collection<RosterEntry> entries = new ArrayList<>();
+            for (Jid address : addresses) {
+                RosterEntry entry = roster.getEntry(address.asBareJid());
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+            push(connection, snapshot.put(names(entries)));
+        }
+
+        @Override
+        public void entriesDeleted(Collection<Jid> addresses) {
+            List<BareJid> jids = addresses.stream().map(Jid::asBareJid).collect(Collectors.toList());
+            push(connection, snapshot.remove(jids));
+        }
+
+        @Override
+        public void presenceChanged(Presence presence) {
+        }
+
+        @Override
+        public void connectionClosed() {
+            evict();
+        }
+
+        @Override
+        public void connectionClosedOnError(Exception e) {
+            evict();
+        }
+
+        private void evict() {
+            snapshots.remove(connection, snapshot);
+            roster.removeRosterListener(this);
+            connection.removeConnectionListener(this);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.roster;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.jxmpp.jid.BareJid;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The contact names of one connection's roster together with their encoded GET_CONTACTS content.
+ * The content is encoded once per change instead of once per request, and every change returns the
+ * encoded delta to push to the client, or null when no contact name changed.
+ */
+public class RosterSnapshot {
+
+    private final Map<BareJid, String> contacts = new HashMap<>();
+    private String encoded;
+
+    public synchronized String getEncoded() {
+        if (encoded == null) {
+            JsonArray names = new JsonArray();
+            contacts.values().forEach(names::add);
+            encoded = names.toString();
+        }
+        return encoded;
+    }
+
+    /**
+     * Adds new contacts and renames the known ones.
+     */
+    public synchronized String put(Map<BareJid, String> entries) {
+        JsonArray added = new JsonArray();
+        JsonArray updated = new JsonArray();
+        for (Map.Entry<BareJid, String> entry : entries.entrySet()) {
+            String previous = contacts.put(entry.getKey(), entry.getValue());
+            if (previous == null) {
+                added.add(entry.getValue());
+            } else if (!previous.equals(entry.getValue())) {
+                JsonObject renamed = new JsonObject();
+                renamed.addProperty("previous", previous);
+                renamed.addProperty("name", entry.getValue());
+                updated.add(renamed);
+            }
+        }
+        JsonObject delta = new JsonObject();
+        delta.add("added", added);
+        delta.add("updated", updated);
+        return changed(delta, added.size() + updated.size());
+    }
+
+    public synchronized String remove(Collection<BareJid> jids) {
+        JsonArray removed = new JsonArray();
+        for (BareJid jid : jids) {
+            String previous = contacts.remove(jid);
+            if (previous != null) {
+                removed.add(previous);
+            }
+        }
+        JsonObject delta = new JsonObject();
+        delta.add("removed", removed);
+        return changed(delta, removed.size());
+    }
+
+    private String changed(JsonObject delta, int changes) {
+        if (changes == 0) {
+            return null;
+        }
+        encoded = null;
+        return delta.toString();
+    }
+}
@@ -0,0 +1,33 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.service;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Sizing and expiry of the in-memory account cache in front of the database.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "accounts.cache")
+public class AccountCacheProperties {
+
+    /**
+     * Maximum number of cached usernames, known or unknown.
+     */
+    private long maximumSize = 10_000;
+
+    /**
+     * How long an existing account is cached.
+     */
+    private Duration ttl = Duration.ofMinutes(10);
+
+    /**
+     * How long a username without account is cached. Kept short because the account is usually
+     * created right after the first login attempt.
+     */
+    private Duration negativeTtl = Duration.ofSeconds(30);
+
+}
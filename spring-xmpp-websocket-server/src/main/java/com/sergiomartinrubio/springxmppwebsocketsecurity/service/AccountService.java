@@ -1,23 +1,77 @@
 package com.sergiomartinrubio.springxmppwebsocketsecurity.service;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.repository.AccountRepository;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.Account;
-import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
 
+/**
+ * Accounts are read through a bounded Caffeine cache (Window TinyLFU eviction). Unknown usernames
+ * are cached as well, with a shorter TTL, so repeated logins of a new user don't reach the database
+ * either. Saving an account refreshes its entry.
+ */
 @Service
-@RequiredArgsConstructor
+@EnableConfigurationProperties(AccountCacheProperties.class)
 public class AccountService {
 
     private final AccountRepository accountRepository;
+    private final LoadingCache<String, Optional<Account>> accounts;
+
+    public AccountService(AccountRepository accountRepository, AccountCacheProperties accountCacheProperties) {
+        this.accountRepository = accountRepository;
+        this.accounts = Caffeine.newBuilder()
+                .maximumSize(accountCacheProperties.getMaximumSize())
+                .expireAfter(new AccountExpiry(accountCacheProperties))
+                .recordStats()
+                .build(accountRepository::findById);
+    }
 
     public Optional<Account> getAccount(String username) {
-        return accountRepository.findById(username);
+        return accounts.get(username);
     }
 
     public void saveAccount(Account account) {
         accountRepository.save(account);
+        accounts.put(account.getUsername(), Optional.of(account));
+    }
+
+    public CacheStats getCacheStats() {
+        return accounts.stats();
+    }
+
+    public long getCacheSize() {
+        return accounts.estimatedSize();
+    }
+
+    private static final class AccountExpiry implements Expiry<String, Optional<Account>> {
+
+        private final long ttlNanos;
+        private final long negativeTtlNanos;
+
+        private AccountExpiry(AccountCacheProperties accountCacheProperties) {
+            this.ttlNanos = accountCacheProperties.getTtl().toNanos();
+            this.negativeTtlNanos = accountCacheProperties.getNegativeTtl().toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(String username, Optional<Account> account, long currentTime) {
+            return account.isPresent() ? ttlNanos : negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String username, Optional<Account> account, long currentTime, long currentDuration) {
+            return expireAfterCreate(username, account, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String username, Optional<Account> account, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
     }
 }
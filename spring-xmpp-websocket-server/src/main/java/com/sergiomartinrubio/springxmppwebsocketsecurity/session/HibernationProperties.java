@@ -0,0 +1,40 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.session;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * When idle sessions give up their XMPP connection. Messages sent to a hibernated user are held by
+ * the offline storage of the XMPP server until the session wakes up.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "websocket.hibernation")
+public class HibernationProperties {
+
+    /**
+     * Close the XMPP connection of sessions that stay idle, keeping the WebSocket open. Contacts see
+     * a hibernated user as offline.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Time without messages in either direction after which a session hibernates.
+     */
+    private Duration idleTimeout = Duration.ofMinutes(15);
+
+    /**
+     * How often sessions are checked for inactivity.
+     */
+    private Duration checkInterval = Duration.ofSeconds(30);
+
+    /**
+     * How long a waking session waits for its client to answer REAUTHENTICATE with the password,
+     * which the server does not keep.
+     */
+    private Duration reauthenticationTimeout = Duration.ofSeconds(30);
+
+}
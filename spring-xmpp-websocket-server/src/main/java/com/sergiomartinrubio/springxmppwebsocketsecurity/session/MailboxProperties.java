@@ -0,0 +1,50 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.session;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Sizing of the per-session mailboxes that run the operations requested by WebSocket clients.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "websocket.mailbox")
+public class MailboxProperties {
+
+    /**
+     * Run client operations from the session's mailbox instead of on the WebSocket container thread
+     * that delivered the frame.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Maximum number of operations waiting in a single session's mailbox. Further operations are
+     * refused until the session catches up.
+     */
+    private int capacity = 64;
+
+    /**
+     * How long a client whose operation was refused by a full mailbox is told to wait.
+     */
+    private Duration retryAfter = Duration.ofSeconds(1);
+
+    /**
+     * Maximum number of operations a session runs in a row before its thread is handed to the next
+     * session with pending work.
+     */
+    private int batchSize = 16;
+
+    /**
+     * Number of platform threads shared by all mailboxes when virtual threads are not used.
+     */
+    private int threads = 16;
+
+    /**
+     * Run mailboxes on virtual threads when the JVM supports them.
+     */
+    private boolean virtualThreads = true;
+
+}
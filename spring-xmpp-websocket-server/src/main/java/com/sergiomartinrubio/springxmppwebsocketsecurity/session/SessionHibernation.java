@@ -0,0 +1,242 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.session;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.Session;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Tracks the activity of sessions with an XMPP connection and hibernates the ones that stay idle.
+ * <p>
+ * The hibernate and wake-up actions of a session run from its mailbox, so they never overlap with
+ * an operation the client requested. A hibernated session keeps its WebSocket, but not the
+ * password: it wakes up on the next operation of the client or when a message is sent to its user
+ * from this server, once the client sent its credentials again. The mailbox of a waking session holds further operations until the
+ * login completes. Sessions sharing an XMPP connection hibernate together once all of them are idle,
+ * from the mailbox of the first one found idle.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(HibernationProperties.class)
+public class SessionHibernation implements DisposableBean {
+
+    private final ConcurrentMap<Session, Activity> activities = new ConcurrentHashMap<>();
+    private final HibernationProperties hibernationProperties;
+    private final SessionRegistry sessionRegistry;
+    private final SessionMailboxes sessionMailboxes;
+    private final ScheduledExecutorService idleScheduler;
+
+    private final AtomicInteger hibernatedSessions = new AtomicInteger();
+    private final LongAdder hibernations = new LongAdder();
+    private final LongAdder wakeUps = new LongAdder();
+
+    public SessionHibernation(HibernationProperties hibernationProperties, SessionRegistry sessionRegistry, SessionMailboxes sessionMailboxes) {
+        this.hibernationProperties = hibernationProperties;
+        this.sessionRegistry = sessionRegistry;
+        this.sessionMailboxes = sessionMailboxes;
+        this.idleScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("websocket-hibernation-"));
+        if (hibernationProperties.isEnabled()) {
+            long interval = hibernationProperties.getCheckInterval().toMillis();
+            idleScheduler.scheduleWithFixedDelay(this::hibernateIdleSessions, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts tracking a session that has just logged in. {@code hibernate} releases its XMPP
+     * connection once {@link #hibernate(Session)} agreed, {@code wake} logs in again and completes
+     * once the login did.
+     */
+    public void track(Session session, String username, Runnable hibernate, Supplier<? extends CompletionStage<?>> wake) {
+        if (!hibernationProperties.isEnabled()) {
+            return;
+        }
+        Activity previous = activities.put(session, new Activity(username, hibernate, wake));
+        if (previous != null && previous.hibernated) {
+            hibernatedSessions.decrementAndGet();
+        }
+    }
+
+    public void untrack(Session session) {
+        Activity removed = activities.remove(session);
+        if (removed != null && removed.hibernated) {
+            hibernatedSessions.decrementAndGet();
+        }
+    }
+
+    /**
+     * Records traffic in either direction, which restarts the idle timeout.
+     */
+    public void touch(Session session) {
+        Activity activity = activities.get(session);
+        if (activity != null) {
+            activity.lastActivity = System.nanoTime();
+        }
+    }
+
+    /**
+     * Marks the session hibernated if it is still idle. Returns false when the session was active
+     * since the check that queued the hibernation, or is already hibernated.
+     */
+    public boolean hibernate(Session session) {
+        return hibernate(List.of(session));
+    }
+
+    /**
+     * Marks all sessions hibernated if every one of them is still idle, so the sessions sharing an
+     * XMPP connection hibernate together or not at all.
+     */
+    public synchronized boolean hibernate(Collection<Session> sessions) {
+        long now = System.nanoTime();
+        Map<Session, Activity> idle = new LinkedHashMap<>();
+        for (Session session : sessions) {
+            Activity activity = activities.get(session);
+            if (activity == null || activity.hibernated || !activity.isIdle(now)) {
+                return false;
+            }
+            idle.put(session, activity);
+        }
+        idle.forEach((session, activity) -> {
+            activity.hibernated = true;
+            hibernatedSessions.incrementAndGet();
+            hibernations.increment();
+            log.info("Session {} of user {} hibernated.", session.getId(), activity.username);
+        });
+        return !idle.isEmpty();
+    }
+
+    /**
+     * Clears the hibernated mark before the session logs in again. Returns false when the session is
+     * not tracked.
+     */
+    public boolean wake(Session session) {
+        Activity activity = activities.get(session);
+        if (activity == null) {
+            return false;
+        }
+        synchronized (this) {
+            activity.lastActivity = System.nanoTime();
+            if (!activity.hibernated) {
+                return true;
+            }
+            activity.hibernated = false;
+        }
+        hibernatedSessions.decrementAndGet();
+        wakeUps.increment();
+        log.info("Session {} of user {} waking up.", session.getId(), activity.username);
+        return true;
+    }
+
+    /**
+     * Marks a session hibernated again when logging it in failed, so the next operation of the
+     * client or message for its user tries again.
+     */
+    public void wakeFailed(Session session) {
+        Activity activity = activities.get(session);
+        if (activity == null) {
+            return;
+        }
+        synchronized (this) {
+            if (activity.hibernated) {
+                return;
+            }
+            activity.hibernated = true;
+        }
+        hibernatedSessions.incrementAndGet();
+        log.warn("Session {} of user {} could not wake up, hibernating again.", session.getId(), activity.username);
+    }
+
+    /**
+     * Wakes up the hibernated sessions of the user, so the messages the XMPP server held for them
+     * are delivered.
+     */
+    public void wakeUser(String username) {
+        if (hibernatedSessions.get() == 0) {
+            return;
+        }
+        for (Session session : sessionRegistry.getSessionsByUsername(username)) {
+            Activity activity = activities.get(session);
+            if (activity != null && activity.hibernated) {
+                sessionMailboxes.submitAsync(session, activity.wake);
+            }
+        }
+    }
+
+    public boolean isHibernated(Session session) {
+        Activity activity = activities.get(session);
+        return activity != null && activity.hibernated;
+    }
+
+    /**
+     * How long a waking session waits for its client to send the credentials again.
+     */
+    public Duration getReauthenticationTimeout() {
+        return hibernationProperties.getReauthenticationTimeout();
+    }
+
+    public int getTrackedSessions() {
+        return activities.size();
+    }
+
+    public int getHibernatedSessions() {
+        return hibernatedSessions.get();
+    }
+
+    public long getHibernations() {
+        return hibernations.sum();
+    }
+
+    public long getWakeUps() {
+        return wakeUps.sum();
+    }
+
+    @Override
+    public void destroy() {
+        idleScheduler.shutdownNow();
+    }
+
+    private void hibernateIdleSessions() {
+        long now = System.nanoTime();
+        for (Map.Entry<Session, Activity> entry : activities.entrySet()) {
+            Activity activity = entry.getValue();
+            if (!activity.hibernated && activity.isIdle(now)) {
+                sessionMailboxes.submit(entry.getKey(), activity.hibernate);
+            }
+        }
+    }
+
+    private final class Activity {
+
+        private final String username;
+        private final Runnable hibernate;
+        private final Supplier<? extends CompletionStage<?>> wake;
+        private volatile long lastActivity = System.nanoTime();
+        private volatile boolean hibernated;
+
+        private Activity(String username, Runnable hibernate, Supplier<? extends CompletionStage<?>> wake) {
+            this.username = username;
+            this.hibernate = hibernate;
+            this.wake = wake;
+        }
+
+        private boolean isIdle(long now) {
+            return now - lastActivity >= hibernationProperties.getIdleTimeout().toNanos();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.session;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics.ErrorPath;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.Session;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Serial mailboxes for the operations requested by WebSocket clients.
+ * <p>
+ * Every session gets a bounded mailbox that runs its operations one at a time and in arrival order
+ * on a shared executor, so different sessions run in parallel while a blocking roster reload never
+ * holds a WebSocket container thread. A mailbox only occupies a thread while it has work, and gives
+ * it up after {@code batchSize} operations so one busy session cannot starve the others. An
+ * operation waiting for a login pauses its mailbox without holding a thread.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(MailboxProperties.class)
+public class SessionMailboxes implements DisposableBean {
+
+    private final ConcurrentMap<Session, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final MailboxProperties mailboxProperties;
+    private final ChatMetrics chatMetrics;
+    private final ExecutorService executorService;
+
+    public SessionMailboxes(MailboxProperties mailboxProperties, ChatMetrics chatMetrics) {
+        this.mailboxProperties = mailboxProperties;
+        this.chatMetrics = chatMetrics;
+        this.executorService = createExecutorService(mailboxProperties);
+    }
+
+    /**
+     * Queues the operation behind the ones the session requested before. Returns false when the
+     * mailbox is full and the operation was refused, so the caller can tell the client. Operations
+     * of a closed session are dropped.
+     */
+    public boolean submit(Session session, Runnable operation) {
+        return submitAsync(session, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Queues an operation that completes asynchronously. The mailbox runs nothing else for the
+     * session until the returned stage completes, and gives its thread back in the meantime.
+     */
+    public boolean submitAsync(Session session, Supplier<? extends CompletionStage<?>> operation) {
+        if (!mailboxProperties.isEnabled()) {
+            operation.get();
+            return true;
+        }
+        // The open check runs inside the same atomic map operation release() removes the mailbox
+        // with, so an operation submitted while the session closes cannot bring a released mailbox back.
+        Mailbox mailbox = mailboxes.computeIfAbsent(session, s -> s.isOpen() ? new Mailbox(s.getId()) : null);
+        if (mailbox == null) {
+            log.debug("Session {} is closed, operation was not queued.", session.getId());
+            return true;
+        }
+        if (!mailbox.offer(operation)) {
+            chatMetrics.error(ErrorPath.MAILBOX_FULL);
+            log.warn("Mailbox for session {} is full, operation was refused.", session.getId());
+            return false;
+        }
+        return true;
+    }
+
+    public Duration getRetryAfter() {
+        return mailboxProperties.getRetryAfter();
+    }
+
+    /**
+     * Returns the executor the mailboxes run on, for the rest of an operation that waited for a
+     * login off the mailbox threads.
+     */
+    public Executor getExecutor() {
+        return executorService;
+    }
+
+    /**
+     * Drops the session's pending operations. The one already running, if any, completes. Called
+     * once the session is closed, after which no new mailbox is created for it.
+     */
+    public void release(Session session) {
+        Mailbox mailbox = mailboxes.remove(session);
+        if (mailbox != null) {
+            mailbox.close();
+        }
+    }
+
+    public int getDepth(Session session) {
+        Mailbox mailbox = mailboxes.get(session);
+        return mailbox == null ? 0 : mailbox.getDepth();
+    }
+
+    public int getTotalDepth() {
+        return mailboxes.values().stream()
+                .mapToInt(Mailbox::getDepth)
+                .sum();
+    }
+
+    public int getMaxDepth() {
+        return mailboxes.values().stream()
+                .mapToInt(Mailbox::getDepth)
+                .max()
+                .orElse(0);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdown();
+    }
+
+    private static ExecutorService createExecutorService(MailboxProperties mailboxProperties) {
+        if (mailboxProperties.isVirtualThreads()) {
+            try {
+                ExecutorService virtualThreads = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+                log.info("Session mailboxes running on virtual threads.");
+                return virtualThreads;
+            } catch (ReflectiveOperationException e) {
+                log.info("Virtual threads are not available, session mailboxes running on platform threads.");
+            }
+        }
+        // Unbounded, but each mailbox is queued at most once, so it never holds more than one entry per session.
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                mailboxProperties.getThreads(),
+                mailboxProperties.getThreads(),
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new CustomizableThreadFactory("websocket-mailbox-"));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    /**
+     * Lock-free actor mailbox. The scheduled flag guarantees a single drainer, and the drainer
+     * re-checks the queue after clearing the flag so an operation offered in between is not stranded.
+     * An operation that returns a pending stage keeps the flag set until the stage completes.
+     */
+    private final class Mailbox implements Runnable {
+
+        private final String sessionId;
+        private final Queue<Operation> operations = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Mailbox(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        private boolean offer(Supplier<? extends CompletionStage<?>> operation) {
+            if (closed) {
+                return true;
+            }
+            if (depth.incrementAndGet() > mailboxProperties.getCapacity()) {
+                depth.decrementAndGet();
+                return false;
+            }
+            operations.add(new Operation(operation, System.nanoTime()));
+            schedule();
+            return true;
+        }
+
+        @Override
+        public void run() {
+            boolean paused = false;
+            try {
+                for (int i = 0; i < mailboxProperties.getBatchSize() && !closed; i++) {
+                    Operation operation = operations.poll();
+                    if (operation == null) {
+                        break;
+                    }
+                    depth.decrementAndGet();
+                    chatMetrics.recordMailboxLatency(operation.queuedAt);
+                    CompletionStage<?> pending;
+                    try {
+                        pending = operation.task.get();
+                    } catch (RuntimeException e) {
+                        log.error("Operation for session {} failed.", sessionId, e);
+                        continue;
+                    }
+                    if (pending != null && !pending.toCompletableFuture().isDone()) {
+                        paused = true;
+                        pending.whenComplete((result, e) -> {
+                            if (e != null) {
+                                log.error("Operation for session {} failed.", sessionId, e);
+                            }
+                            resume();
+                        });
+                        return;
+                    }
+                }
+            } finally {
+                if (!paused) {
+                    resume();
+                }
+            }
+        }
+
+        private void resume() {
+            scheduled.set(false);
+            if (!closed && !operations.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (closed || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executorService.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                log.debug("Mailbox executor is shut down, operations for session {} were not run.", sessionId);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            operations.clear();
+            depth.set(0);
+        }
+
+        private int getDepth() {
+            return depth.get();
+        }
+    }
+
+    private static final class Operation {
+
+        private final Supplier<? extends CompletionStage<?>> task;
+        private final long queuedAt;
+
+        private Operation(Supplier<? extends CompletionStage<?>> task, long queuedAt) {
+            this.task = task;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
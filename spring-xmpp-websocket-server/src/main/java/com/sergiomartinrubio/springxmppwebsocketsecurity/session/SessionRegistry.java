@@ -0,0 +1,202 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.session;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.EntityFullJid;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.Session;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe registry of the XMPP connections bound to WebSocket sessions.
+ * <p>
+ * Sessions are indexed by WebSocket session, by username, by bare JID and by XMPP connection so
+ * both the WebSocket container threads and the Smack listener threads can resolve a session in
+ * constant time. All indexes are backed by {@link ConcurrentHashMap}, which stripes updates per bin
+ * instead of serialising them behind a single lock. The indexes of a session are updated while its
+ * entry is locked, so a removal racing with the registration never leaves the session indexed.
+ */
+@Slf4j
+@Component
+public class SessionRegistry {
+
+    private final ConcurrentMap<Session, RegisteredSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<Session>> sessionsByUsername = new ConcurrentHashMap<>();
+    private final ConcurrentMap<BareJid, Set<Session>> sessionsByJid = new ConcurrentHashMap<>();
+    private final ConcurrentMap<AbstractXMPPConnection, Set<Session>> sessionsByConnection = new ConcurrentHashMap<>();
+
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final LongAdder registeredSessions = new LongAdder();
+    private final LongAdder removedSessions = new LongAdder();
+
+    public void register(Session session, String username, AbstractXMPPConnection connection) {
+        EntityFullJid user = connection.getUser();
+        register(session, username, user == null ? null : user.asBareJid(), connection);
+    }
+
+    /**
+     * Registers a session, the connection is null for sessions served by the gateway.
+     */
+    public void register(Session session, String username, BareJid jid, AbstractXMPPConnection connection) {
+        RegisteredSession registeredSession = new RegisteredSession(session, username, jid, connection, false);
+
+        sessions.compute(session, (s, previous) -> {
+            if (previous == null) {
+                activeSessions.incrementAndGet();
+            } else {
+                unindex(previous);
+            }
+            index(registeredSession);
+            return registeredSession;
+        });
+        registeredSessions.increment();
+        log.debug("Session {} registered for user '{}'.", session.getId(), username);
+    }
+
+    public Optional<AbstractXMPPConnection> getConnection(Session session) {
+        RegisteredSession registeredSession = sessions.get(session);
+        return registeredSession == null ? Optional.empty() : Optional.ofNullable(registeredSession.getConnection());
+    }
+
+    public Optional<RegisteredSession> getSession(Session session) {
+        return Optional.ofNullable(sessions.get(session));
+    }
+
+    public Set<Session> getSessionsByUsername(String username) {
+        Set<Session> found = sessionsByUsername.get(username);
+        return found == null ? Set.of() : Collections.unmodifiableSet(found);
+    }
+
+    public Set<Session> getSessionsByJid(BareJid jid) {
+        Set<Session> found = sessionsByJid.get(jid);
+        return found == null ? Set.of() : Collections.unmodifiableSet(found);
+    }
+
+    /**
+     * Returns the sessions the connection is currently bound to, several when the sessions of a user
+     * share it. A parked connection has none.
+     */
+    public Set<Session> getSessionsByConnection(AbstractXMPPConnection connection) {
+        Set<Session> found = sessionsByConnection.get(connection);
+        return found == null ? Set.of() : Collections.unmodifiableSet(found);
+    }
+
+    /**
+     * Marks the session hibernated and unbinds its connection, which is returned for the caller to
+     * close. The session stays registered under its username and JID until it wakes up with a new
+     * connection or is removed.
+     */
+    public Optional<AbstractXMPPConnection> hibernate(Session session) {
+        AtomicReference<RegisteredSession> released = new AtomicReference<>();
+        sessions.computeIfPresent(session, (s, current) -> {
+            if (current.getConnection() == null) {
+                return current;
+            }
+            removeFromIndex(sessionsByConnection, current.getConnection(), session);
+            released.set(current);
+            return new RegisteredSession(session, current.getUsername(), current.getJid(), null, true);
+        });
+        if (released.get() == null) {
+            return Optional.empty();
+        }
+        log.debug("Session {} hibernated for user '{}'.", session.getId(), released.get().getUsername());
+        return Optional.of(released.get().getConnection());
+    }
+
+    /**
+     * Removes the session atomically. Only the caller that actually removed the session gets the
+     * connection back, so concurrent close and error callbacks never tear down a connection twice.
+     */
+    public Optional<AbstractXMPPConnection> remove(Session session) {
+        AtomicReference<RegisteredSession> removed = new AtomicReference<>();
+        sessions.computeIfPresent(session, (s, current) -> {
+            unindex(current);
+            removed.set(current);
+            return null;
+        });
+        if (removed.get() == null) {
+            return Optional.empty();
+        }
+        activeSessions.decrementAndGet();
+        removedSessions.increment();
+        log.debug("Session {} removed for user '{}'.", session.getId(), removed.get().getUsername());
+        return Optional.ofNullable(removed.get().getConnection());
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    public int getConnectedUsers() {
+        return sessionsByUsername.size();
+    }
+
+    /**
+     * Returns the number of XMPP connections currently bound to a session.
+     */
+    public int getBoundConnections() {
+        return sessionsByConnection.size();
+    }
+
+    public long getRegisteredSessions() {
+        return registeredSessions.sum();
+    }
+
+    public long getRemovedSessions() {
+        return removedSessions.sum();
+    }
+
+    private void index(RegisteredSession registeredSession) {
+        addToIndex(sessionsByUsername, registeredSession.getUsername(), registeredSession.getSession());
+        if (registeredSession.getJid() != null) {
+            addToIndex(sessionsByJid, registeredSession.getJid(), registeredSession.getSession());
+        }
+        if (registeredSession.getConnection() != null) {
+            addToIndex(sessionsByConnection, registeredSession.getConnection(), registeredSession.getSession());
+        }
+    }
+
+    private void unindex(RegisteredSession registeredSession) {
+        removeFromIndex(sessionsByUsername, registeredSession.getUsername(), registeredSession.getSession());
+        if (registeredSession.getJid() != null) {
+            removeFromIndex(sessionsByJid, registeredSession.getJid(), registeredSession.getSession());
+        }
+        if (registeredSession.getConnection() != null) {
+            removeFromIndex(sessionsByConnection, registeredSession.getConnection(), registeredSession.getSession());
+        }
+    }
+
+    private static <K> void addToIndex(ConcurrentMap<K, Set<Session>> index, K key, Session session) {
+        index.compute(key, (k, found) -> {
+            Set<Session> updated = found == null ? ConcurrentHashMap.newKeySet() : found;
+            updated.add(session);
+            return updated;
+        });
+    }
+
+    private static <K> void removeFromIndex(ConcurrentMap<K, Set<Session>> index, K key, Session session) {
+        index.computeIfPresent(key, (k, found) -> {
+            found.remove(session);
+            return found.isEmpty() ? null : found;
+        });
+    }
+
+    @Value
+    public static class RegisteredSession {
+        Session session;
+        String username;
+        BareJid jid;
+        AbstractXMPPConnection connection;
+        boolean hibernated;
+    }
+}
@@ -8,6 +8,10 @@ public class BCryptUtils {
         return BCrypt.hashpw(plainTextPassword, BCrypt.gensalt());
     }
 
+    public static String hash(String plainTextPassword, int workFactor) {
+        return BCrypt.hashpw(plainTextPassword, BCrypt.gensalt(workFactor));
+    }
+
     public static boolean isMatch(String plainTextPassword, String hashedPassword) {
        return BCrypt.checkpw(plainTextPassword, hashedPassword);
     }
@@ -2,11 +2,16 @@ package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket;
 
 import com.sergiomartinrubio.springxmppwebsocketsecurity.config.SpringContext;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.facade.XMPPFacade;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionMailboxes;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.BinaryMessageCodec;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.BinaryMessageDecoder;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.MessageDecoder;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.MessageEncoder;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.websocket.CloseReason;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
@@ -14,35 +19,64 @@ import javax.websocket.OnOpen;
 import javax.websocket.Session;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
+import java.util.List;
 
 @Slf4j
-@ServerEndpoint(value = "/chat/{username}/{password}", decoders = MessageDecoder.class, encoders = MessageEncoder.class)
+@ServerEndpoint(
+        value = "/chat/{username}/{password}",
+        subprotocols = BinaryMessageCodec.SUBPROTOCOL,
+        decoders = {MessageDecoder.class, BinaryMessageDecoder.class},
+        encoders = MessageEncoder.class)
 public class ChatWebSocket {
 
+    private static final String RESUME_PARAMETER = "resume";
+
     private final XMPPFacade xmppFacade;
+    private final SessionMailboxes sessionMailboxes;
 
     public ChatWebSocket() {
         this.xmppFacade = (XMPPFacade) SpringContext.getApplicationContext().getBean("XMPPFacade");
+        this.sessionMailboxes = SpringContext.getApplicationContext().getBean(SessionMailboxes.class);
     }
 
     @OnOpen
     public void open(Session session, @PathParam("username") String username, @PathParam("password") String password) {
-        xmppFacade.startSession(session, username, password);
+        List<String> resumeToken = session.getRequestParameterMap().get(RESUME_PARAMETER);
+        xmppFacade.startSession(session, username, password,
+                resumeToken == null || resumeToken.isEmpty() ? null : resumeToken.get(0));
     }
 
+    /**
+     * Runs the operation from the session's mailbox, in order with the session's other operations,
+     * and returns the container thread straight away. A client whose mailbox is full is told to
+     * retry later. Credentials sent to wake up a hibernated session skip the mailbox, which waits
+     * for them.
+     */
     @OnMessage
     public void handleMessage(WebsocketMessage message, Session session) {
-        xmppFacade.sendMessage(message, session);
+        if (message.getMessageType() == MessageType.REAUTHENTICATE) {
+            xmppFacade.reauthenticate(session, message.getContent());
+            return;
+        }
+        if (!sessionMailboxes.submitAsync(session, () -> xmppFacade.sendMessage(message, session))) {
+            xmppFacade.refuse(session, message, sessionMailboxes.getRetryAfter());
+        }
     }
 
+    /**
+     * A normal closure is an explicit logout, anything else (reload, network loss) keeps the XMPP
+     * connection parked for a resume.
+     */
     @OnClose
-    public void close(Session session) {
-        xmppFacade.disconnect(session);
+    public void close(Session session, CloseReason closeReason) {
+        sessionMailboxes.release(session);
+        xmppFacade.disconnect(session, closeReason.getCloseCode() != CloseReason.CloseCodes.NORMAL_CLOSURE);
     }
 
     @OnError
     public void onError(Throwable e, Session session) {
         log.debug(e.getMessage());
+        sessionMailboxes.release(session);
         xmppFacade.disconnect(session);
     }
 }
@@ -0,0 +1,138 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+
+import javax.websocket.Session;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of {@link WebsocketMessage}, used by sessions that negotiate the
+ * {@value #SUBPROTOCOL} subprotocol. JSON stays the default for every other session.
+ * <p>
+ * Frame layout: one version byte, one message type byte ({@code 0} for none, otherwise the
+ * {@link MessageType} ordinal plus one), one flags byte telling which of from, to and content are
+ * present, then each present field as an unsigned LEB128 varint byte length followed by its UTF-8
+ * bytes.
+ */
+public final class BinaryMessageCodec {
+
+    public static final String SUBPROTOCOL = "chat.binary.v1";
+
+    private static final byte VERSION = 1;
+    private static final int FROM = 1;
+    private static final int TO = 1 << 1;
+    private static final int CONTENT = 1 << 2;
+
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    private BinaryMessageCodec() {
+    }
+
+    public static boolean isNegotiated(Session session) {
+        return SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+    }
+
+    public static ByteBuffer encode(WebsocketMessage message) {
+        byte[] from = bytes(message.getFrom());
+        byte[] to = bytes(message.getTo());
+        byte[] content = bytes(message.getContent());
+
+        ByteBuffer buffer = ByteBuffer.allocate(3 + fieldSize(from) + fieldSize(to) + fieldSize(content));
+        buffer.put(VERSION);
+        buffer.put((byte) (message.getMessageType() == null ? 0 : message.getMessageType().ordinal() + 1));
+        buffer.put((byte) ((from == null ? 0 : FROM) | (to == null ? 0 : TO) | (content == null ? 0 : CONTENT)));
+        putField(buffer, from);
+        putField(buffer, to);
+        putField(buffer, content);
+
+        return buffer.flip();
+    }
+
+    public static WebsocketMessage decode(ByteBuffer buffer) throws IOException {
+        try {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary message version " + version + ".");
+            }
+            int messageType = buffer.get() & 0xFF;
+            int flags = buffer.get() & 0xFF;
+
+            WebsocketMessage.WebsocketMessageBuilder builder = WebsocketMessage.builder();
+            if ((flags & FROM) != 0) {
+                builder.from(getField(buffer));
+            }
+            if ((flags & TO) != 0) {
+                builder.to(getField(buffer));
+            }
+            if ((flags & CONTENT) != 0) {
+                builder.content(getField(buffer));
+            }
+            if (messageType > 0 && messageType <= MESSAGE_TYPES.length) {
+                builder.messageType(MESSAGE_TYPES[messageType - 1]);
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Unexpected trailing bytes in binary message.");
+            }
+            return builder.build();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated binary message.", e);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int fieldSize(byte[] value) {
+        if (value == null) {
+            return 0;
+        }
+        int size = 1;
+        for (int length = value.length >>> 7; length != 0; length >>>= 7) {
+            size++;
+        }
+        return size + value.length;
+    }
+
+    private static void putField(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            return;
+        }
+        int length = value.length;
+        while ((length & ~0x7F) != 0) {
+            buffer.put((byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+        }
+        buffer.put((byte) length);
+        buffer.put(value);
+    }
+
+    private static String getField(ByteBuffer buffer) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28) {
+                throw new IOException("Invalid field length in binary message.");
+            }
+            byte b = buffer.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Invalid field length in binary message.");
+        }
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
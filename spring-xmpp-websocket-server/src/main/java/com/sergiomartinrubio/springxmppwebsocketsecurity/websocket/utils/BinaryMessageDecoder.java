@@ -0,0 +1,36 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+
+import javax.websocket.DecodeException;
+import javax.websocket.Decoder;
+import javax.websocket.EndpointConfig;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class BinaryMessageDecoder implements Decoder.Binary<WebsocketMessage> {
+
+    @Override
+    public WebsocketMessage decode(ByteBuffer bytes) throws DecodeException {
+        try {
+            return BinaryMessageCodec.decode(bytes);
+        } catch (IOException e) {
+            throw new DecodeException(bytes, "Invalid binary message.", e);
+        }
+    }
+
+    @Override
+    public boolean willDecode(ByteBuffer bytes) {
+        return (bytes != null);
+    }
+
+    @Override
+    public void init(EndpointConfig config) {
+
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+}
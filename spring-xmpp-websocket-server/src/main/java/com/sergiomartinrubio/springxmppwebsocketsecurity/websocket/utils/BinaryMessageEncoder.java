@@ -0,0 +1,29 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+
+import javax.websocket.Encoder;
+import javax.websocket.EndpointConfig;
+import java.nio.ByteBuffer;
+
+/**
+ * Not registered on the endpoint: the container always picks the first encoder matching the object
+ * type, so {@link WebSocketTextMessageHelper} calls it directly for sessions that negotiated
+ * {@value BinaryMessageCodec#SUBPROTOCOL}.
+ */
+public class BinaryMessageEncoder implements Encoder.Binary<WebsocketMessage> {
+    @Override
+    public ByteBuffer encode(WebsocketMessage message) {
+        return BinaryMessageCodec.encode(message);
+    }
+
+    @Override
+    public void init(EndpointConfig config) {
+
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+}
@@ -0,0 +1,366 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe JSON codec for {@link WebsocketMessage}.
+ * <p>
+ * Both directions are hand-written single-pass loops: writing goes into a per-thread
+ * {@link StringBuilder} and reading walks the frame text directly, so no reflection, type adapter
+ * lookup or reader buffer is created per frame. The output is the same as
+ * {@code new Gson().toJson(message)}: null fields are omitted and HTML characters escaped.
+ */
+public final class JsonMessageCodec {
+
+    private static final int MAX_RETAINED_BUFFER = 16 * 1024;
+
+    private static final String FROM = "from";
+    private static final String TO = "to";
+    private static final String CONTENT = "content";
+    private static final String MESSAGE_TYPE = "messageType";
+    private static final String[] FIELD_NAMES = {FROM, TO, CONTENT, MESSAGE_TYPE};
+
+    private static final Map<String, MessageType> MESSAGE_TYPES = new HashMap<>();
+    private static final String[] REPLACEMENT_CHARS = new String[128];
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    static {
+        for (MessageType messageType : MessageType.values()) {
+            MESSAGE_TYPES.put(messageType.name(), messageType);
+        }
+        for (int i = 0; i < 0x20; i++) {
+            REPLACEMENT_CHARS[i] = String.format("\\u%04x", i);
+        }
+        REPLACEMENT_CHARS['"'] = "\\\"";
+        REPLACEMENT_CHARS['\\'] = "\\\\";
+        REPLACEMENT_CHARS['\t'] = "\\t";
+        REPLACEMENT_CHARS['\b'] = "\\b";
+        REPLACEMENT_CHARS['\n'] = "\\n";
+        REPLACEMENT_CHARS['\r'] = "\\r";
+        REPLACEMENT_CHARS['\f'] = "\\f";
+        REPLACEMENT_CHARS['<'] = "\\u003c";
+        REPLACEMENT_CHARS['>'] = "\\u003e";
+        REPLACEMENT_CHARS['&'] = "\\u0026";
+        REPLACEMENT_CHARS['='] = "\\u003d";
+        REPLACEMENT_CHARS['\''] = "\\u0027";
+    }
+
+    private JsonMessageCodec() {
+    }
+
+    public static String encode(WebsocketMessage message) {
+        StringBuilder buffer = BUFFER.get();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+            buffer = new StringBuilder(256);
+            BUFFER.set(buffer);
+        }
+        buffer.setLength(0);
+
+        buffer.append('{');
+        boolean first = writeField(buffer, FROM, message.getFrom(), true);
+        first = writeField(buffer, TO, message.getTo(), first);
+        first = writeField(buffer, CONTENT, message.getContent(), first);
+        MessageType messageType = message.getMessageType();
+        writeField(buffer, MESSAGE_TYPE, messageType == null ? null : messageType.name(), first);
+        buffer.append('}');
+
+        return buffer.toString();
+    }
+
+    public static WebsocketMessage decode(String json) throws IOException {
+        return new Reader(json).readMessage();
+    }
+
+    private static boolean writeField(StringBuilder buffer, String name, String value, boolean first) {
+        if (value == null) {
+            return first;
+        }
+        if (!first) {
+            buffer.append(',');
+        }
+        buffer.append('"').append(name).append("\":");
+        writeString(buffer, value);
+        return false;
+    }
+
+    private static void writeString(StringBuilder buffer, String value) {
+        buffer.append('"');
+        int last = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c < 128) {
+                replacement = REPLACEMENT_CHARS[c];
+                if (replacement == null) {
+                    continue;
+                }
+            } else if (c == '\u2028') {
+                replacement = "\\u2028";
+            } else if (c == '\u2029') {
+                replacement = "\\u2029";
+            } else {
+                continue;
+            }
+            buffer.append(value, last, i).append(replacement);
+            last = i + 1;
+        }
+        buffer.append(value, last, length).append('"');
+    }
+
+    /**
+     * Single-pass reader over the frame text. Only the four known fields are materialised, anything
+     * else is skipped without allocating.
+     */
+    private static final class Reader {
+
+        private final String json;
+        private int position;
+
+        private Reader(String json) {
+            this.json = json;
+        }
+
+        private WebsocketMessage readMessage() throws IOException {
+            WebsocketMessage.WebsocketMessageBuilder builder = WebsocketMessage.builder();
+
+            expect('{');
+            if (peek() == '}') {
+                position++;
+            } else {
+                do {
+                    String name = readFieldName();
+                    expect(':');
+                    if (name == null) {
+                        skipValue();
+                        continue;
+                    }
+                    String value = readValue();
+                    switch (name) {
+                        case FROM -> builder.from(value);
+                        case TO -> builder.to(value);
+                        case CONTENT -> builder.content(value);
+                        default -> builder.messageType(MESSAGE_TYPES.get(value));
+                    }
+                } while (nextMember('}'));
+            }
+            if (peek() != -1) {
+                throw error("Unexpected trailing content");
+            }
+
+            return builder.build();
+        }
+
+        /**
+         * Returns one of the known field name constants, or null for any other field.
+         */
+        private String readFieldName() throws IOException {
+            expect('"');
+            int start = position;
+            int end = json.indexOf('"', start);
+            if (end < 0 || json.lastIndexOf('\\', end) >= start) {
+                position--;
+                String name = readString();
+                return knownName(name);
+            }
+            position = end + 1;
+            return knownName(start, end - start);
+        }
+
+        private String knownName(String name) {
+            for (String fieldName : FIELD_NAMES) {
+                if (fieldName.equals(name)) {
+                    return fieldName;
+                }
+            }
+            return null;
+        }
+
+        private String knownName(int start, int length) {
+            for (String name : FIELD_NAMES) {
+                if (name.length() == length && json.regionMatches(start, name, 0, length)) {
+                    return name;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads a known field the way Gson reads a String: numbers and booleans keep their literal
+         * text, null leaves the field unset and an object or array rejects the frame.
+         */
+        private String readValue() throws IOException {
+            int c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                throw error("Expected a string");
+            }
+            int start = position;
+            skipLiteral();
+            String literal = json.substring(start, position);
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String readString() throws IOException {
+            expect('"');
+            int start = position;
+            StringBuilder unescaped = null;
+            while (position < json.length()) {
+                char c = json.charAt(position);
+                if (c == '"') {
+                    String value = unescaped == null
+                            ? json.substring(start, position)
+                            : unescaped.append(json, start, position).toString();
+                    position++;
+                    return value;
+                }
+                if (c == '\\') {
+                    if (unescaped == null) {
+                        unescaped = new StringBuilder();
+                    }
+                    unescaped.append(json, start, position);
+                    unescaped.append(readEscape());
+                    start = position;
+                } else {
+                    position++;
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private char readEscape() throws IOException {
+            position++;
+            if (position >= json.length()) {
+                throw error("Unterminated escape sequence");
+            }
+            char c = json.charAt(position++);
+            switch (c) {
+                case '"', '\\', '/' -> {
+                    return c;
+                }
+                case 'b' -> {
+                    return '\b';
+                }
+                case 'f' -> {
+                    return '\f';
+                }
+                case 'n' -> {
+                    return '\n';
+                }
+                case 'r' -> {
+                    return '\r';
+                }
+                case 't' -> {
+                    return '\t';
+                }
+                case 'u' -> {
+                    if (position + 4 > json.length()) {
+                        throw error("Unterminated escape sequence");
+                    }
+                    try {
+                        char unicode = (char) Integer.parseInt(json, position, position + 4, 16);
+                        position += 4;
+                        return unicode;
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                }
+                default -> throw error("Invalid escape sequence");
+            }
+        }
+
+        private void skipValue() throws IOException {
+            int c = peek();
+            switch (c) {
+                case '"' -> skipString();
+                case '{' -> skipContainer('}');
+                case '[' -> skipContainer(']');
+                case -1 -> throw error("Unexpected end of input");
+                default -> skipLiteral();
+            }
+        }
+
+        private void skipString() throws IOException {
+            expect('"');
+            while (position < json.length()) {
+                char c = json.charAt(position++);
+                if (c == '\\') {
+                    position++;
+                } else if (c == '"') {
+                    return;
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private void skipContainer(char close) throws IOException {
+            position++;
+            if (peek() == close) {
+                position++;
+                return;
+            }
+            do {
+                if (close == '}') {
+                    skipString();
+                    expect(':');
+                }
+                skipValue();
+            } while (nextMember(close));
+        }
+
+        private void skipLiteral() throws IOException {
+            int start = position;
+            while (position < json.length() && ",}] \t\r\n".indexOf(json.charAt(position)) < 0) {
+                position++;
+            }
+            if (position == start) {
+                throw error("Expected a value");
+            }
+        }
+
+        private boolean nextMember(char close) throws IOException {
+            int c = peek();
+            position++;
+            if (c == ',') {
+                return true;
+            }
+            if (c == close) {
+                return false;
+            }
+            throw error("Expected ',' or '" + close + "'");
+        }
+
+        private void expect(char expected) throws IOException {
+            if (peek() != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+            position++;
+        }
+
+        /**
+         * Skips whitespace and returns the next character without consuming it, or -1 at the end.
+         */
+        private int peek() {
+            while (position < json.length()) {
+                char c = json.charAt(position);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return c;
+                }
+                position++;
+            }
+            return -1;
+        }
+
+        private IOException error(String message) {
+            return new IOException(message + " at position " + position + ".");
+        }
+    }
+}
@@ -1,17 +1,21 @@
 package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
 
-import com.google.gson.Gson;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
 
+import javax.websocket.DecodeException;
 import javax.websocket.Decoder;
 import javax.websocket.EndpointConfig;
+import java.io.IOException;
 
 public class MessageDecoder implements Decoder.Text<WebsocketMessage> {
 
     @Override
-    public WebsocketMessage decode(String message) {
-        Gson gson = new Gson();
-        return gson.fromJson(message, WebsocketMessage.class);
+    public WebsocketMessage decode(String message) throws DecodeException {
+        try {
+            return JsonMessageCodec.decode(message);
+        } catch (IOException e) {
+            throw new DecodeException(message, "Invalid JSON message.", e);
+        }
     }
 
     @Override
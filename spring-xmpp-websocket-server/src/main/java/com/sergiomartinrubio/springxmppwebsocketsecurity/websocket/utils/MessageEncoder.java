@@ -1,6 +1,5 @@
 package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
 
-import com.google.gson.Gson;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
 
 import javax.websocket.Encoder;
@@ -9,8 +8,7 @@ import javax.websocket.EndpointConfig;
 public class MessageEncoder implements Encoder.Text<WebsocketMessage> {
     @Override
     public String encode(WebsocketMessage message) {
-        Gson gson = new Gson();
-        return gson.toJson(message);
+        return JsonMessageCodec.encode(message);
     }
 
     @Override
@@ -0,0 +1,52 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Delivery settings for messages written to WebSocket clients.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "websocket.outbound")
+public class OutboundProperties {
+
+    /**
+     * Queue messages per session and write them with the asynchronous remote endpoint instead of
+     * blocking the calling thread until the client has read them.
+     */
+    private boolean async = true;
+
+    /**
+     * Maximum number of messages waiting to be written to a single session.
+     */
+    private int capacity = 256;
+
+    /**
+     * What to do when a session's queue is full.
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+    /**
+     * Maximum time the BLOCK policy waits for space before dropping the message.
+     */
+    private Duration blockTimeout = Duration.ofMillis(100);
+
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest queued message to make room for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Close the session, the client is too slow to keep up.
+         */
+        DISCONNECT,
+        /**
+         * Wait up to the block timeout for space, then drop the new message.
+         */
+        BLOCK
+    }
+}
@@ -0,0 +1,217 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics.ErrorPath;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of messages waiting to be written to one WebSocket session.
+ * <p>
+ * At most one message is in flight on the asynchronous remote endpoint at a time, which keeps
+ * messages in order and satisfies the container rule of a single outstanding write per session.
+ * The next message is written from the completion callback of the previous one.
+ */
+@Slf4j
+class OutboundQueue implements SendHandler {
+
+    private final Session session;
+    private final OutboundProperties outboundProperties;
+    private final BinaryMessageEncoder binaryMessageEncoder;
+    private final ChatMetrics chatMetrics;
+    private final Deque<WebsocketMessage> messages = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    private boolean sending;
+    private boolean closed;
+    private int highWatermark;
+    private long droppedMessages;
+
+    /**
+     * Start of the write in flight, only touched by the writing thread and the completion callback.
+     */
+    private volatile long writeStart;
+
+    OutboundQueue(Session session, OutboundProperties outboundProperties, BinaryMessageEncoder binaryMessageEncoder,
+                  ChatMetrics chatMetrics) {
+        this.session = session;
+        this.outboundProperties = outboundProperties;
+        this.binaryMessageEncoder = binaryMessageEncoder;
+        this.chatMetrics = chatMetrics;
+    }
+
+    void offer(WebsocketMessage message) {
+        WebsocketMessage next = null;
+        boolean disconnect = false;
+
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (isFull()) {
+                switch (outboundProperties.getOverflowPolicy()) {
+                    case DROP_OLDEST -> {
+                        messages.pollFirst();
+                        droppedMessages++;
+                        chatMetrics.error(ErrorPath.OUTBOUND_DROPPED);
+                    }
+                    case DISCONNECT -> {
+                        disconnect = true;
+                        chatMetrics.error(ErrorPath.OUTBOUND_DROPPED);
+                    }
+                    case BLOCK -> {
+                        if (!awaitSpace()) {
+                            droppedMessages++;
+                            chatMetrics.error(ErrorPath.OUTBOUND_DROPPED);
+                            log.warn("Outbound queue for session {} is full, message {} was dropped.", session.getId(), message);
+                            return;
+                        }
+                    }
+                }
+            }
+            if (!disconnect) {
+                messages.addLast(message);
+                highWatermark = Math.max(highWatermark, messages.size());
+                if (!sending) {
+                    sending = true;
+                    next = messages.pollFirst();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (disconnect) {
+            closeSlowSession();
+        } else if (next != null) {
+            write(next);
+        }
+    }
+
+    @Override
+    public void onResult(SendResult result) {
+        chatMetrics.recordWebSocketSend(writeStart);
+        if (!result.isOK()) {
+            chatMetrics.error(ErrorPath.WEBSOCKET_SEND);
+            log.error("WebSocket error, message was not sent to session {}.", session.getId(), result.getException());
+        }
+
+        WebsocketMessage next;
+        lock.lock();
+        try {
+            if (!result.isOK()) {
+                droppedMessages++;
+            }
+            next = closed ? null : messages.pollFirst();
+            if (next == null) {
+                sending = false;
+            }
+            notFull.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (next != null) {
+            write(next);
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            droppedMessages += messages.size();
+            messages.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getDepth() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getHighWatermark() {
+        lock.lock();
+        try {
+            return highWatermark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getDroppedMessages() {
+        lock.lock();
+        try {
+            return droppedMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isFull() {
+        return messages.size() >= outboundProperties.getCapacity();
+    }
+
+    private boolean awaitSpace() {
+        long nanos = outboundProperties.getBlockTimeout().toNanos();
+        try {
+            while (isFull() && !closed && nanos > 0) {
+                nanos = notFull.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !isFull() && !closed;
+    }
+
+    private void write(WebsocketMessage message) {
+        writeStart = System.nanoTime();
+        try {
+            if (BinaryMessageCodec.isNegotiated(session)) {
+                session.getAsyncRemote().sendBinary(binaryMessageEncoder.encode(message), this);
+            } else {
+                session.getAsyncRemote().sendObject(message, this);
+            }
+        } catch (RuntimeException e) {
+            chatMetrics.error(ErrorPath.WEBSOCKET_SEND);
+            log.error("WebSocket error, message {} was not sent.", message, e);
+            close();
+            lock.lock();
+            try {
+                sending = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void closeSlowSession() {
+        log.warn("Outbound queue for session {} is full, closing slow session.", session.getId());
+        close();
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Outbound queue full"));
+        } catch (IOException e) {
+            log.error("WebSocket error, session {} could not be closed.", session.getId(), e);
+        }
+    }
+}
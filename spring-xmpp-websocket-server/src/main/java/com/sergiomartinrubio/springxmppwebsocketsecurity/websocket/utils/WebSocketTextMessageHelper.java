@@ -1,22 +1,104 @@
 package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
 
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics.ErrorPath;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import javax.websocket.EncodeException;
 import javax.websocket.Session;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Writes messages to WebSocket clients, as JSON text or as binary frames when the session negotiated
+ * {@value BinaryMessageCodec#SUBPROTOCOL}. In async mode every session gets its own bounded
+ * {@link OutboundQueue}, so a Smack listener thread delivering a chat message never waits for a
+ * slow browser.
+ */
 @Slf4j
 @Component
+@RequiredArgsConstructor
+@EnableConfigurationProperties(OutboundProperties.class)
 public class WebSocketTextMessageHelper {
 
+    private final ConcurrentMap<Session, OutboundQueue> outboundQueues = new ConcurrentHashMap<>();
+    private final BinaryMessageEncoder binaryMessageEncoder = new BinaryMessageEncoder();
+
+    private final OutboundProperties outboundProperties;
+    private final ChatMetrics chatMetrics;
+
     public void send(Session session, WebsocketMessage websocketMessage) {
+        chatMetrics.sent(websocketMessage.getMessageType());
+        if (outboundProperties.isAsync()) {
+            // The open check runs inside the same atomic map operation release() removes the queue
+            // with, so a message sent while the session closes cannot bring a released queue back.
+            OutboundQueue outboundQueue = outboundQueues.computeIfAbsent(session, s -> s.isOpen()
+                    ? new OutboundQueue(s, outboundProperties, binaryMessageEncoder, chatMetrics)
+                    : null);
+            if (outboundQueue == null) {
+                log.debug("Session {} is closed, message {} was not sent.", session.getId(), websocketMessage);
+                return;
+            }
+            outboundQueue.offer(websocketMessage);
+            return;
+        }
+
+        long start = System.nanoTime();
         try {
-            session.getBasicRemote().sendObject(websocketMessage);
+            if (BinaryMessageCodec.isNegotiated(session)) {
+                session.getBasicRemote().sendBinary(binaryMessageEncoder.encode(websocketMessage));
+            } else {
+                session.getBasicRemote().sendObject(websocketMessage);
+            }
         } catch (IOException | EncodeException e) {
+            chatMetrics.error(ErrorPath.WEBSOCKET_SEND);
             log.error("WebSocket error, message {} was not sent.", websocketMessage.toString(), e);
+        } finally {
+            chatMetrics.recordWebSocketSend(start);
         }
     }
+
+    /**
+     * Drops the session's pending messages. Called once the session is closed, after which no new
+     * queue is created for it.
+     */
+    public void release(Session session) {
+        OutboundQueue outboundQueue = outboundQueues.remove(session);
+        if (outboundQueue != null) {
+            outboundQueue.close();
+        }
+    }
+
+    public int getQueueDepth(Session session) {
+        OutboundQueue outboundQueue = outboundQueues.get(session);
+        return outboundQueue == null ? 0 : outboundQueue.getDepth();
+    }
+
+    public int getQueueHighWatermark(Session session) {
+        OutboundQueue outboundQueue = outboundQueues.get(session);
+        return outboundQueue == null ? 0 : outboundQueue.getHighWatermark();
+    }
+
+    public long getDroppedMessages(Session session) {
+        OutboundQueue outboundQueue = outboundQueues.get(session);
+        return outboundQueue == null ? 0 : outboundQueue.getDroppedMessages();
+    }
+
+    public int getTotalQueueDepth() {
+        return outboundQueues.values().stream()
+                .mapToInt(OutboundQueue::getDepth)
+                .sum();
+    }
+
+    public int getMaxQueueDepth() {
+        return outboundQueues.values().stream()
+                .mapToInt(OutboundQueue::getDepth)
+                .max()
+                .orElse(0);
+    }
 }
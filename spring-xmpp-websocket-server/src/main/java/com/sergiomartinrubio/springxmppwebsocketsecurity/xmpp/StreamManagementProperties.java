@@ -0,0 +1,34 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * XEP-0198 stream management and automatic reconnection of the per-user TCP connections.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "xmpp.stream-management")
+public class StreamManagementProperties {
+
+    /**
+     * Enable stream management, and resume dropped streams with automatic reconnection.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Resumption time requested from the server. Stanzas sent while the stream is down are queued
+     * and replayed if it is resumed within this time.
+     */
+    private Duration resumptionTime = Duration.ofSeconds(60);
+
+    /**
+     * Failed reconnection attempts, with increasing random delays between them, after which the
+     * connection is given up and the client gets ERROR.
+     */
+    private int maxReconnectionAttempts = 10;
+
+}
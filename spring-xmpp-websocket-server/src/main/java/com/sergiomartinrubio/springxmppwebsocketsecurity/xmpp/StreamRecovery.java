@@ -0,0 +1,141 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.ConnectionListener;
+import org.jivesoftware.smack.ReconnectionListener;
+import org.jivesoftware.smack.ReconnectionManager;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recovers logged in TCP connections from transient network failures. A dropped stream is
+ * reconnected with increasing random delays and resumed through XEP-0198, which replays the
+ * stanzas the server did not acknowledge, without a new login or roster reload. When the server no
+ * longer holds the stream Smack logs in again with the same credentials. Only after
+ * {@code max-reconnection-attempts} failures is the connection given up.
+ * <p>
+ * The NIO transport does not implement stream management and is not recovered.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@EnableConfigurationProperties(StreamManagementProperties.class)
+public class StreamRecovery {
+
+    private final StreamManagementProperties streamManagementProperties;
+
+    private final LongAdder interruptions = new LongAdder();
+    private final LongAdder resumptions = new LongAdder();
+    private final LongAdder relogins = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder lostConnections = new LongAdder();
+    private final LongAdder droppedStanzas = new LongAdder();
+
+    /**
+     * Configures stream management on a new connection, before it logs in.
+     */
+    public void configure(XMPPTCPConnection connection) {
+        connection.setUseStreamManagement(streamManagementProperties.isEnabled());
+        connection.setUseStreamManagementResumption(streamManagementProperties.isEnabled());
+        connection.setPreferredResumptionTime((int) streamManagementProperties.getResumptionTime().toSeconds());
+    }
+
+    /**
+     * Starts recovering the logged in connection from failures. {@code onLost} runs when it is given up.
+     */
+    public void enable(AbstractXMPPConnection connection, Runnable onLost) {
+        if (!streamManagementProperties.isEnabled() || !(connection instanceof XMPPTCPConnection)) {
+            return;
+        }
+        XMPPTCPConnection tcpConnection = (XMPPTCPConnection) connection;
+        ReconnectionManager reconnectionManager = ReconnectionManager.getInstanceFor(connection);
+        AtomicInteger attempts = new AtomicInteger();
+
+        tcpConnection.addStanzaDroppedListener(stanza -> droppedStanzas.increment());
+        ReconnectionListener reconnectionListener = new ReconnectionListener() {
+            @Override
+            public void reconnectingIn(int seconds) {
+            }
+
+            @Override
+            public void reconnectionFailed(Exception e) {
+                failedAttempts.increment();
+                if (attempts.incrementAndGet() < streamManagementProperties.getMaxReconnectionAttempts()) {
+                    return;
+                }
+                reconnectionManager.disableAutomaticReconnection();
+                reconnectionManager.abortPossiblyRunningReconnection();
+                lostConnections.increment();
+                log.error("Connection of user '{}' lost after {} reconnection attempts.", connection.getUser(), attempts.get(), e);
+                onLost.run();
+            }
+        };
+        reconnectionManager.addReconnectionListener(reconnectionListener);
+        connection.addConnectionListener(new ConnectionListener() {
+            @Override
+            public void authenticated(XMPPConnection xmppConnection, boolean resumed) {
+                attempts.set(0);
+                (resumed ? resumptions : relogins).increment();
+                log.info("Connection of user '{}' recovered, stream {}.", xmppConnection.getUser(), resumed ? "resumed" : "restarted");
+            }
+
+            @Override
+            public void connectionClosedOnError(Exception e) {
+                interruptions.increment();
+                log.warn("Connection of user '{}' interrupted, reconnecting.", connection.getUser(), e);
+            }
+
+            @Override
+            public void connectionClosed() {
+                // The listener refers to the connection, which would keep the weakly held reconnection manager alive.
+                reconnectionManager.removeReconnectionListener(reconnectionListener);
+                connection.removeConnectionListener(this);
+            }
+        });
+        reconnectionManager.setReconnectionPolicy(ReconnectionManager.ReconnectionPolicy.RANDOM_INCREASING_DELAY);
+        reconnectionManager.enableAutomaticReconnection();
+    }
+
+    /**
+     * Whether the connection is down but being recovered, so stanzas sent now are queued for replay
+     * or the connection will come back shortly.
+     */
+    public boolean isRecovering(AbstractXMPPConnection connection) {
+        if (!(connection instanceof XMPPTCPConnection) || connection.isConnected()) {
+            return false;
+        }
+        return ((XMPPTCPConnection) connection).isDisconnectedButSmResumptionPossible()
+                || ReconnectionManager.getInstanceFor(connection).isAutomaticReconnectEnabled();
+    }
+
+    public long getInterruptions() {
+        return interruptions.sum();
+    }
+
+    public long getResumptions() {
+        return resumptions.sum();
+    }
+
+    public long getRelogins() {
+        return relogins.sum();
+    }
+
+    public long getFailedAttempts() {
+        return failedAttempts.sum();
+    }
+
+    public long getLostConnections() {
+        return lostConnections.sum();
+    }
+
+    public long getDroppedStanzas() {
+        return droppedStanzas.sum();
+    }
+}
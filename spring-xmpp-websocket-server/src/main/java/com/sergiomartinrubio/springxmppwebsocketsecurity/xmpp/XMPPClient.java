@@ -1,36 +1,46 @@
 package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.exception.XMPPGenericException;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics.Operation;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.Account;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.SendStatus;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.service.AccountService;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.utils.BCryptUtils;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.pool.XMPPConnectionPool;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.ConnectionListener;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.XMPPException;
-import org.jivesoftware.smack.chat2.Chat;
 import org.jivesoftware.smack.chat2.ChatManager;
+import org.jivesoftware.smack.chat2.IncomingChatMessageListener;
+import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.PresenceBuilder;
+import org.jivesoftware.smack.packet.StanzaBuilder;
+import org.jivesoftware.smack.roster.AbstractRosterListener;
 import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.roster.RosterEntry;
-import org.jivesoftware.smack.tcp.XMPPTCPConnection;
-import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.jivesoftware.smack.roster.RosterListener;
 import org.jivesoftware.smackx.iqregister.AccountManager;
 import org.jxmpp.jid.BareJid;
 import org.jxmpp.jid.EntityBareJid;
-import org.jxmpp.jid.EntityFullJid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.jid.parts.Localpart;
 import org.jxmpp.stringprep.XmppStringprepException;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.stereotype.Component;
 
-import javax.websocket.Session;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.function.Consumer;
 
 @Slf4j
 @Component
@@ -38,36 +48,44 @@ import java.util.Set;
 @EnableConfigurationProperties(XMPPProperties.class)
 public class XMPPClient {
 
+    private static final int JID_CACHE_SIZE = 10_000;
+
     private final XMPPProperties xmppProperties;
     private final AccountService accountService;
-    private final XMPPMessageTransmitter xmppMessageTransmitter;
+    private final XMPPConnectionPool xmppConnectionPool;
+    private final ChatMetrics chatMetrics;
+
+    /**
+     * Parsed recipient JIDs, so stringprep runs once per username instead of once per message.
+     */
+    private final Cache<String, EntityBareJid> jids = Caffeine.newBuilder()
+            .maximumSize(JID_CACHE_SIZE)
+            .build();
 
-    public Optional<XMPPTCPConnection> connect(String username, String plainTextPassword) {
-        XMPPTCPConnection connection;
+    /**
+     * Takes a ready connection from the pool, or connects a new one when the pool is empty. Only a
+     * new connection is timed as CONNECT, pool hits are counted by the pool.
+     */
+    public Optional<AbstractXMPPConnection> connect(String username, String plainTextPassword) {
+        Optional<AbstractXMPPConnection> pooled = xmppConnectionPool.poll();
+        if (pooled.isPresent()) {
+            return pooled;
+        }
+        long start = System.nanoTime();
         try {
-            EntityBareJid entityBareJid;
-            entityBareJid = JidCreate.entityBareFrom(username + "@" + xmppProperties.getDomain());
-            XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
-                    .setHost(xmppProperties.getDomain())
-                    .setPort(xmppProperties.getPort())
-                    .setXmppDomain(xmppProperties.getDomain())
-                    .setUsernameAndPassword(entityBareJid.getLocalpart(), plainTextPassword)
-                    .setSecurityMode(ConnectionConfiguration.SecurityMode.disabled)
-                    .setResource(entityBareJid.getResourceOrEmpty())
-                    .setSendPresence(true)
-                    .build();
-
-            connection = new XMPPTCPConnection(config);
-            connection.connect();
+            return Optional.of(xmppConnectionPool.connect());
         } catch (SmackException | IOException | XMPPException | InterruptedException e) {
+            log.warn("Connection to XMPP server for user '{}' failed.", username, e);
             return Optional.empty();
+        } finally {
+            chatMetrics.recordOperation(Operation.CONNECT, start);
         }
-        return Optional.of(connection);
     }
 
-    public void createAccount(XMPPTCPConnection connection, String username, String plainTextPassword) {
+    public void createAccount(AbstractXMPPConnection connection, String username, String plainTextPassword) {
         AccountManager accountManager = AccountManager.getInstance(connection);
         accountManager.sensitiveOperationOverInsecureConnection(true);
+        long start = System.nanoTime();
         try {
             accountManager.createAccount(Localpart.from(username), plainTextPassword);
         } catch (SmackException.NoResponseException |
@@ -75,44 +93,167 @@ public class XMPPClient {
                 SmackException.NotConnectedException |
                 InterruptedException |
                 XmppStringprepException e) {
-            throw new XMPPGenericException(connection.getUser().toString(), e);
+            throw new XMPPGenericException(username, e);
+        } finally {
+            chatMetrics.recordOperation(Operation.CREATE_ACCOUNT, start);
         }
 
         accountService.saveAccount(new Account(username, BCryptUtils.hash(plainTextPassword)));
         log.info("Account for user '{}' created.", username);
     }
 
-    public void login(XMPPTCPConnection connection) {
+    public void login(AbstractXMPPConnection connection, String username, String plainTextPassword) {
+        long start = System.nanoTime();
         try {
-            connection.login();
+            connection.login(username, plainTextPassword);
         } catch (XMPPException | SmackException | IOException | InterruptedException e) {
-            log.error("Login to XMPP server with user {} failed.", connection.getUser(), e);
-
-            EntityFullJid user = connection.getUser();
-            throw new XMPPGenericException(user == null ? "unknown" : user.toString(), e);
+            log.error("Login to XMPP server with user {} failed.", username, e);
+            throw new XMPPGenericException(username, e);
+        } finally {
+            chatMetrics.recordOperation(Operation.LOGIN, start);
         }
         log.info("User '{}' logged in.", connection.getUser());
     }
 
-    public void addIncomingMessageListener(XMPPTCPConnection connection, Session webSocketSession) {
+    public boolean isAuthenticated(AbstractXMPPConnection connection) {
+        return connection.isConnected() && connection.isAuthenticated();
+    }
+
+    public void addIncomingMessageListener(AbstractXMPPConnection connection, Consumer<Message> listener) {
         ChatManager chatManager = ChatManager.getInstanceFor(connection);
-        chatManager.addIncomingListener((from, message, chat) -> xmppMessageTransmitter
-                .sendResponse(message, webSocketSession));
+        IncomingChatMessageListener incomingListener = (from, message, chat) -> listener.accept(message);
+        chatManager.addIncomingListener(incomingListener);
+        removeOnClose(connection, () -> chatManager.removeIncomingListener(incomingListener));
         log.info("Incoming message listener for user '{}' added.", connection.getUser());
     }
 
-    public void sendMessage(XMPPTCPConnection connection, String message, String to) {
-        ChatManager chatManager = ChatManager.getInstanceFor(connection);
+    /**
+     * Notifies the best presence of a contact, over all of its resources, whenever one of them changes.
+     */
+    public void addPresenceListener(AbstractXMPPConnection connection, Consumer<Presence> listener) {
+        Roster roster = Roster.getInstanceFor(connection);
+        RosterListener rosterListener = new AbstractRosterListener() {
+            @Override
+            public void presenceChanged(Presence presence) {
+                listener.accept(roster.getPresence(presence.getFrom().asBareJid()));
+            }
+        };
+        roster.addRosterListener(rosterListener);
+        removeOnClose(connection, () -> roster.removeRosterListener(rosterListener));
+    }
+
+    public void sendMessage(AbstractXMPPConnection connection, String message, String to) {
+        long start = System.nanoTime();
         try {
-            Chat chat = chatManager.chatWith(JidCreate.entityBareFrom(to + "@" + xmppProperties.getDomain()));
-            chat.send(message);
+            connection.sendStanza(chatMessage(jid(to), message));
             log.info("Message sent to user '{}' from user '{}'.", to, connection.getUser());
         } catch (XmppStringprepException | SmackException.NotConnectedException | InterruptedException e) {
-            throw new XMPPGenericException(connection.getUser().toString(), e);
+            throw new XMPPGenericException(String.valueOf(connection.getUser()), e);
+        } finally {
+            chatMetrics.recordOperation(Operation.SEND_MESSAGE, start);
         }
     }
 
-    public void addContact(XMPPTCPConnection connection, String to) {
+    /**
+     * Sends the message to every recipient. All stanzas are queued on the connection back to back,
+     * so they go out in as few socket writes as the writer can batch instead of one round trip
+     * through the caller per recipient.
+     */
+    public Map<String, SendStatus> sendMessages(AbstractXMPPConnection connection, String message, Collection<String> recipients) {
+        Map<String, EntityBareJid> jids = new LinkedHashMap<>();
+        Map<String, SendStatus> statuses = new LinkedHashMap<>();
+        for (String recipient : recipients) {
+            if (jids.size() >= xmppProperties.getMaxRecipients()) {
+                statuses.put(recipient, SendStatus.REJECTED);
+                continue;
+            }
+            try {
+                jids.put(recipient, jid(recipient));
+            } catch (XmppStringprepException e) {
+                statuses.put(recipient, SendStatus.INVALID_RECIPIENT);
+            }
+        }
+        send(connection, message, jids, statuses);
+        return statuses;
+    }
+
+    /**
+     * Sends the message to every contact of the roster.
+     */
+    public Map<String, SendStatus> broadcastMessage(AbstractXMPPConnection connection, String message) {
+        Map<String, EntityBareJid> jids = new LinkedHashMap<>();
+        Map<String, SendStatus> statuses = new LinkedHashMap<>();
+        for (RosterEntry entry : getRoster(connection).getEntries()) {
+            EntityBareJid jid = entry.getJid().asEntityBareJidIfPossible();
+            if (jid == null) {
+                continue;
+            }
+            String recipient = jid.getLocalpart().toString();
+            if (jids.size() >= xmppProperties.getMaxRecipients()) {
+                statuses.put(recipient, SendStatus.REJECTED);
+            } else {
+                jids.put(recipient, jid);
+            }
+        }
+        send(connection, message, jids, statuses);
+        return statuses;
+    }
+
+    private void send(AbstractXMPPConnection connection, String message, Map<String, EntityBareJid> jids, Map<String, SendStatus> statuses) {
+        long start = System.nanoTime();
+        boolean connected = true;
+        for (Map.Entry<String, EntityBareJid> recipient : jids.entrySet()) {
+            if (connected) {
+                try {
+                    connection.sendStanza(chatMessage(recipient.getValue(), message));
+                    statuses.put(recipient.getKey(), SendStatus.SENT);
+                    continue;
+                } catch (SmackException.NotConnectedException e) {
+                    log.warn("Connection of user '{}' lost while sending to {} recipients.", connection.getUser(), jids.size(), e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                connected = false;
+            }
+            statuses.put(recipient.getKey(), SendStatus.NOT_SENT);
+        }
+        chatMetrics.recordOperation(Operation.SEND_MESSAGES, start);
+        log.info("Message sent to {} recipients from user '{}'.", jids.size(), connection.getUser());
+    }
+
+    private EntityBareJid jid(String username) throws XmppStringprepException {
+        EntityBareJid jid = jids.getIfPresent(username);
+        if (jid == null) {
+            jid = JidCreate.entityBareFrom(username + "@" + xmppProperties.getDomain());
+            jids.put(username, jid);
+        }
+        return jid;
+    }
+
+    /**
+     * Smack keeps its managers in weak maps keyed by connection, so a listener that refers to the
+     * connection would keep a closed connection reachable for good. Listeners are removed once the
+     * connection is closed on purpose; one closed on error may still be recovered and keeps them.
+     */
+    private static void removeOnClose(AbstractXMPPConnection connection, Runnable removeListener) {
+        connection.addConnectionListener(new ConnectionListener() {
+            @Override
+            public void connectionClosed() {
+                removeListener.run();
+                connection.removeConnectionListener(this);
+            }
+        });
+    }
+
+    private static Message chatMessage(EntityBareJid to, String body) {
+        return StanzaBuilder.buildMessage()
+                .to(to)
+                .ofType(Message.Type.chat)
+                .setBody(body)
+                .build();
+    }
+
+    public void addContact(AbstractXMPPConnection connection, String to) {
         Roster roster = Roster.getInstanceFor(connection);
 
         if (!roster.isLoaded()) {
@@ -120,7 +261,7 @@ public class XMPPClient {
                 roster.reloadAndWait();
             } catch (SmackException.NotLoggedInException | SmackException.NotConnectedException | InterruptedException e) {
                 log.error("XMPP error. Disconnecting and removing session...", e);
-                throw new XMPPGenericException(connection.getUser().toString(), e);
+                throw new XMPPGenericException(String.valueOf(connection.getUser()), e);
             }
         }
 
@@ -132,11 +273,14 @@ public class XMPPClient {
                 | SmackException.NotConnectedException | SmackException.NoResponseException
                 | SmackException.NotLoggedInException | InterruptedException e) {
             log.error("XMPP error. Disconnecting and removing session...", e);
-            throw new XMPPGenericException(connection.getUser().toString(), e);
+            throw new XMPPGenericException(String.valueOf(connection.getUser()), e);
         }
     }
 
-    public Set<RosterEntry> getContacts(XMPPTCPConnection connection) {
+    /**
+     * Returns the roster of the connection, loading it first when it was not loaded at login.
+     */
+    public Roster getRoster(AbstractXMPPConnection connection) {
         Roster roster = Roster.getInstanceFor(connection);
 
         if (!roster.isLoaded()) {
@@ -145,14 +289,14 @@ public class XMPPClient {
             } catch (SmackException.NotLoggedInException | SmackException.NotConnectedException
                     | InterruptedException e) {
                 log.error("XMPP error. Disconnecting and removing session...", e);
-                throw new XMPPGenericException(connection.getUser().toString(), e);
+                throw new XMPPGenericException(String.valueOf(connection.getUser()), e);
             }
         }
 
-        return roster.getEntries();
+        return roster;
     }
 
-    public void disconnect(XMPPTCPConnection connection) {
+    public void disconnect(AbstractXMPPConnection connection) {
         Presence presence = PresenceBuilder.buildPresence()
                 .ofType(Presence.Type.unavailable)
                 .build();
@@ -166,7 +310,7 @@ public class XMPPClient {
         log.info("Connection closed for user '{}'.", connection.getUser());
     }
 
-    public void sendStanza(XMPPTCPConnection connection, Presence.Type type) {
+    public void sendStanza(AbstractXMPPConnection connection, Presence.Type type) {
         Presence presence = PresenceBuilder.buildPresence()
                 .ofType(type)
                 .build();
@@ -175,7 +319,7 @@ public class XMPPClient {
             log.info("Status {} sent for user '{}'.", type, connection.getUser());
         } catch (SmackException.NotConnectedException | InterruptedException e) {
             log.error("XMPP error.", e);
-            throw new XMPPGenericException(connection.getUser().toString(), e);
+            throw new XMPPGenericException(String.valueOf(connection.getUser()), e);
         }
     }
 }
@@ -28,4 +28,31 @@ public class XMPPProperties {
      */
     private String domain;
 
+    /**
+     * The transport used for the per-user connections.
+     */
+    private Transport transport = Transport.TCP;
+
+    /**
+     * Number of threads of the shared reactor that drives every connection of the NIO transport.
+     */
+    private int reactorThreads = 2;
+
+    /**
+     * Maximum number of recipients of a single multi-recipient or broadcast message.
+     */
+    private int maxRecipients = 1000;
+
+    public enum Transport {
+        /**
+         * One {@code XMPPTCPConnection} per user, with its own reader and writer threads.
+         */
+        TCP,
+        /**
+         * One {@code ModularXmppClientToServerConnection} per user, all multiplexed over the shared
+         * Smack NIO reactor.
+         */
+        NIO
+    }
+
 }
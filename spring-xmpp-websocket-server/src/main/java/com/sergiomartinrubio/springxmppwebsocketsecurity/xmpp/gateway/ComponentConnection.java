@@ -0,0 +1,189 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.gateway;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.StreamOpen;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.parsing.SmackParsingException;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.SHA1;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * One XEP-0114 external component stream. Stanzas are written under a lock and read by a single
+ * reader thread that hands every parsed stanza to the listener.
+ */
+@Slf4j
+class ComponentConnection implements Closeable {
+
+    private static final String COMPONENT_NAMESPACE = "jabber:component:accept";
+    private static final String STREAM_NAMESPACE = "http://etherx.jabber.org/streams";
+    private static final Set<String> STANZAS = Set.of("message", "presence", "iq");
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * Stanzas are serialised as if nested in a client stream so Smack omits their xmlns and they
+     * inherit the component namespace of the stream.
+     */
+    private static final XmlEnvironment STREAM_ENVIRONMENT = new XmlEnvironment(StreamOpen.CLIENT_NAMESPACE);
+
+    private final String name;
+    private final GatewayProperties gatewayProperties;
+    private final BiConsumer<ComponentConnection, Stanza> stanzaListener;
+    private final BiConsumer<ComponentConnection, Exception> closeListener;
+    private final Object writeLock = new Object();
+
+    private volatile Socket socket;
+    private volatile Writer writer;
+    private volatile boolean connected;
+
+    ComponentConnection(String name, GatewayProperties gatewayProperties,
+                        BiConsumer<ComponentConnection, Stanza> stanzaListener,
+                        BiConsumer<ComponentConnection, Exception> closeListener) {
+        this.name = name;
+        this.gatewayProperties = gatewayProperties;
+        this.stanzaListener = stanzaListener;
+        this.closeListener = closeListener;
+    }
+
+    void connect() throws IOException {
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(gatewayProperties.getHost(), gatewayProperties.getPort()), CONNECT_TIMEOUT_MILLIS);
+            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            write("<stream:stream xmlns='" + COMPONENT_NAMESPACE + "' xmlns:stream='" + STREAM_NAMESPACE
+                    + "' to='" + StringUtils.escapeForXmlAttributeApos(gatewayProperties.getDomain()) + "'>");
+
+            XmlPullParser parser = PacketParserUtils.getParserFor(
+                    new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)));
+            String streamId = parser.getAttributeValue("id");
+            if (streamId == null) {
+                throw new IOException("Component stream for " + gatewayProperties.getDomain() + " has no id.");
+            }
+
+            write("<handshake>" + SHA1.hex(streamId + gatewayProperties.getSecret()) + "</handshake>");
+            if (!"handshake".equals(nextTopLevelElement(parser))) {
+                throw new IOException("Component handshake for " + gatewayProperties.getDomain() + " was rejected.");
+            }
+
+            connected = true;
+            Thread reader = new Thread(() -> read(parser), "xmpp-gateway-" + name);
+            reader.setDaemon(true);
+            reader.start();
+            log.info("Component connection {} to {} established.", name, gatewayProperties.getDomain());
+        } catch (IOException | XmlPullParserException e) {
+            closeSocket();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    void send(Stanza stanza) throws IOException {
+        if (!connected) {
+            throw new IOException("Component connection " + name + " is not connected.");
+        }
+        write(stanza.toXML(STREAM_ENVIRONMENT));
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    @Override
+    public void close() {
+        if (connected) {
+            connected = false;
+            try {
+                write("</stream:stream>");
+            } catch (IOException e) {
+                log.debug("Component connection {} could not end the stream.", name, e);
+            }
+        }
+        closeSocket();
+    }
+
+    private void read(XmlPullParser parser) {
+        Exception failure = null;
+        try {
+            while (connected) {
+                String element = nextTopLevelElement(parser);
+                if (element == null) {
+                    break;
+                }
+                if (!STANZAS.contains(element)) {
+                    log.warn("Component connection {} received <{}>, closing.", name, element);
+                    break;
+                }
+                Stanza stanza = PacketParserUtils.parseStanza(parser, XmlEnvironment.from(parser));
+                try {
+                    stanzaListener.accept(this, stanza);
+                } catch (RuntimeException e) {
+                    log.error("Component connection {} failed to process stanza {}.", name, stanza, e);
+                }
+            }
+        } catch (IOException | XmlPullParserException | SmackParsingException e) {
+            failure = e;
+        }
+
+        boolean unexpected = connected;
+        connected = false;
+        closeSocket();
+        if (unexpected) {
+            log.warn("Component connection {} closed.", name, failure);
+            closeListener.accept(this, failure);
+        }
+    }
+
+    /**
+     * Advances to the next child of the stream element and returns its name, or null when the
+     * stream ends.
+     */
+    private static String nextTopLevelElement(XmlPullParser parser) throws IOException, XmlPullParserException {
+        while (true) {
+            XmlPullParser.Event event = parser.next();
+            if (event == XmlPullParser.Event.END_DOCUMENT
+                    || (event == XmlPullParser.Event.END_ELEMENT && parser.getDepth() == 1)) {
+                return null;
+            }
+            if (event == XmlPullParser.Event.START_ELEMENT && parser.getDepth() == 2) {
+                return parser.getName();
+            }
+        }
+    }
+
+    private void write(CharSequence xml) throws IOException {
+        synchronized (writeLock) {
+            writer.append(xml);
+            writer.flush();
+        }
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                log.debug("Component connection {} socket could not be closed.", name, e);
+            }
+        }
+    }
+}
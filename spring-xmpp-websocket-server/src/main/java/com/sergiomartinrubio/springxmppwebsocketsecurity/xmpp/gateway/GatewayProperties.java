@@ -0,0 +1,54 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.gateway;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Gateway mode routes every user over a few shared XEP-0114 component connections instead of one
+ * client connection per user.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "xmpp.gateway")
+public class GatewayProperties {
+
+    /**
+     * Enable gateway mode. Per-user client connections are used when disabled.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The address of the server's external component port.
+     */
+    private String host;
+
+    /**
+     * The external component port (usually 5275).
+     */
+    private int port = 5275;
+
+    /**
+     * The component domain users are addressed under, e.g. chat.localhost.
+     */
+    private String domain;
+
+    /**
+     * The shared secret configured for the component on the XMPP server.
+     */
+    private String secret;
+
+    /**
+     * Number of component connections to open. The server must allow multiple connections for the
+     * same component to use more than one.
+     */
+    private int connections = 2;
+
+    /**
+     * Time to wait before reopening a component connection that was closed.
+     */
+    private Duration reconnectDelay = Duration.ofSeconds(5);
+
+}
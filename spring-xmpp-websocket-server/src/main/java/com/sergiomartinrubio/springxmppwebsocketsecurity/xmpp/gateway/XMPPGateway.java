@@ -0,0 +1,153 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.gateway;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.exception.XMPPGenericException;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionRegistry;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPMessageTransmitter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.StanzaBuilder;
+import org.jivesoftware.smack.packet.StanzaError;
+import org.jxmpp.jid.EntityBareJid;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multiplexes the stanzas of every user over a small set of XEP-0114 component connections.
+ * <p>
+ * Users are addressed as {@code username@<gateway domain>}. Outbound stanzas go through the
+ * connection chosen by the sender's username, and inbound messages are routed to the WebSocket
+ * sessions registered for the recipient's JID in the {@link SessionRegistry}. Component JIDs have no
+ * server-side roster, so contact operations are answered with UNSUPPORTED in this mode.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@EnableConfigurationProperties(GatewayProperties.class)
+public class XMPPGateway implements InitializingBean, DisposableBean {
+
+    private final GatewayProperties gatewayProperties;
+    private final SessionRegistry sessionRegistry;
+    private final XMPPMessageTransmitter xmppMessageTransmitter;
+
+    private final List<ComponentConnection> connections = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService reconnectScheduler;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!gatewayProperties.isEnabled()) {
+            return;
+        }
+        reconnectScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("xmpp-gateway-reconnect-"));
+        for (int i = 0; i < gatewayProperties.getConnections(); i++) {
+            ComponentConnection connection = new ComponentConnection(String.valueOf(i), gatewayProperties,
+                    this::handleStanza, (closed, e) -> scheduleReconnect(closed));
+            connections.add(connection);
+            reconnectScheduler.execute(() -> reconnect(connection));
+        }
+    }
+
+    public boolean isEnabled() {
+        return gatewayProperties.isEnabled();
+    }
+
+    public EntityBareJid getJid(String username) {
+        try {
+            return JidCreate.entityBareFrom(username + "@" + gatewayProperties.getDomain());
+        } catch (XmppStringprepException e) {
+            throw new XMPPGenericException(username, e);
+        }
+    }
+
+    public void sendMessage(String from, String to, String content) {
+        Message message = StanzaBuilder.buildMessage()
+                .from(getJid(from))
+                .to(getJid(to))
+                .ofType(Message.Type.chat)
+                .setBody(content)
+                .build();
+        send(from, message);
+        log.info("Message sent to user '{}' from user '{}' through the gateway.", to, from);
+    }
+
+    @Override
+    public void destroy() {
+        if (reconnectScheduler != null) {
+            reconnectScheduler.shutdownNow();
+        }
+        connections.forEach(ComponentConnection::close);
+    }
+
+    private void send(String username, Stanza stanza) {
+        int size = connections.size();
+        int first = Math.floorMod(username.hashCode(), Math.max(size, 1));
+        for (int i = 0; i < size; i++) {
+            ComponentConnection connection = connections.get((first + i) % size);
+            if (!connection.isConnected()) {
+                continue;
+            }
+            try {
+                connection.send(stanza);
+                return;
+            } catch (IOException e) {
+                log.warn("Component connection {} failed to send stanza.", connection.getName(), e);
+            }
+        }
+        throw new XMPPGenericException(username, new IOException("No component connection available."));
+    }
+
+    private void handleStanza(ComponentConnection connection, Stanza stanza) {
+        if (stanza instanceof Message) {
+            Message message = (Message) stanza;
+            Jid to = message.getTo();
+            if (message.getBody() == null || to == null) {
+                return;
+            }
+            for (Session session : sessionRegistry.getSessionsByJid(to.asBareJid())) {
+                xmppMessageTransmitter.sendResponse(message, session);
+            }
+        } else if (stanza instanceof IQ) {
+            IQ iq = (IQ) stanza;
+            if (iq.isRequestIQ()) {
+                try {
+                    connection.send(IQ.createErrorResponse(iq, StanzaError.Condition.service_unavailable));
+                } catch (IOException e) {
+                    log.warn("Component connection {} failed to answer IQ {}.", connection.getName(), iq.getStanzaId(), e);
+                }
+            }
+        }
+    }
+
+    private void reconnect(ComponentConnection connection) {
+        try {
+            connection.connect();
+        } catch (IOException e) {
+            log.error("Component connection {} to {} failed.", connection.getName(), gatewayProperties.getDomain(), e);
+            scheduleReconnect(connection);
+        }
+    }
+
+    private void scheduleReconnect(ComponentConnection connection) {
+        if (reconnectScheduler.isShutdown()) {
+            return;
+        }
+        reconnectScheduler.schedule(() -> reconnect(connection),
+                gatewayProperties.getReconnectDelay().toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,48 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.pool;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Sizing of the pool of connected but not yet authenticated XMPP connections.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "xmpp.pool")
+public class ConnectionPoolProperties {
+
+    /**
+     * Keep connections ready for logins. Ignored in gateway mode, which has no per-user connections.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Minimum number of ready connections, kept even when nobody logs in.
+     */
+    private int minIdle = 2;
+
+    /**
+     * Maximum number of ready connections, however high the login rate.
+     */
+    private int maxIdle = 64;
+
+    /**
+     * Ready connections older than this are closed, before the server times out the unauthenticated
+     * stream.
+     */
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+
+    /**
+     * How often the pool is resized and refilled.
+     */
+    private Duration refillInterval = Duration.ofSeconds(1);
+
+    /**
+     * Number of threads opening connections in the background.
+     */
+    private int connectThreads = 4;
+
+}
@@ -0,0 +1,205 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.pool;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.gateway.GatewayProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.transport.XMPPConnectionFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.XMPPException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps connections that already went through TCP connect and stream negotiation, so a login only
+ * has to authenticate.
+ * <p>
+ * Every refill interval the pool estimates the login rate and the connect time (both as moving
+ * averages) and aims for as many ready connections as logins expected while a new connection is
+ * being opened, within {@code min-idle} and {@code max-idle}.
+ * <p>
+ * In gateway mode sessions never open per-user connections, so the pool stays off.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties({ConnectionPoolProperties.class, GatewayProperties.class})
+public class XMPPConnectionPool implements InitializingBean, DisposableBean {
+
+    private static final double SMOOTHING = 0.2;
+
+    private final ConnectionPoolProperties connectionPoolProperties;
+    private final XMPPConnectionFactory xmppConnectionFactory;
+    private final boolean enabled;
+
+    private final ConcurrentLinkedDeque<ReadyConnection> ready = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger readyCount = new AtomicInteger();
+    private final AtomicInteger connecting = new AtomicInteger();
+    private final LongAdder takenSinceRefill = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile double loginsPerSecond;
+    private volatile double connectSeconds;
+    private volatile int target;
+
+    private ScheduledExecutorService refillScheduler;
+    private ExecutorService connectExecutor;
+
+    public XMPPConnectionPool(ConnectionPoolProperties connectionPoolProperties, GatewayProperties gatewayProperties,
+                              XMPPConnectionFactory xmppConnectionFactory) {
+        this.connectionPoolProperties = connectionPoolProperties;
+        this.xmppConnectionFactory = xmppConnectionFactory;
+        this.enabled = connectionPoolProperties.isEnabled() && !gatewayProperties.isEnabled();
+        this.target = connectionPoolProperties.getMinIdle();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        refillScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("xmpp-pool-"));
+        connectExecutor = Executors.newFixedThreadPool(connectionPoolProperties.getConnectThreads(),
+                new CustomizableThreadFactory("xmpp-pool-connect-"));
+        long interval = connectionPoolProperties.getRefillInterval().toMillis();
+        refillScheduler.scheduleWithFixedDelay(this::refill, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a connected, unauthenticated connection, or empty when none is ready.
+     */
+    public Optional<AbstractXMPPConnection> poll() {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        takenSinceRefill.increment();
+
+        ReadyConnection candidate;
+        while ((candidate = ready.pollLast()) != null) {
+            readyCount.decrementAndGet();
+            if (candidate.connection.isConnected()) {
+                hits.increment();
+                return Optional.of(candidate.connection);
+            }
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Opens a new connection on the calling thread and records how long it took.
+     */
+    public AbstractXMPPConnection connect() throws SmackException, IOException, XMPPException, InterruptedException {
+        long start = System.nanoTime();
+        AbstractXMPPConnection connection = xmppConnectionFactory.createConnection();
+        connection.connect();
+        double seconds = (System.nanoTime() - start) / 1_000_000_000d;
+        connectSeconds = connectSeconds == 0 ? seconds : connectSeconds + SMOOTHING * (seconds - connectSeconds);
+        return connection;
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getReady() {
+        return readyCount.get();
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    @Override
+    public void destroy() {
+        if (refillScheduler != null) {
+            refillScheduler.shutdownNow();
+            connectExecutor.shutdownNow();
+        }
+        ReadyConnection idle;
+        while ((idle = ready.pollFirst()) != null) {
+            idle.connection.disconnect();
+        }
+    }
+
+    private void refill() {
+        try {
+            double intervalSeconds = connectionPoolProperties.getRefillInterval().toMillis() / 1000d;
+            double rate = takenSinceRefill.sumThenReset() / intervalSeconds;
+            loginsPerSecond += SMOOTHING * (rate - loginsPerSecond);
+            int expectedLogins = (int) Math.ceil(loginsPerSecond * (connectSeconds + intervalSeconds));
+            target = Math.max(connectionPoolProperties.getMinIdle(), Math.min(connectionPoolProperties.getMaxIdle(), expectedLogins));
+
+            evictStale();
+
+            int missing = target - readyCount.get() - connecting.get();
+            for (int i = 0; i < missing; i++) {
+                connecting.incrementAndGet();
+                connectExecutor.execute(this::addConnection);
+            }
+        } catch (RuntimeException e) {
+            log.error("XMPP connection pool refill failed.", e);
+        }
+    }
+
+    private void evictStale() {
+        long oldest = System.nanoTime() - connectionPoolProperties.getMaxIdleTime().toNanos();
+        int surplus = readyCount.get() - target;
+        ReadyConnection idle;
+        while ((idle = ready.peekFirst()) != null
+                && (surplus > 0 || idle.connectedAt - oldest < 0 || !idle.connection.isConnected())) {
+            if (ready.remove(idle)) {
+                readyCount.decrementAndGet();
+                surplus--;
+                idle.connection.disconnect();
+            }
+        }
+    }
+
+    private void addConnection() {
+        try {
+            AbstractXMPPConnection connection = connect();
+            ready.addLast(new ReadyConnection(connection, System.nanoTime()));
+            readyCount.incrementAndGet();
+        } catch (SmackException | IOException | XMPPException e) {
+            log.warn("XMPP connection pool could not open a connection: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connecting.decrementAndGet();
+        }
+    }
+
+    private static final class ReadyConnection {
+
+        private final AbstractXMPPConnection connection;
+        private final long connectedAt;
+
+        private ReadyConnection(AbstractXMPPConnection connection, long connectedAt) {
+            this.connection = connection;
+            this.connectedAt = connectedAt;
+        }
+    }
+}
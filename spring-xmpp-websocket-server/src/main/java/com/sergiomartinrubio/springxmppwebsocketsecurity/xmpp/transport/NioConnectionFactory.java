@@ -0,0 +1,63 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.transport;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.SmackReactor;
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection;
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionConfiguration;
+import org.jxmpp.jid.parts.Resourcepart;
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+
+/**
+ * NIO transport, the TCP transport module is registered by default when smack-tcp is on the
+ * classpath. Every {@link ModularXmppClientToServerConnection} registers its socket channel with
+ * the process-wide {@link SmackReactor}, so the number of transport threads is
+ * {@code xmpp.reactor-threads} regardless of how many users are online.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "xmpp", name = "transport", havingValue = "nio")
+public class NioConnectionFactory implements XMPPConnectionFactory {
+
+    private final XMPPProperties xmppProperties;
+
+    public NioConnectionFactory(XMPPProperties xmppProperties) {
+        this.xmppProperties = xmppProperties;
+        setReactorThreadCount(xmppProperties.getReactorThreads());
+    }
+
+    @Override
+    public AbstractXMPPConnection createConnection() throws XmppStringprepException {
+        ModularXmppClientToServerConnectionConfiguration config = ModularXmppClientToServerConnectionConfiguration.builder()
+                .setHost(xmppProperties.getDomain())
+                .setPort(xmppProperties.getPort())
+                .setXmppDomain(xmppProperties.getDomain())
+                .setSecurityMode(ConnectionConfiguration.SecurityMode.disabled)
+                .setResource(Resourcepart.EMPTY)
+                .setSendPresence(true)
+                .build();
+
+        return new ModularXmppClientToServerConnection(config);
+    }
+
+    /**
+     * {@code SmackReactor.getInstance()} is package-private in Smack 4.4, the thread count can only
+     * be changed through reflection.
+     */
+    private static void setReactorThreadCount(int threads) {
+        try {
+            Method getInstance = SmackReactor.class.getDeclaredMethod("getInstance");
+            getInstance.setAccessible(true);
+            ((SmackReactor) getInstance.invoke(null)).setReactorThreadCount(threads);
+            log.info("Smack reactor running with {} threads.", threads);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Smack reactor thread count could not be set, using the default.", e);
+        }
+    }
+}
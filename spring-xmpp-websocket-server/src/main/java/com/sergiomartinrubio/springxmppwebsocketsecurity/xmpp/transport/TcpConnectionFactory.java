@@ -0,0 +1,41 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.transport;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.StreamRecovery;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPProperties;
+import lombok.RequiredArgsConstructor;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.jxmpp.jid.parts.Resourcepart;
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Thread-per-connection transport: every {@link XMPPTCPConnection} owns a reader and a writer thread.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "xmpp", name = "transport", havingValue = "tcp", matchIfMissing = true)
+public class TcpConnectionFactory implements XMPPConnectionFactory {
+
+    private final XMPPProperties xmppProperties;
+    private final StreamRecovery streamRecovery;
+
+    @Override
+    public AbstractXMPPConnection createConnection() throws XmppStringprepException {
+        XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
+                .setHost(xmppProperties.getDomain())
+                .setPort(xmppProperties.getPort())
+                .setXmppDomain(xmppProperties.getDomain())
+                .setSecurityMode(ConnectionConfiguration.SecurityMode.disabled)
+                .setResource(Resourcepart.EMPTY)
+                .setSendPresence(true)
+                .build();
+
+        XMPPTCPConnection connection = new XMPPTCPConnection(config);
+        streamRecovery.configure(connection);
+        return connection;
+    }
+}
@@ -0,0 +1,14 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.transport;
+
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+/**
+ * Creates unconnected connections for the transport selected with {@code xmpp.transport}. They carry
+ * no credentials, the user is only chosen at login, so they can be connected ahead of time.
+ */
+public interface XMPPConnectionFactory {
+
+    AbstractXMPPConnection createConnection() throws XmppStringprepException;
+
+}
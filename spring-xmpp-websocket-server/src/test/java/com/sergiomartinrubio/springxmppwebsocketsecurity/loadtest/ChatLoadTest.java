@@ -0,0 +1,215 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.loadtest;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.Application;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionHibernation;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * End-to-end load test of the whole server on one box with no network: starts the application
+ * against an in-process {@link XMPPServerStandIn} and an in-memory H2 database, then drives
+ * {@code users} WebSocket clients through {@code /chat/{username}/{password}}. Every client logs in,
+ * which creates its account on the first login, asks for its contacts, and then pairs of clients
+ * play NEW_MESSAGE ping-pong for {@code seconds}. Reports the connect rate, message throughput,
+ * latency percentiles, heap and threads. With {@code idle seconds} set, hibernation is enabled with that
+ * idle timeout: once the ping-pong stops the sessions are left idle until they hibernate, the heap
+ * reclaimed per hibernated session is reported, and every client then asks for its contacts again to
+ * measure the wake-up. Run with
+ * {@code java -cp <test classpath> ...ChatLoadTest <users> <seconds> [contacts per user] [logins in flight] [idle seconds]},
+ * with the open file limit raised above four times the number of users.
+ */
+public class ChatLoadTest {
+
+    private static final String DOMAIN = "localhost";
+    private static final String PASSWORD = "load-test";
+    private static final int DEFAULT_CONTACTS = 10;
+    private static final int DEFAULT_LOGINS_IN_FLIGHT = 64;
+    private static final long PHASE_TIMEOUT_SECONDS = 120;
+    private static final long REPLY_TIMEOUT_SECONDS = 6;
+
+    public static void main(String[] args) throws Exception {
+        int users = Integer.parseInt(args[0]) & ~1;
+        int seconds = Integer.parseInt(args[1]);
+        int contacts = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CONTACTS;
+        int loginsInFlight = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_LOGINS_IN_FLIGHT;
+        int idleSeconds = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+        XMPPServerStandIn xmppServer = new XMPPServerStandIn(DOMAIN);
+        xmppServer.start();
+        for (int i = 0; i < users; i++) {
+            xmppServer.setRoster(username(i), contacts(i, users, contacts));
+        }
+        report("baseline");
+
+        ConfigurableApplicationContext context = SpringApplication.run(Application.class,
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:load-test;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.hibernate.ddl-auto=none",
+                "--xmpp.host=" + DOMAIN,
+                "--xmpp.port=" + xmppServer.getPort(),
+                "--xmpp.domain=" + DOMAIN,
+                // Each pair ping-pongs as fast as the server answers, far above any per-user limit.
+                "--websocket.rate-limit.enabled=false",
+                "--websocket.hibernation.enabled=" + (idleSeconds > 0),
+                "--websocket.hibernation.idle-timeout=" + Math.max(idleSeconds, 1) + "s",
+                "--websocket.hibernation.check-interval=1s",
+                "--logging.level.root=WARN");
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        report("application started");
+
+        LoadStatistics statistics = new LoadStatistics();
+        HttpClient httpClient = HttpClient.newHttpClient();
+        List<LoadClient> clients = new ArrayList<>(users);
+        List<CompletableFuture<Void>> logins = new ArrayList<>(users);
+        Semaphore inFlight = new Semaphore(loginsInFlight);
+
+        long loginStart = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            inFlight.acquire();
+            LoadClient client = new LoadClient(username(i), PASSWORD, username(i ^ 1), statistics);
+            clients.add(client);
+            logins.add(client.connect(httpClient, URI.create("ws://127.0.0.1:" + port + "/chat/" + username(i) + "/" + PASSWORD))
+                    .whenComplete((joined, e) -> inFlight.release()));
+        }
+        await(logins);
+        double loginSeconds = (System.nanoTime() - loginStart) / 1e9;
+        long joined = clients.stream().filter(LoadClient::isJoined).count();
+        System.out.printf("%,d of %,d users logged in in %.1f s: %,.0f logins/s%n", joined, users, loginSeconds, joined / loginSeconds);
+        report("users logged in");
+
+        List<CompletableFuture<Void>> contactRequests = new ArrayList<>();
+        for (LoadClient client : clients) {
+            if (client.isJoined()) {
+                contactRequests.add(client.requestContacts());
+            }
+        }
+        await(contactRequests);
+
+        int pairs = 0;
+        for (int i = 0; i < users; i += 2) {
+            if (clients.get(i).isJoined() && clients.get(i + 1).isJoined()) {
+                clients.get(i).startPingPong();
+                clients.get(i + 1).startPingPong();
+                pairs++;
+            }
+        }
+        long messagesBefore = statistics.getMessages();
+        long pingPongStart = System.nanoTime();
+        TimeUnit.SECONDS.sleep(seconds);
+        double pingPongSeconds = (System.nanoTime() - pingPongStart) / 1e9;
+        long messages = statistics.getMessages() - messagesBefore;
+        clients.forEach(LoadClient::stopPingPong);
+        System.out.printf("%,d pairs exchanged %,d messages in %.1f s: %,.0f messages/s%n",
+                pairs, messages, pingPongSeconds, messages / pingPongSeconds);
+        report("after ping-pong");
+
+        statistics.print();
+        System.out.printf("errors %,d, login retries %,d, messages routed by the XMPP stand-in %,d, undeliverable %,d%n",
+                statistics.getErrors(), statistics.getRetries(), xmppServer.getRoutedMessages(), xmppServer.getUndeliverableMessages());
+
+        if (idleSeconds > 0) {
+            hibernate(context.getBean(SessionHibernation.class), clients, idleSeconds);
+        }
+
+        List<CompletableFuture<?>> closing = new ArrayList<>();
+        clients.forEach(client -> closing.add(client.close()));
+        await(closing);
+        context.close();
+        xmppServer.close();
+        System.exit(0);
+    }
+
+    /**
+     * Leaves every session idle until it hibernates, reports the heap released per hibernated
+     * session, then wakes them all up with a contacts request.
+     */
+    private static void hibernate(SessionHibernation sessionHibernation, List<LoadClient> clients, int idleSeconds) throws InterruptedException {
+        long heapBefore = report("before hibernation");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(idleSeconds + PHASE_TIMEOUT_SECONDS);
+        while (sessionHibernation.getHibernatedSessions() < sessionHibernation.getTrackedSessions() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        int hibernated = sessionHibernation.getHibernatedSessions();
+        // Smack holds a closed connection until the replies it was still waiting for time out.
+        TimeUnit.SECONDS.sleep(REPLY_TIMEOUT_SECONDS);
+        long heapAfter = report("after hibernation");
+        System.out.printf("%,d sessions hibernated, heap reclaimed %,d KB: %,.1f KB per hibernated session%n",
+                hibernated, (heapBefore - heapAfter) / 1024, hibernated == 0 ? 0 : (heapBefore - heapAfter) / 1024.0 / hibernated);
+
+        List<CompletableFuture<Void>> wakeUps = new ArrayList<>();
+        long wakeStart = System.nanoTime();
+        for (LoadClient client : clients) {
+            if (client.isJoined()) {
+                wakeUps.add(client.requestContacts());
+            }
+        }
+        await(wakeUps);
+        double wakeSeconds = (System.nanoTime() - wakeStart) / 1e9;
+        long woken = wakeUps.stream().filter(wakeUp -> wakeUp.isDone() && !wakeUp.isCompletedExceptionally()).count();
+        System.out.printf("%,d sessions woken up in %.1f s: %,.0f wake-ups/s%n", woken, wakeSeconds, woken / wakeSeconds);
+        report("after wake-up");
+    }
+
+    /**
+     * The peer of the pair followed by the next users, wrapping around.
+     */
+    private static Set<String> contacts(int user, int users, int contacts) {
+        Set<String> roster = new LinkedHashSet<>();
+        roster.add(username(user ^ 1));
+        for (int i = 1; roster.size() < Math.min(contacts, users - 1); i++) {
+            roster.add(username((user + i) % users));
+        }
+        roster.remove(username(user));
+        return roster;
+    }
+
+    private static String username(int i) {
+        return "load-" + i;
+    }
+
+    private static void await(List<? extends CompletableFuture<?>> futures) throws InterruptedException {
+        try {
+            CompletableFuture.allOf(futures.stream()
+                            .map(future -> future.handle((result, e) -> null))
+                            .toArray(CompletableFuture[]::new))
+                    .get(PHASE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            System.out.printf("phase timed out after %d s%n", PHASE_TIMEOUT_SECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Prints the heap after a full collection and the threads, and returns the heap in bytes.
+     */
+    private static long report(String phase) {
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        System.out.printf("%-20s heap %,6d MB, threads %,6d (peak %,d)%n",
+                phase,
+                heap / (1024 * 1024),
+                threadMXBean.getThreadCount(),
+                threadMXBean.getPeakThreadCount());
+        return heap;
+    }
+}
@@ -0,0 +1,211 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.loadtest;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.JsonMessageCodec;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One simulated browser on a JSON WebSocket session. It logs in, asks for its contacts and then
+ * answers every chat message from its peer with a new one, so each pair keeps one message in flight.
+ * Messages carry their send time, both ends share the JVM clock. A login turned away with
+ * RETRY_AFTER is retried like the React client does, after the delay plus up to the same again.
+ */
+class LoadClient implements WebSocket.Listener {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+    private final String username;
+    private final String password;
+    private final String peer;
+    private final LoadStatistics statistics;
+    private final CompletableFuture<Void> joined = new CompletableFuture<>();
+    private final StringBuilder partial = new StringBuilder();
+
+    private HttpClient httpClient;
+    private URI uri;
+    private volatile WebSocket current;
+    private CompletableFuture<WebSocket> sending;
+    private volatile boolean running;
+    private volatile CompletableFuture<Void> contactsReceived = new CompletableFuture<>();
+    private long connectStart;
+    private long contactsStart;
+
+    LoadClient(String username, String password, String peer, LoadStatistics statistics) {
+        this.username = username;
+        this.password = password;
+        this.peer = peer;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Opens the session and completes once the login succeeded.
+     */
+    CompletableFuture<Void> connect(HttpClient httpClient, URI uri) {
+        this.httpClient = httpClient;
+        this.uri = uri;
+        connectStart = System.nanoTime();
+        open();
+        return joined;
+    }
+
+    private void open() {
+        httpClient.newWebSocketBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .buildAsync(uri, this)
+                .whenComplete((webSocket, e) -> {
+                    if (e != null) {
+                        fail(e);
+                    }
+                });
+    }
+
+    boolean isJoined() {
+        return joined.isDone() && !joined.isCompletedExceptionally();
+    }
+
+    /**
+     * Asks for the contacts, which also wakes up a hibernated session, and completes with the answer.
+     */
+    CompletableFuture<Void> requestContacts() {
+        if (contactsReceived.isDone()) {
+            contactsReceived = new CompletableFuture<>();
+        }
+        contactsStart = System.nanoTime();
+        send(WebsocketMessage.builder().messageType(MessageType.GET_CONTACTS).build());
+        return contactsReceived;
+    }
+
+    void startPingPong() {
+        running = true;
+        sendTimestamp(peer);
+    }
+
+    void stopPingPong() {
+        running = false;
+    }
+
+    synchronized CompletableFuture<?> close() {
+        return sending == null ? CompletableFuture.completedFuture(null)
+                : sending.thenCompose(webSocket -> webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "done"));
+    }
+
+    @Override
+    public synchronized void onOpen(WebSocket webSocket) {
+        current = webSocket;
+        sending = CompletableFuture.completedFuture(webSocket);
+        webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        partial.append(data);
+        if (last) {
+            String text = partial.toString();
+            partial.setLength(0);
+            try {
+                handle(webSocket, JsonMessageCodec.decode(text));
+            } catch (IOException | RuntimeException e) {
+                statistics.recordError();
+            }
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        if (webSocket != current) {
+            return null;
+        }
+        fail(new IllegalStateException("Session of " + username + " closed with " + statusCode + " " + reason));
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        if (webSocket != current) {
+            return;
+        }
+        fail(error);
+    }
+
+    private void handle(WebSocket webSocket, WebsocketMessage message) {
+        if (message.getMessageType() == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        switch (message.getMessageType()) {
+            case JOIN_SUCCESS -> {
+                // Sent again when a hibernated session wakes up.
+                if (!joined.isDone()) {
+                    statistics.recordLogin(now - connectStart);
+                    joined.complete(null);
+                }
+            }
+            case REAUTHENTICATE -> send(WebsocketMessage.builder()
+                    .messageType(MessageType.REAUTHENTICATE)
+                    .content(password)
+                    .build());
+            case RETRY_AFTER -> retry(webSocket, Long.parseLong(message.getContent()));
+            case FORBIDDEN, ERROR -> fail(new IllegalStateException(message.getMessageType() + " for " + username));
+            case GET_CONTACTS -> {
+                statistics.recordContacts(now - contactsStart);
+                contactsReceived.complete(null);
+            }
+            case NEW_MESSAGE -> {
+                statistics.recordMessage(now - Long.parseLong(message.getContent()));
+                if (running) {
+                    sendTimestamp(message.getFrom());
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void retry(WebSocket webSocket, long retryAfter) {
+        statistics.recordRetry();
+        current = null;
+        webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "retry");
+        long delay = retryAfter + ThreadLocalRandom.current().nextLong(retryAfter + 1);
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(this::open);
+    }
+
+    private void sendTimestamp(String to) {
+        send(WebsocketMessage.builder()
+                .to(to)
+                .content(String.valueOf(System.nanoTime()))
+                .messageType(MessageType.NEW_MESSAGE)
+                .build());
+    }
+
+    /**
+     * Chains the write after the previous one, the client allows a single outstanding send.
+     */
+    private synchronized void send(WebsocketMessage message) {
+        String text = JsonMessageCodec.encode(message);
+        sending = sending.thenCompose(webSocket -> webSocket.sendText(text, true));
+        sending.exceptionally(e -> {
+            statistics.recordError();
+            return null;
+        });
+    }
+
+    private void fail(Throwable e) {
+        if (!joined.isDone()) {
+            statistics.recordError();
+        }
+        joined.completeExceptionally(e);
+        contactsReceived.completeExceptionally(e);
+    }
+}
@@ -0,0 +1,86 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.loadtest;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and counts shared by all load clients. Percentiles cover the whole run, the timers never
+ * rotate their histograms.
+ */
+class LoadStatistics {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Timer logins = timer("logins");
+    private final Timer contacts = timer("contacts");
+    private final Timer messages = timer("messages");
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    void recordLogin(long nanos) {
+        logins.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordContacts(long nanos) {
+        contacts.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordMessage(long nanos) {
+        messages.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordError() {
+        errors.increment();
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    long getMessages() {
+        return messages.count();
+    }
+
+    long getErrors() {
+        return errors.sum();
+    }
+
+    long getRetries() {
+        return retries.sum();
+    }
+
+    void print() {
+        print("login (open to JOIN_SUCCESS)", logins);
+        print("GET_CONTACTS round trip", contacts);
+        print("NEW_MESSAGE end to end", messages);
+    }
+
+    private static void print(String name, Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        StringBuilder line = new StringBuilder(String.format("%-30s %,10d samples, mean %8.2f ms", name,
+                snapshot.count(), snapshot.mean(TimeUnit.MILLISECONDS)));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            line.append(String.format(", p%s %8.2f ms", format(percentile.percentile()), percentile.value(TimeUnit.MILLISECONDS)));
+        }
+        line.append(String.format(", max %8.2f ms", snapshot.max(TimeUnit.MILLISECONDS)));
+        System.out.println(line);
+    }
+
+    private static String format(double percentile) {
+        String value = String.valueOf(percentile * 100);
+        return value.endsWith(".0") ? value.substring(0, value.length() - 2) : value;
+    }
+
+    private Timer timer(String name) {
+        return Timer.builder(name)
+                .publishPercentiles(0.5, 0.9, 0.99, 0.999)
+                .distributionStatisticExpiry(Duration.ofDays(1))
+                .distributionStatisticBufferLength(1)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,414 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.loadtest;
+
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stand-in for the XMPP server, just enough for the server's Smack connections: plain
+ * TCP client streams, SASL PLAIN, in-band registration, resource binding, rosters seeded by the
+ * load test, presence broadcast between online contacts and chat message routing. There is no TLS,
+ * stream management, offline storage or subscription handling. Every stream gets its own reader
+ * thread, with a small stack so thousands of them fit in one JVM.
+ */
+class XMPPServerStandIn implements Closeable {
+
+    private static final String STREAM_NAMESPACE = "http://etherx.jabber.org/streams";
+    private static final String SASL_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-sasl";
+    private static final String BIND_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-bind";
+    private static final String SESSION_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-session";
+    private static final String REGISTER_NAMESPACE = "jabber:iq:register";
+    private static final String ROSTER_NAMESPACE = "jabber:iq:roster";
+    private static final String PING_NAMESPACE = "urn:xmpp:ping";
+    private static final String STANZAS_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-stanzas";
+    private static final long STREAM_THREAD_STACK_SIZE = 256 * 1024;
+
+    private final String domain;
+    private final ConcurrentMap<String, String> accounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> rosters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Stream> online = new ConcurrentHashMap<>();
+    private final AtomicInteger streamIds = new AtomicInteger();
+    private final LongAdder routedMessages = new LongAdder();
+    private final LongAdder undeliverableMessages = new LongAdder();
+
+    private ServerSocket serverSocket;
+
+    XMPPServerStandIn(String domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * Listens on an ephemeral port of every local address, since the server connects to the XMPP
+     * domain as host name.
+     */
+    void start() throws IOException {
+        serverSocket = new ServerSocket(0, 1024);
+        Thread acceptor = new Thread(this::accept, "xmpp-stand-in-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void setRoster(String username, Collection<String> contacts) {
+        Set<String> roster = ConcurrentHashMap.newKeySet();
+        roster.addAll(contacts);
+        rosters.put(username, roster);
+    }
+
+    int getOnlineUsers() {
+        return online.size();
+    }
+
+    long getRoutedMessages() {
+        return routedMessages.sum();
+    }
+
+    long getUndeliverableMessages() {
+        return undeliverableMessages.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        online.values().forEach(Stream::close);
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Stream stream = new Stream(socket, "stand-in-" + streamIds.incrementAndGet());
+                Thread reader = new Thread(null, stream::read, "xmpp-stand-in-" + streamIds.get(), STREAM_THREAD_STACK_SIZE);
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("XMPP stand-in failed to accept a connection: " + e);
+                }
+            }
+        }
+    }
+
+    private Set<String> roster(String username) {
+        return rosters.getOrDefault(username, Set.of());
+    }
+
+    private String jid(String username) {
+        return username + "@" + domain;
+    }
+
+    private static String localpart(String jid) {
+        int at = jid.indexOf('@');
+        return at < 0 ? jid : jid.substring(0, at);
+    }
+
+    private static String attribute(String value) {
+        return StringUtils.escapeForXmlAttributeApos(value).toString();
+    }
+
+    /**
+     * One client stream, read by its own thread and written under a lock by any thread routing a
+     * stanza to it.
+     */
+    private final class Stream {
+
+        private final Socket socket;
+        private final String id;
+        private final Object writeLock = new Object();
+        private Writer writer;
+        private volatile String username;
+        private volatile String fullJid;
+        private volatile boolean available;
+
+        private Stream(Socket socket, String id) {
+            this.socket = socket;
+            this.id = id;
+        }
+
+        private void read() {
+            try {
+                writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                Reader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                XmlPullParser parser = openStream(reader);
+                Element element;
+                while ((element = nextTopLevelElement(parser)) != null) {
+                    switch (element.name) {
+                        case "auth" -> {
+                            if (authenticate(element)) {
+                                // The client restarts the stream, nothing else was sent after <auth/>.
+                                parser = openStream(reader);
+                            }
+                        }
+                        case "iq" -> handleIq(element);
+                        case "presence" -> handlePresence(element);
+                        case "message" -> routeMessage(element);
+                        default -> {
+                        }
+                    }
+                }
+                send("</stream:stream>");
+            } catch (IOException | XmlPullParserException e) {
+                // The client went away without closing its stream.
+            } finally {
+                close();
+            }
+        }
+
+        private XmlPullParser openStream(Reader reader) throws IOException, XmlPullParserException {
+            XmlPullParser parser = PacketParserUtils.getParserFor(reader);
+            StringBuilder features = new StringBuilder("<stream:features>");
+            if (username == null) {
+                features.append("<mechanisms xmlns='").append(SASL_NAMESPACE).append("'><mechanism>PLAIN</mechanism></mechanisms>")
+                        .append("<register xmlns='http://jabber.org/features/iq-register'/>");
+            } else {
+                features.append("<bind xmlns='").append(BIND_NAMESPACE).append("'/>");
+            }
+            features.append("</stream:features>");
+            send("<?xml version='1.0' encoding='UTF-8'?><stream:stream xmlns='jabber:client' xmlns:stream='" + STREAM_NAMESPACE
+                    + "' from='" + attribute(domain) + "' id='" + id + "' version='1.0' xml:lang='en'>" + features);
+            return parser;
+        }
+
+        private boolean authenticate(Element auth) throws IOException {
+            String[] credentials = new String(Base64.getDecoder().decode(auth.text()), StandardCharsets.UTF_8).split("\u0000", -1);
+            String authenticationId = credentials.length == 3 ? localpart(credentials[1]) : null;
+            if (authenticationId == null || !credentials[2].equals(accounts.get(authenticationId))) {
+                send("<failure xmlns='" + SASL_NAMESPACE + "'><not-authorized/></failure>");
+                return false;
+            }
+            username = authenticationId;
+            send("<success xmlns='" + SASL_NAMESPACE + "'/>");
+            return true;
+        }
+
+        private void handleIq(Element iq) throws IOException {
+            String type = iq.attributes.get("type");
+            if (!"get".equals(type) && !"set".equals(type)) {
+                return;
+            }
+            String stanzaId = attribute(iq.attributes.getOrDefault("id", ""));
+            Element query = iq.children.isEmpty() ? null : iq.children.get(0);
+            String namespace = query == null ? "" : query.namespace;
+
+            switch (namespace) {
+                case REGISTER_NAMESPACE -> {
+                    if ("get".equals(type)) {
+                        send(result(stanzaId, "<query xmlns='" + REGISTER_NAMESPACE + "'><username/><password/></query>"));
+                    } else if (accounts.putIfAbsent(query.childText("username"), query.childText("password")) == null) {
+                        send(result(stanzaId, ""));
+                    } else {
+                        send(error(stanzaId, "conflict"));
+                    }
+                }
+                case BIND_NAMESPACE -> {
+                    String resource = query.childText("resource");
+                    fullJid = jid(username) + "/" + (resource == null || resource.isEmpty() ? id : resource);
+                    Stream previous = online.put(username, this);
+                    if (previous != null && previous != this) {
+                        previous.close();
+                    }
+                    send(result(stanzaId, "<bind xmlns='" + BIND_NAMESPACE + "'><jid>" + StringUtils.escapeForXml(fullJid) + "</jid></bind>"));
+                }
+                case ROSTER_NAMESPACE -> {
+                    if ("get".equals(type)) {
+                        StringBuilder items = new StringBuilder("<query xmlns='" + ROSTER_NAMESPACE + "'>");
+                        for (String contact : roster(username)) {
+                            items.append("<item jid='").append(attribute(jid(contact))).append("' name='")
+                                    .append(attribute(contact)).append("' subscription='both'/>");
+                        }
+                        send(result(stanzaId, items.append("</query>").toString()));
+                    } else {
+                        Element item = query.children.isEmpty() ? null : query.children.get(0);
+                        if (item != null && item.attributes.containsKey("jid")) {
+                            rosters.computeIfAbsent(username, u -> ConcurrentHashMap.newKeySet())
+                                    .add(localpart(item.attributes.get("jid")));
+                        }
+                        send(result(stanzaId, ""));
+                    }
+                }
+                case SESSION_NAMESPACE, PING_NAMESPACE -> send(result(stanzaId, ""));
+                default -> send(error(stanzaId, "service-unavailable"));
+            }
+        }
+
+        /**
+         * Sends the presence to every online contact and, on the initial presence, the presence of
+         * every online contact back to the user.
+         */
+        private void handlePresence(Element presence) throws IOException {
+            String type = presence.attributes.get("type");
+            if (fullJid == null || (type != null && !"unavailable".equals(type))) {
+                return;
+            }
+            boolean initial = type == null && !available;
+            available = type == null;
+            for (String contact : roster(username)) {
+                Stream stream = online.get(contact);
+                if (stream == null || stream.fullJid == null) {
+                    continue;
+                }
+                stream.send(presence(fullJid, stream.fullJid, type));
+                if (initial && stream.available) {
+                    send(presence(stream.fullJid, fullJid, null));
+                }
+            }
+        }
+
+        private void routeMessage(Element message) throws IOException {
+            String to = message.attributes.get("to");
+            String body = message.childText("body");
+            if (fullJid == null || to == null || body == null) {
+                return;
+            }
+            Stream recipient = online.get(localpart(to));
+            if (recipient == null || recipient.fullJid == null) {
+                undeliverableMessages.increment();
+                return;
+            }
+            String stanzaId = message.attributes.get("id");
+            recipient.send("<message from='" + attribute(fullJid) + "' to='" + attribute(recipient.fullJid) + "' type='chat'"
+                    + (stanzaId == null ? "" : " id='" + attribute(stanzaId) + "'") + "><body>"
+                    + StringUtils.escapeForXml(body) + "</body></message>");
+            routedMessages.increment();
+        }
+
+        private void send(String xml) throws IOException {
+            synchronized (writeLock) {
+                writer.write(xml);
+                writer.flush();
+            }
+        }
+
+        private void close() {
+            if (username != null && online.remove(username, this) && available) {
+                available = false;
+                for (String contact : roster(username)) {
+                    Stream stream = online.get(contact);
+                    if (stream != null && stream.fullJid != null) {
+                        try {
+                            stream.send(presence(fullJid, stream.fullJid, "unavailable"));
+                        } catch (IOException e) {
+                            // The contact is going away as well.
+                        }
+                    }
+                }
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+
+        private String result(String stanzaId, String payload) {
+            return "<iq type='result' id='" + stanzaId + "'" + (fullJid == null ? "" : " to='" + attribute(fullJid) + "'") + ">"
+                    + payload + "</iq>";
+        }
+
+        private String error(String stanzaId, String condition) {
+            return "<iq type='error' id='" + stanzaId + "'><error type='cancel'><" + condition + " xmlns='"
+                    + STANZAS_NAMESPACE + "'/></error></iq>";
+        }
+
+        private String presence(String from, String to, String type) {
+            return "<presence from='" + attribute(from) + "' to='" + attribute(to) + "'"
+                    + (type == null ? "" : " type='" + type + "'") + "/>";
+        }
+    }
+
+    /**
+     * Advances to the next child of the stream element and reads it whole, or returns null when the
+     * stream ends.
+     */
+    private static Element nextTopLevelElement(XmlPullParser parser) throws IOException, XmlPullParserException {
+        while (true) {
+            XmlPullParser.Event event = parser.next();
+            if (event == XmlPullParser.Event.END_DOCUMENT
+                    || (event == XmlPullParser.Event.END_ELEMENT && parser.getDepth() == 1)) {
+                return null;
+            }
+            if (event == XmlPullParser.Event.START_ELEMENT && parser.getDepth() == 2) {
+                return Element.read(parser);
+            }
+        }
+    }
+
+    /**
+     * A parsed element, small enough to be kept as a tree: stanzas here never carry more than a few
+     * children.
+     */
+    private static final class Element {
+
+        private final String name;
+        private final String namespace;
+        private final Map<String, String> attributes = new HashMap<>();
+        private final List<Element> children = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+
+        private Element(String name, String namespace) {
+            this.name = name;
+            this.namespace = namespace;
+        }
+
+        private static Element read(XmlPullParser parser) throws IOException, XmlPullParserException {
+            Element element = new Element(parser.getName(), parser.getNamespace());
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                element.attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+            }
+            int depth = parser.getDepth();
+            while (true) {
+                XmlPullParser.Event event = parser.next();
+                if (event == XmlPullParser.Event.START_ELEMENT) {
+                    element.children.add(read(parser));
+                } else if (event == XmlPullParser.Event.TEXT_CHARACTERS) {
+                    element.text.append(parser.getText());
+                } else if (event == XmlPullParser.Event.END_ELEMENT && parser.getDepth() == depth) {
+                    return element;
+                } else if (event == XmlPullParser.Event.END_DOCUMENT) {
+                    throw new IOException("Stream ended inside <" + element.name + ">.");
+                }
+            }
+        }
+
+        private String text() {
+            return text.toString().trim();
+        }
+
+        private String childText(String childName) {
+            for (Element child : children) {
+                if (child.name.equals(childName)) {
+                    return child.text.toString();
+                }
+            }
+            return null;
+        }
+    }
+}
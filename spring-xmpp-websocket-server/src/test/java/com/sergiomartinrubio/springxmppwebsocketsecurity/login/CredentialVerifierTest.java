@@ -0,0 +1,62 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.login;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CredentialVerifierTest {
+
+    private static final String USERNAME = "user";
+    private static final String PASSWORD = "password";
+
+    private CredentialVerifier credentialVerifier;
+
+    @BeforeEach
+    void setUp() {
+        credentialVerifier = new CredentialVerifier(new CredentialProperties());
+    }
+
+    @AfterEach
+    void tearDown() {
+        credentialVerifier.destroy();
+    }
+
+    @Test
+    void verifyShouldSkipBCryptWhenSameCredentialsWereVerifiedBefore() {
+        // GIVEN
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt(4));
+
+        // WHEN
+        boolean first = credentialVerifier.verify(USERNAME, PASSWORD, hashedPassword);
+        boolean second = credentialVerifier.verify(USERNAME, PASSWORD, hashedPassword);
+
+        // THEN
+        assertThat(first).isTrue();
+        assertThat(second).isTrue();
+        assertThat(credentialVerifier.getCacheHits()).isEqualTo(1);
+        assertThat(credentialVerifier.getCacheMisses()).isEqualTo(1);
+        assertThat(credentialVerifier.getCacheHitRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    void verifyShouldNotRememberFailedVerificationsOrVerificationsOfAnotherHash() {
+        // GIVEN
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt(4));
+        String changedHashedPassword = BCrypt.hashpw("new-password", BCrypt.gensalt(4));
+
+        // WHEN
+        boolean wrongPassword = credentialVerifier.verify(USERNAME, "WRONG", hashedPassword);
+        boolean correctPassword = credentialVerifier.verify(USERNAME, PASSWORD, hashedPassword);
+        boolean changedPassword = credentialVerifier.verify(USERNAME, PASSWORD, changedHashedPassword);
+
+        // THEN
+        assertThat(wrongPassword).isFalse();
+        assertThat(correctPassword).isTrue();
+        assertThat(changedPassword).isFalse();
+        assertThat(credentialVerifier.getCacheHits()).isZero();
+        assertThat(credentialVerifier.getCacheSize()).isEqualTo(1);
+    }
+}
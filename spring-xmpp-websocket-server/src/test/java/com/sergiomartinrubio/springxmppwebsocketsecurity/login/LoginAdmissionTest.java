@@ -0,0 +1,110 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.login;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.exception.LoginRejectedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LoginAdmissionTest {
+
+    private LoginAdmissionProperties loginAdmissionProperties;
+    private LoginAdmission loginAdmission;
+
+    @BeforeEach
+    void setUp() {
+        loginAdmissionProperties = new LoginAdmissionProperties();
+        loginAdmissionProperties.setMaxConcurrent(1);
+        loginAdmissionProperties.setQueueCapacity(2);
+        loginAdmission = new LoginAdmission(loginAdmissionProperties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        loginAdmission.destroy();
+    }
+
+    @Test
+    void submitShouldStartQueuedLoginsInArrivalOrderAndRejectWhenQueueIsFull() {
+        // GIVEN
+        List<String> started = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> firstLogin = new CompletableFuture<>();
+        loginAdmission.submit("first", () -> {
+            started.add("first");
+            return firstLogin;
+        }, () -> false);
+
+        // WHEN
+        CompletableFuture<Void> second = loginAdmission.submit("second", login(started, "second"), () -> false);
+        CompletableFuture<Void> third = loginAdmission.submit("third", login(started, "third"), () -> false);
+        CompletableFuture<Void> fourth = loginAdmission.submit("fourth", login(started, "fourth"), () -> false);
+        firstLogin.complete(null);
+
+        // THEN
+        CompletableFuture.allOf(second, third).join();
+        assertThat(started).containsExactly("first", "second", "third");
+        assertThatThrownBy(fourth::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(LoginRejectedException.class);
+        // Third in the queue behind a single slot, at the expected login duration of one second.
+        assertThat(((LoginRejectedException) fourth.handle((result, e) -> e).join()).getRetryAfter())
+                .isEqualTo(Duration.ofSeconds(3));
+        assertThat(loginAdmission.getAdmittedLogins()).isEqualTo(3);
+        assertThat(loginAdmission.getRejectedLogins()).isEqualTo(1);
+    }
+
+    @Test
+    void submitShouldSkipQueuedLoginWhenClientIsGone() {
+        // GIVEN
+        List<String> started = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> firstLogin = new CompletableFuture<>();
+        loginAdmission.submit("first", () -> firstLogin, () -> false);
+        CompletableFuture<Void> abandoned = loginAdmission.submit("abandoned", login(started, "abandoned"), () -> true);
+        CompletableFuture<Void> waiting = loginAdmission.submit("waiting", login(started, "waiting"), () -> false);
+
+        // WHEN
+        firstLogin.complete(null);
+
+        // THEN
+        CompletableFuture.allOf(abandoned, waiting).join();
+        assertThat(started).containsExactly("waiting");
+        assertThat(loginAdmission.getAbandonedLogins()).isEqualTo(1);
+        assertThat(loginAdmission.getInFlightLogins()).isZero();
+        assertThat(loginAdmission.getQueuedLogins()).isZero();
+    }
+
+    @Test
+    void submitShouldRejectWhenTokensRunOutAndExpectedWaitIsTooLong() {
+        // GIVEN
+        loginAdmissionProperties.setMaxConcurrent(10);
+        loginAdmissionProperties.setBurst(1);
+        loginAdmissionProperties.setRate(0.1);
+        loginAdmissionProperties.setMaxQueueWait(Duration.ofSeconds(5));
+        loginAdmission.destroy();
+        loginAdmission = new LoginAdmission(loginAdmissionProperties);
+        loginAdmission.submit("first", CompletableFuture::new, () -> false);
+
+        // WHEN
+        CompletableFuture<Void> second = loginAdmission.submit("second", CompletableFuture::new, () -> false);
+
+        // THEN
+        assertThatThrownBy(second::join).hasCauseInstanceOf(LoginRejectedException.class);
+        assertThat(loginAdmission.getQueuedLogins()).isZero();
+    }
+
+    private static Supplier<CompletableFuture<Void>> login(List<String> started, String username) {
+        return () -> {
+            started.add(username);
+            return CompletableFuture.completedFuture(null);
+        };
+    }
+}
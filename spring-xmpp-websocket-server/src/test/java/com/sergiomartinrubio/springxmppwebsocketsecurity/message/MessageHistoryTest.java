@@ -0,0 +1,92 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.message;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.ChatMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.HistoryPage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.repository.MessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+
+@ExtendWith(MockitoExtension.class)
+class MessageHistoryTest {
+
+    private static final String USERNAME = "user";
+    private static final String PEER = "peer";
+
+    @Mock
+    private MessageRepository messageRepository;
+
+    private MessageHistoryProperties messageHistoryProperties;
+    private MessageHistory messageHistory;
+
+    @BeforeEach
+    void setUp() {
+        messageHistoryProperties = new MessageHistoryProperties();
+        messageHistoryProperties.setPageSize(2);
+        messageHistory = new MessageHistory(messageHistoryProperties, messageRepository);
+    }
+
+    @Test
+    void getPageShouldReturnCursorOfOldestMessageWhenThereAreOlderMessages() {
+        // GIVEN
+        given(messageRepository.findConversation(USERNAME, PEER, 10, 3))
+                .willReturn(List.of(message(9, "a"), message(7, "b"), message(4, "c")));
+
+        // WHEN
+        HistoryPage page = messageHistory.getPage(USERNAME, PEER, "10");
+
+        // THEN
+        assertThat(page.getMessages()).extracting(ChatMessage::getId).containsExactly(9L, 7L);
+        assertThat(page.getCursor()).isEqualTo("7");
+    }
+
+    @Test
+    void getPageShouldStopAtCharacterLimitAndReturnNoCursorOnLastPage() {
+        // GIVEN
+        messageHistoryProperties.setMaxPageCharacters(3);
+        given(messageRepository.findConversation(USERNAME, PEER, Long.MAX_VALUE, 3))
+                .willReturn(List.of(message(2, "abcd"), message(1, "e")));
+        given(messageRepository.findConversation(USERNAME, PEER, 2, 3))
+                .willReturn(List.of(message(1, "e")));
+
+        // WHEN
+        HistoryPage first = messageHistory.getPage(USERNAME, PEER, null);
+        HistoryPage last = messageHistory.getPage(USERNAME, PEER, first.getCursor());
+
+        // THEN
+        assertThat(first.getMessages()).extracting(ChatMessage::getId).containsExactly(2L);
+        assertThat(first.getCursor()).isEqualTo("2");
+        assertThat(last.getMessages()).extracting(ChatMessage::getId).containsExactly(1L);
+        assertThat(last.getCursor()).isNull();
+    }
+
+    @Test
+    void getPageShouldReturnEmptyPageWhenCursorIsInvalid() {
+        // WHEN
+        HistoryPage page = messageHistory.getPage(USERNAME, PEER, "not-a-cursor");
+
+        // THEN
+        assertThat(page.getMessages()).isEmpty();
+        assertThat(page.getCursor()).isNull();
+        then(messageRepository).shouldHaveNoInteractions();
+    }
+
+    private static ChatMessage message(long id, String content) {
+        return ChatMessage.builder()
+                .id(id)
+                .sender(USERNAME)
+                .recipient(PEER)
+                .content(content)
+                .sentAt(Instant.now())
+                .build();
+    }
+}
@@ -0,0 +1,123 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.message;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.ChatMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.repository.MessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.times;
+
+@ExtendWith(MockitoExtension.class)
+class MessageStoreTest {
+
+    @Mock
+    private MessageRepository messageRepository;
+
+    private MessageStoreProperties messageStoreProperties;
+
+    @BeforeEach
+    void setUp() {
+        messageStoreProperties = new MessageStoreProperties();
+        messageStoreProperties.setBatchSize(2);
+        messageStoreProperties.setFlushInterval(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void destroyShouldWriteBufferedMessagesInBatches() throws InterruptedException {
+        // GIVEN
+        MessageStore messageStore = new MessageStore(messageStoreProperties, messageRepository);
+        messageStore.afterPropertiesSet();
+        messageStore.store(message("1"));
+        messageStore.store(message("2"));
+        messageStore.store(message("3"));
+
+        // WHEN
+        messageStore.destroy();
+
+        // THEN
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ChatMessage>> batches = ArgumentCaptor.forClass(List.class);
+        then(messageRepository).should(atLeast(2)).saveAll(batches.capture());
+        assertThat(batches.getAllValues()).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(2));
+        assertThat(batches.getAllValues().stream().flatMap(List::stream).map(ChatMessage::getContent).collect(Collectors.toList()))
+                .containsExactly("1", "2", "3");
+        assertThat(messageStore.getStoredMessages()).isEqualTo(3);
+        assertThat(messageStore.store(message("4"))).isFalse();
+    }
+
+    @Test
+    void destroyShouldGiveUpBatchAfterMaxAttempts() throws InterruptedException {
+        // GIVEN
+        messageStoreProperties.setFlushInterval(Duration.ofMillis(1));
+        MessageStore messageStore = new MessageStore(messageStoreProperties, messageRepository);
+        willThrow(new IllegalStateException("database down")).given(messageRepository).saveAll(anyList());
+        messageStore.afterPropertiesSet();
+        messageStore.store(message("1"));
+
+        // WHEN
+        messageStore.destroy();
+
+        // THEN
+        then(messageRepository).should(times(3)).saveAll(anyList());
+        assertThat(messageStore.getFailedMessages()).isEqualTo(1);
+        assertThat(messageStore.getStoredMessages()).isZero();
+    }
+
+    @Test
+    void destroyShouldWriteRowsOfRefusedBatchOneByOne() throws InterruptedException {
+        // GIVEN
+        MessageStore messageStore = new MessageStore(messageStoreProperties, messageRepository);
+        willThrow(new DataIntegrityViolationException("value too long"))
+                .given(messageRepository).saveAll(argThat(batch -> batch.stream().anyMatch(message -> message.getContent().equals("bad"))));
+        messageStore.afterPropertiesSet();
+        messageStore.store(message("good"));
+        messageStore.store(message("bad"));
+
+        // WHEN
+        messageStore.destroy();
+
+        // THEN
+        then(messageRepository).should().saveAll(argThat(batch -> batch.size() == 1 && batch.get(0).getContent().equals("good")));
+        assertThat(messageStore.getStoredMessages()).isEqualTo(1);
+        assertThat(messageStore.getFailedMessages()).isEqualTo(1);
+    }
+
+    @Test
+    void storeShouldRejectMessageWithoutContent() {
+        // GIVEN
+        MessageStore messageStore = new MessageStore(messageStoreProperties, messageRepository);
+
+        // WHEN
+        boolean buffered = messageStore.store(message(null));
+
+        // THEN
+        assertThat(buffered).isFalse();
+        assertThat(messageStore.getRejectedMessages()).isEqualTo(1);
+        assertThat(messageStore.getBufferDepth()).isZero();
+    }
+
+    private static ChatMessage message(String content) {
+        return ChatMessage.builder()
+                .sender("user")
+                .recipient("other")
+                .content(content)
+                .sentAt(Instant.now())
+                .build();
+    }
+}
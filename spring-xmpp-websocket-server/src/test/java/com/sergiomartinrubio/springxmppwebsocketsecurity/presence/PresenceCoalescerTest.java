@@ -0,0 +1,85 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.presence;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionRegistry;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.WebSocketTextMessageHelper;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.PresenceBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.websocket.Session;
+
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.times;
+
+@ExtendWith(MockitoExtension.class)
+class PresenceCoalescerTest {
+
+    @Mock
+    private WebSocketTextMessageHelper webSocketTextMessageHelper;
+
+    @Mock
+    private AbstractXMPPConnection connection;
+
+    @Mock
+    private Session session;
+
+    private SessionRegistry sessionRegistry;
+    private PresenceCoalescer presenceCoalescer;
+
+    @BeforeEach
+    void setUp() {
+        sessionRegistry = new SessionRegistry();
+        presenceCoalescer = new PresenceCoalescer(new PresenceProperties(), sessionRegistry, webSocketTextMessageHelper);
+    }
+
+    @Test
+    void flushShouldSendLatestStateOfEveryContactInOneFrame() throws XmppStringprepException {
+        // GIVEN
+        sessionRegistry.register(session, "user", null, connection);
+        presenceCoalescer.offer(connection, presence("alice", Presence.Type.available, Presence.Mode.available));
+        presenceCoalescer.offer(connection, presence("bob", Presence.Type.available, Presence.Mode.available));
+        presenceCoalescer.offer(connection, presence("alice", Presence.Type.available, Presence.Mode.away));
+        presenceCoalescer.offer(connection, presence("alice", Presence.Type.unavailable, Presence.Mode.available));
+
+        // WHEN
+        presenceCoalescer.flush();
+        presenceCoalescer.flush();
+
+        // THEN
+        then(webSocketTextMessageHelper).should(times(1)).send(session, WebsocketMessage.builder()
+                .content("{\"alice\":\"unavailable\",\"bob\":\"available\"}")
+                .messageType(MessageType.PRESENCE)
+                .build());
+    }
+
+    @Test
+    void flushShouldDropChangesWhenConnectionIsNotBoundToSession() throws XmppStringprepException {
+        // GIVEN
+        presenceCoalescer.offer(connection, presence("alice", Presence.Type.available, Presence.Mode.away));
+
+        // WHEN
+        presenceCoalescer.flush();
+        sessionRegistry.register(session, "user", null, connection);
+        presenceCoalescer.flush();
+
+        // THEN
+        then(webSocketTextMessageHelper).shouldHaveNoInteractions();
+    }
+
+    private static Presence presence(String contact, Presence.Type type, Presence.Mode mode) throws XmppStringprepException {
+        return PresenceBuilder.buildPresence()
+                .from(JidCreate.entityFullFrom(contact + "@domain/resource"))
+                .ofType(type)
+                .setMode(mode)
+                .build();
+    }
+}
@@ -0,0 +1,54 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.ratelimit;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimiterTest {
+
+    private RateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        RateLimitProperties rateLimitProperties = new RateLimitProperties();
+        rateLimitProperties.setLimits(Map.of(MessageType.NEW_MESSAGE, new RateLimitProperties.Limit(1, 3)));
+        rateLimiter = new RateLimiter(rateLimitProperties);
+    }
+
+    @Test
+    void tryAcquireShouldAllowTheBurstAndThenReturnTheWaitForTheNextToken() {
+        // WHEN
+        long first = rateLimiter.tryAcquire("user", MessageType.NEW_MESSAGE);
+        long second = rateLimiter.tryAcquire("user", MessageType.NEW_MESSAGE);
+        long third = rateLimiter.tryAcquire("user", MessageType.NEW_MESSAGE);
+        long fourth = rateLimiter.tryAcquire("user", MessageType.NEW_MESSAGE);
+
+        // THEN
+        assertThat(first).isZero();
+        assertThat(second).isZero();
+        assertThat(third).isZero();
+        assertThat(fourth).isPositive().isLessThanOrEqualTo(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    void tryAcquireShouldKeepUsersAndMessageTypesApart() {
+        // GIVEN
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.tryAcquire("user", MessageType.NEW_MESSAGE);
+        }
+
+        // WHEN
+        long otherUser = rateLimiter.tryAcquire("other", MessageType.NEW_MESSAGE);
+        long unlimitedType = rateLimiter.tryAcquire("user", MessageType.GET_CONTACTS);
+
+        // THEN
+        assertThat(otherUser).isZero();
+        assertThat(unlimitedType).isZero();
+        assertThat(rateLimiter.getTrackedUsers()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,65 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.roster;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RosterSnapshotTest {
+
+    @Test
+    void putShouldReturnDeltaOfAddedAndRenamedContactsAndReencodeContacts() throws XmppStringprepException {
+        // GIVEN
+        BareJid alice = JidCreate.bareFrom("alice@domain");
+        BareJid bob = JidCreate.bareFrom("bob@domain");
+        RosterSnapshot rosterSnapshot = new RosterSnapshot();
+        rosterSnapshot.put(Map.of(alice, "alice"));
+        String before = rosterSnapshot.getEncoded();
+
+        // WHEN
+        String delta = rosterSnapshot.put(Map.of(alice, "Alice", bob, "bob"));
+
+        // THEN
+        assertThat(before).isEqualTo("[\"alice\"]");
+        assertThat(delta).contains("\"added\":[\"bob\"]", "\"updated\":[{\"previous\":\"alice\",\"name\":\"Alice\"}]");
+        assertThat(rosterSnapshot.getEncoded()).contains("\"Alice\"", "\"bob\"");
+    }
+
+    @Test
+    void changesShouldReturnNullAndKeepEncodedContactsWhenNoNameChanged() throws XmppStringprepException {
+        // GIVEN
+        BareJid alice = JidCreate.bareFrom("alice@domain");
+        RosterSnapshot rosterSnapshot = new RosterSnapshot();
+        rosterSnapshot.put(Map.of(alice, "alice"));
+        String encoded = rosterSnapshot.getEncoded();
+
+        // WHEN
+        String updated = rosterSnapshot.put(Map.of(alice, "alice"));
+        String removed = rosterSnapshot.remove(List.of(JidCreate.bareFrom("bob@domain")));
+
+        // THEN
+        assertThat(updated).isNull();
+        assertThat(removed).isNull();
+        assertThat(rosterSnapshot.getEncoded()).isSameAs(encoded);
+    }
+
+    @Test
+    void removeShouldReturnDeltaOfRemovedContacts() throws XmppStringprepException {
+        // GIVEN
+        BareJid alice = JidCreate.bareFrom("alice@domain");
+        RosterSnapshot rosterSnapshot = new RosterSnapshot();
+        rosterSnapshot.put(Map.of(alice, "alice"));
+
+        // WHEN
+        String delta = rosterSnapshot.remove(List.of(alice));
+
+        // THEN
+        assertThat(delta).isEqualTo("{\"removed\":[\"alice\"]}");
+        assertThat(rosterSnapshot.getEncoded()).isEqualTo("[]");
+    }
+}
@@ -0,0 +1,66 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.service;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.Account;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.repository.AccountRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.times;
+
+@ExtendWith(MockitoExtension.class)
+class AccountServiceTest {
+
+    private static final String USERNAME = "user";
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    private AccountService accountService;
+
+    @BeforeEach
+    void setUp() {
+        accountService = new AccountService(accountRepository, new AccountCacheProperties());
+    }
+
+    @Test
+    void getAccountShouldReadDatabaseOnceWhenAccountIsRequestedTwice() {
+        // GIVEN
+        Account account = new Account(USERNAME, "hash");
+        given(accountRepository.findById(USERNAME)).willReturn(Optional.of(account));
+
+        // WHEN
+        accountService.getAccount(USERNAME);
+        Optional<Account> cached = accountService.getAccount(USERNAME);
+
+        // THEN
+        assertThat(cached).contains(account);
+        then(accountRepository).should(times(1)).findById(USERNAME);
+        assertThat(accountService.getCacheStats().hitCount()).isEqualTo(1);
+        assertThat(accountService.getCacheStats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    void getAccountShouldReturnSavedAccountWhenUnknownUserWasCachedBefore() {
+        // GIVEN
+        Account account = new Account(USERNAME, "hash");
+        given(accountRepository.findById(USERNAME)).willReturn(Optional.empty());
+        Optional<Account> unknown = accountService.getAccount(USERNAME);
+
+        // WHEN
+        accountService.saveAccount(account);
+
+        // THEN
+        assertThat(unknown).isEmpty();
+        assertThat(accountService.getAccount(USERNAME)).contains(account);
+        then(accountRepository).should(times(1)).findById(USERNAME);
+        then(accountRepository).should().save(account);
+    }
+}
@@ -2,31 +2,84 @@ package com.sergiomartinrubio.springxmppwebsocketsecurity.service;
 
 import com.sergiomartinrubio.springxmppwebsocketsecurity.exception.XMPPGenericException;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.facade.XMPPFacade;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.CredentialProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.CredentialVerifier;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.LoginAdmission;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.LoginAdmissionProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.LoginExecutor;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.login.LoginProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.message.MessageHistory;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.message.MessageStore;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.Account;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.ChatMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.HistoryPage;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.SendStatus;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.presence.PresenceCoalescer;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.ratelimit.RateLimitProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.ratelimit.RateLimiter;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.resume.InMemoryResumeTokenStore;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.resume.ResumableSessions;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.resume.ResumeProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.roster.RosterCache;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.MailboxProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionHibernation;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionMailboxes;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.session.SessionRegistry;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils.WebSocketTextMessageHelper;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.StreamRecovery;
 import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPClient;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPMessageTransmitter;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.gateway.XMPPGateway;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.StanzaBuilder;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.crypto.bcrypt.BCrypt;
 
 import javax.websocket.Session;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.ERROR;
 import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.FORBIDDEN;
 import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.JOIN_SUCCESS;
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.REAUTHENTICATE;
+import static com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType.RETRY_AFTER;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willAnswer;
 import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 
 @ExtendWith(MockitoExtension.class)
 class XMPPFacadeTest {
@@ -48,9 +101,84 @@ class XMPPFacadeTest {
     @Mock
     private XMPPClient xmppClient;
 
-    @InjectMocks
+    @Mock
+    private XMPPGateway xmppGateway;
+
+    @Mock
+    private XMPPMessageTransmitter xmppMessageTransmitter;
+
+    @Mock
+    private MessageStore messageStore;
+
+    @Mock
+    private MessageHistory messageHistory;
+
+    @Mock
+    private RosterCache rosterCache;
+
+    @Mock
+    private PresenceCoalescer presenceCoalescer;
+
+    @Mock
+    private StreamRecovery streamRecovery;
+
+    @Mock
+    private SessionHibernation sessionHibernation;
+
+    @Mock
+    private AbstractXMPPConnection authenticatedConnection;
+
+    @Mock
+    private AbstractXMPPConnection wokenConnection;
+
+    @Mock
+    private Session resumedSession;
+
+    @Mock
+    private Session sharingSession;
+
+    private LoginExecutor loginExecutor;
+
+    private LoginAdmission loginAdmission;
+
+    private CredentialVerifier credentialVerifier;
+
+    private ResumeProperties resumeProperties;
+
+    private ResumableSessions resumableSessions;
+
+    private SessionMailboxes sessionMailboxes;
+
+    private SimpleMeterRegistry meterRegistry;
+
     private XMPPFacade xmppFacade;
 
+    @BeforeEach
+    void setUp() {
+        LoginProperties loginProperties = new LoginProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        loginExecutor = new LoginExecutor(loginProperties);
+        loginAdmission = new LoginAdmission(new LoginAdmissionProperties());
+        credentialVerifier = new CredentialVerifier(new CredentialProperties());
+        resumeProperties = new ResumeProperties();
+        resumeProperties.setEnabled(false);
+        resumableSessions = new ResumableSessions(resumeProperties, new InMemoryResumeTokenStore(), xmppClient, xmppMessageTransmitter);
+        MailboxProperties mailboxProperties = new MailboxProperties();
+        mailboxProperties.setVirtualThreads(false);
+        sessionMailboxes = new SessionMailboxes(mailboxProperties, new ChatMetrics(meterRegistry));
+        xmppFacade = new XMPPFacade(accountService, webSocketTextMessageHelper, xmppClient,
+                new SessionRegistry(), loginExecutor, loginProperties, loginAdmission, xmppGateway, credentialVerifier, resumableSessions, messageStore, messageHistory, rosterCache, presenceCoalescer, streamRecovery, new RateLimiter(new RateLimitProperties()), sessionHibernation, sessionMailboxes, new ChatMetrics(meterRegistry));
+        lenient().when(session.isOpen()).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        loginExecutor.destroy();
+        loginAdmission.destroy();
+        credentialVerifier.destroy();
+        resumableSessions.destroy();
+        sessionMailboxes.destroy();
+    }
 
     @Test
     void startSessionShouldStartSessionWithoutCreatingAccountWhenAccountExistAndCorrectPassword() throws XmppStringprepException {
@@ -64,15 +192,62 @@ class XMPPFacadeTest {
         given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
 
         // WHEN
-        xmppFacade.startSession(session, USERNAME, PASSWORD);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
 
         // THEN
-        then(xmppClient).should().login(connection);
-        then(xmppClient).should().addIncomingMessageListener(connection, session);
+        then(xmppClient).should().login(connection, USERNAME, PASSWORD);
+        then(xmppClient).should().addIncomingMessageListener(eq(connection), any());
+        then(xmppClient).should().addPresenceListener(eq(connection), any());
         then(webSocketTextMessageHelper).should().send(session, createTextMessage(JOIN_SUCCESS, USERNAME));
         then(xmppClient).shouldHaveNoMoreInteractions();
     }
 
+    @Test
+    void sendMessageShouldAnswerUnsupportedToGetContactsWhenGatewayIsEnabled() throws XmppStringprepException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .messageType(MessageType.GET_CONTACTS)
+                .build();
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppGateway.isEnabled()).willReturn(true);
+        given(xmppGateway.getJid(USERNAME)).willReturn(JidCreate.entityBareFrom(USERNAME + "@gateway.domain"));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+
+        // WHEN
+        xmppFacade.sendMessage(message, session);
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(session, WebsocketMessage.builder()
+                .content(MessageType.GET_CONTACTS.name())
+                .messageType(MessageType.UNSUPPORTED)
+                .build());
+        then(webSocketTextMessageHelper).should(never()).send(eq(session), argThat(sent -> sent.getMessageType() == MessageType.GET_CONTACTS));
+    }
+
+    @Test
+    void sendMessageShouldSendThroughGatewayWhenGatewayIsEnabled() throws XmppStringprepException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .content(MESSAGE)
+                .to(TO)
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppGateway.isEnabled()).willReturn(true);
+        given(xmppGateway.getJid(USERNAME)).willReturn(JidCreate.entityBareFrom(USERNAME + "@gateway.domain"));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+
+        // WHEN
+        xmppFacade.sendMessage(message, session);
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(session, createTextMessage(JOIN_SUCCESS, USERNAME));
+        then(xmppGateway).should().sendMessage(USERNAME, TO, MESSAGE);
+        then(xmppClient).shouldHaveNoInteractions();
+    }
+
     @Test
     void startSessionShouldStartSessionAndCreateAccountWhenAccountDoesNotExist() throws XmppStringprepException {
         // GIVEN
@@ -84,11 +259,11 @@ class XMPPFacadeTest {
         given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
 
         // WHEN
-        xmppFacade.startSession(session, USERNAME, PASSWORD);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
 
         // THEN
-        then(xmppClient).should().login(connection);
-        then(xmppClient).should().addIncomingMessageListener(connection, session);
+        then(xmppClient).should().login(connection, USERNAME, PASSWORD);
+        then(xmppClient).should().addIncomingMessageListener(eq(connection), any());
         then(webSocketTextMessageHelper).should().send(session, createTextMessage(JOIN_SUCCESS, USERNAME));
         then(xmppClient).should().createAccount(connection, USERNAME, PASSWORD);
     }
@@ -100,11 +275,37 @@ class XMPPFacadeTest {
         given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
 
         // WHEN
-        xmppFacade.startSession(session, USERNAME, PASSWORD);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
 
         // THEN
         then(xmppClient).shouldHaveNoInteractions();
         then(webSocketTextMessageHelper).should().send(session, createTextMessage(FORBIDDEN, null));
+        assertThat(meterRegistry.get("chat.errors").tag("path", "invalid_credentials").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void startSessionShouldSendRetryAfterMessageWhenLoginIsNotAdmitted() {
+        // GIVEN
+        LoginAdmissionProperties loginAdmissionProperties = new LoginAdmissionProperties();
+        loginAdmissionProperties.setBurst(0);
+        loginAdmissionProperties.setRate(1);
+        loginAdmissionProperties.setQueueCapacity(0);
+        loginAdmission.destroy();
+        loginAdmission = new LoginAdmission(loginAdmissionProperties);
+        xmppFacade = new XMPPFacade(accountService, webSocketTextMessageHelper, xmppClient,
+                new SessionRegistry(), loginExecutor, new LoginProperties(), loginAdmission, xmppGateway, credentialVerifier, resumableSessions, messageStore, messageHistory, rosterCache, presenceCoalescer, streamRecovery, new RateLimiter(new RateLimitProperties()), sessionHibernation, sessionMailboxes, new ChatMetrics(meterRegistry));
+
+        // WHEN
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+
+        // THEN
+        then(accountService).shouldHaveNoInteractions();
+        then(xmppClient).shouldHaveNoInteractions();
+        then(webSocketTextMessageHelper).should().send(session, WebsocketMessage.builder()
+                .content("1000")
+                .messageType(RETRY_AFTER)
+                .build());
+        assertThat(loginAdmission.getRejectedLogins()).isEqualTo(1);
     }
 
     @Test
@@ -115,7 +316,7 @@ class XMPPFacadeTest {
         given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.empty());
 
         // WHEN
-        xmppFacade.startSession(session, USERNAME, PASSWORD);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
 
         // THEN
         then(xmppClient).shouldHaveNoMoreInteractions();
@@ -132,10 +333,10 @@ class XMPPFacadeTest {
         String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
         given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
         given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
-        willThrow(XMPPGenericException.class).given(xmppClient).login(connection);
+        willThrow(XMPPGenericException.class).given(xmppClient).login(connection, USERNAME, PASSWORD);
 
         // WHEN
-        xmppFacade.startSession(session, USERNAME, PASSWORD);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
 
         // THEN
         then(xmppClient).should().disconnect(connection);
@@ -143,6 +344,60 @@ class XMPPFacadeTest {
         then(xmppClient).shouldHaveNoMoreInteractions();
     }
 
+    @Test
+    void startSessionShouldSendErrorMessageAndDisconnectLateConnectionWhenConnectTimesOut() throws XmppStringprepException {
+        // GIVEN
+        LoginProperties loginProperties = new LoginProperties();
+        loginProperties.setConnectTimeout(Duration.ofMillis(50));
+        xmppFacade = new XMPPFacade(accountService, webSocketTextMessageHelper, xmppClient,
+                new SessionRegistry(), loginExecutor, loginProperties, loginAdmission, xmppGateway, credentialVerifier, resumableSessions, messageStore, messageHistory, rosterCache, presenceCoalescer, streamRecovery, new RateLimiter(new RateLimitProperties()), sessionHibernation, sessionMailboxes, new ChatMetrics(meterRegistry));
+        XMPPTCPConnectionConfiguration configuration = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("domain")
+                .build();
+        XMPPTCPConnection connection = new XMPPTCPConnection(configuration);
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.empty());
+        given(xmppClient.connect(USERNAME, PASSWORD)).willAnswer(invocation -> {
+            Thread.sleep(200);
+            return Optional.of(connection);
+        });
+
+        // WHEN
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(session, createTextMessage(ERROR, null));
+        then(xmppClient).should(timeout(1000)).disconnect(connection);
+        then(xmppClient).shouldHaveNoMoreInteractions();
+    }
+
+    @Test
+    void startSessionShouldCloseConnectionWhenWebSocketClosesDuringLogin() {
+        // GIVEN
+        AtomicBoolean open = new AtomicBoolean(true);
+        lenient().when(session.isOpen()).thenAnswer(invocation -> open.get());
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(authenticatedConnection));
+        willAnswer(invocation -> {
+            open.set(false);
+            xmppFacade.disconnect(session);
+            return null;
+        }).given(xmppClient).login(authenticatedConnection, USERNAME, PASSWORD);
+
+        // WHEN
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+
+        // THEN
+        InOrder inOrder = inOrder(xmppClient);
+        inOrder.verify(xmppClient).addIncomingMessageListener(eq(authenticatedConnection), any());
+        inOrder.verify(xmppClient).disconnect(authenticatedConnection);
+        then(webSocketTextMessageHelper).should(never()).send(eq(session), argThat(joined -> joined.getMessageType() == JOIN_SUCCESS));
+        InOrder hibernation = inOrder(sessionHibernation);
+        hibernation.verify(sessionHibernation).track(eq(session), eq(USERNAME), any(), any());
+        hibernation.verify(sessionHibernation).untrack(session);
+        assertThat(resumableSessions.isShared(USERNAME)).isFalse();
+    }
+
     @Test
     void sendMessageShouldSendMessage() throws XmppStringprepException {
         // GIVEN
@@ -158,13 +413,212 @@ class XMPPFacadeTest {
         String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
         given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
         given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
-        xmppFacade.startSession(session, USERNAME, PASSWORD);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
 
         // WHEN
         xmppFacade.sendMessage(message, session);
 
         // THEN
         then(xmppClient).should().sendMessage(connection, MESSAGE, TO);
+        then(messageStore).should().store(argThat(stored -> stored.getSender().equals(USERNAME)
+                && stored.getRecipient().equals(TO) && stored.getContent().equals(MESSAGE)));
+    }
+
+    @Test
+    void sendMessageShouldAnswerGetHistoryWithPageOfConversation() throws XmppStringprepException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .to(TO)
+                .messageType(MessageType.GET_HISTORY)
+                .build();
+        XMPPTCPConnectionConfiguration configuration = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("domain")
+                .build();
+        XMPPTCPConnection connection = new XMPPTCPConnection(configuration);
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
+        ChatMessage chatMessage = ChatMessage.builder()
+                .sender(TO)
+                .recipient(USERNAME)
+                .content(MESSAGE)
+                .sentAt(Instant.ofEpochMilli(1000))
+                .build();
+        given(messageHistory.getPage(USERNAME, TO, null)).willReturn(new HistoryPage(List.of(chatMessage), null));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+
+        // WHEN
+        xmppFacade.sendMessage(message, session);
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(session, WebsocketMessage.builder()
+                .to(TO)
+                .content("{\"messages\":[{\"from\":\"" + TO + "\",\"to\":\"" + USERNAME + "\",\"content\":\"" + MESSAGE
+                        + "\",\"sentAt\":1000}]}")
+                .messageType(MessageType.GET_HISTORY)
+                .build());
+    }
+
+    @Test
+    void sendMessageShouldRejectNewMessageWithoutRecipient() throws XmppStringprepException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .content(MESSAGE)
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+        XMPPTCPConnectionConfiguration configuration = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("domain")
+                .build();
+        XMPPTCPConnection connection = new XMPPTCPConnection(configuration);
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+
+        // WHEN
+        xmppFacade.sendMessage(message, session);
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(eq(session), argThat(response -> response.getMessageType() == MessageType.SEND_STATUS
+                && response.getContent().contains("\"\":\"INVALID_RECIPIENT\"")));
+        then(xmppClient).should(never()).sendMessage(any(), any(), any());
+        then(messageStore).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void sendMessageShouldThrottleAddContactOverTheBurst() throws XmppStringprepException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .to(TO)
+                .messageType(MessageType.ADD_CONTACT)
+                .build();
+        XMPPTCPConnectionConfiguration configuration = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("domain")
+                .build();
+        XMPPTCPConnection connection = new XMPPTCPConnection(configuration);
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+
+        // WHEN
+        for (int i = 0; i < 6; i++) {
+            xmppFacade.sendMessage(message, session);
+        }
+
+        // THEN
+        then(xmppClient).should(times(5)).addContact(connection, TO);
+        then(webSocketTextMessageHelper).should().send(eq(session), argThat(sent -> sent.getMessageType() == MessageType.THROTTLED
+                && sent.getContent().startsWith("{\"messageType\":\"ADD_CONTACT\",\"retryAfter\":")));
+        assertThat(meterRegistry.get("chat.throttled").tag("type", "ADD_CONTACT").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void sendMessageShouldSendToEveryRecipientAndReturnStatusOfEachRecipient() throws XmppStringprepException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .content(MESSAGE)
+                .to("[\"" + TO + "\",\"invalid user\"]")
+                .messageType(MessageType.MULTI_MESSAGE)
+                .build();
+        XMPPTCPConnectionConfiguration configuration = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("domain")
+                .build();
+        XMPPTCPConnection connection = new XMPPTCPConnection(configuration);
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
+        given(xmppClient.sendMessages(connection, MESSAGE, List.of(TO, "invalid user")))
+                .willReturn(Map.of(TO, SendStatus.SENT, "invalid user", SendStatus.INVALID_RECIPIENT));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+
+        // WHEN
+        xmppFacade.sendMessage(message, session);
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(eq(session), argThat(response -> response.getMessageType() == MessageType.SEND_STATUS
+                && response.getContent().contains("\"" + TO + "\":\"SENT\"")
+                && response.getContent().contains("\"invalid user\":\"INVALID_RECIPIENT\"")));
+        then(messageStore).should().store(argThat(stored -> stored.getRecipient().equals(TO)));
+        then(messageStore).shouldHaveNoMoreInteractions();
+    }
+
+    @Test
+    void sendMessageShouldReturnInvalidRecipientStatusWhenRecipientsAreMalformed() throws XmppStringprepException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .content(MESSAGE)
+                .to(TO)
+                .messageType(MessageType.MULTI_MESSAGE)
+                .build();
+        XMPPTCPConnectionConfiguration configuration = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("domain")
+                .build();
+        XMPPTCPConnection connection = new XMPPTCPConnection(configuration);
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+
+        // WHEN
+        xmppFacade.sendMessage(message, session);
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(eq(session), argThat(response -> response.getMessageType() == MessageType.SEND_STATUS
+                && response.getContent().contains("\"" + TO + "\":\"INVALID_RECIPIENT\"")));
+        then(xmppClient).should(never()).sendMessages(any(), any(), any());
+        then(messageStore).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void sendMessageShouldKeepSessionWhenConnectionIsBeingRecovered() throws XmppStringprepException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .content(MESSAGE)
+                .to(TO)
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+        XMPPTCPConnectionConfiguration configuration = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("domain")
+                .build();
+        XMPPTCPConnection connection = new XMPPTCPConnection(configuration);
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+        willThrow(XMPPGenericException.class).given(xmppClient).sendMessage(connection, MESSAGE, TO);
+        given(streamRecovery.isRecovering(connection)).willReturn(true);
+
+        // WHEN
+        xmppFacade.sendMessage(message, session);
+        xmppFacade.sendMessage(message, session);
+
+        // THEN
+        then(xmppClient).should(times(2)).sendMessage(connection, MESSAGE, TO);
+        then(xmppClient).should(never()).disconnect(connection);
+        then(webSocketTextMessageHelper).should(never()).send(session, createTextMessage(ERROR, null));
+    }
+
+    @Test
+    void startSessionShouldSendErrorMessageWhenConnectionCannotBeRecovered() throws XmppStringprepException {
+        // GIVEN
+        XMPPTCPConnectionConfiguration configuration = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("domain")
+                .build();
+        XMPPTCPConnection connection = new XMPPTCPConnection(configuration);
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+        ArgumentCaptor<Runnable> onLost = ArgumentCaptor.forClass(Runnable.class);
+        then(streamRecovery).should().enable(eq(connection), onLost.capture());
+
+        // WHEN
+        onLost.getValue().run();
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(session, createTextMessage(ERROR, null));
+        then(sessionHibernation).should().untrack(session);
     }
 
     @Test
@@ -182,7 +636,7 @@ class XMPPFacadeTest {
         String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
         given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
         given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
-        xmppFacade.startSession(session, USERNAME, PASSWORD);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
         willThrow(XMPPGenericException.class).given(xmppClient).sendMessage(connection, MESSAGE, TO);
 
         // WHEN
@@ -190,6 +644,7 @@ class XMPPFacadeTest {
 
         // THEN
         then(webSocketTextMessageHelper).should().send(session, createTextMessage(ERROR, null));
+        then(sessionHibernation).should().untrack(session);
     }
 
     @Test
@@ -208,6 +663,212 @@ class XMPPFacadeTest {
         then(xmppClient).shouldHaveNoInteractions();
     }
 
+    @Test
+    void startSessionShouldReattachParkedConnectionWhenResumeTokenIsValid() {
+        // GIVEN
+        resumeProperties.setEnabled(true);
+        given(xmppClient.isAuthenticated(authenticatedConnection)).willReturn(true);
+        given(resumedSession.isOpen()).willReturn(true);
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, BCrypt.hashpw(PASSWORD, BCrypt.gensalt()))));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(authenticatedConnection));
+        ArgumentCaptor<WebsocketMessage> joined = ArgumentCaptor.forClass(WebsocketMessage.class);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+        then(webSocketTextMessageHelper).should().send(eq(session), joined.capture());
+        String token = joined.getValue().getContent();
+        xmppFacade.disconnect(session);
+
+        // WHEN
+        xmppFacade.startSession(resumedSession, USERNAME, PASSWORD, token).join();
+
+        // THEN
+        then(xmppClient).should(times(1)).connect(USERNAME, PASSWORD);
+        then(xmppClient).should(never()).disconnect(authenticatedConnection);
+        then(webSocketTextMessageHelper).should().send(eq(resumedSession), argThat(message ->
+                message.getMessageType() == JOIN_SUCCESS && message.getContent() != null && !message.getContent().equals(token)));
+    }
+
+    @Test
+    void startSessionShouldNotReattachParkedConnectionWhenPasswordIsWrong() {
+        // GIVEN
+        resumeProperties.setEnabled(true);
+        given(xmppClient.isAuthenticated(authenticatedConnection)).willReturn(true);
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, BCrypt.hashpw(PASSWORD, BCrypt.gensalt()))));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(authenticatedConnection));
+        ArgumentCaptor<WebsocketMessage> joined = ArgumentCaptor.forClass(WebsocketMessage.class);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+        then(webSocketTextMessageHelper).should().send(eq(session), joined.capture());
+        String token = joined.getValue().getContent();
+        xmppFacade.disconnect(session);
+
+        // WHEN
+        xmppFacade.startSession(resumedSession, USERNAME, "WRONG", token).join();
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(resumedSession, createTextMessage(FORBIDDEN, null));
+        then(webSocketTextMessageHelper).should(never()).send(eq(resumedSession), argThat(message -> message.getMessageType() == JOIN_SUCCESS));
+        then(xmppClient).should(never()).disconnect(authenticatedConnection);
+    }
+
+    @Test
+    void startSessionShouldJoinOpenConnectionOfUserAndDeliverToAllSessions() {
+        // GIVEN
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(authenticatedConnection));
+        given(xmppClient.isAuthenticated(authenticatedConnection)).willReturn(true);
+        given(sharingSession.isOpen()).willReturn(true);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+        ArgumentCaptor<Consumer<Message>> incoming = ArgumentCaptor.forClass(Consumer.class);
+        then(xmppClient).should().addIncomingMessageListener(eq(authenticatedConnection), incoming.capture());
+        Message message = StanzaBuilder.buildMessage().setBody(MESSAGE).build();
+
+        // WHEN
+        xmppFacade.startSession(sharingSession, USERNAME, PASSWORD).join();
+        incoming.getValue().accept(message);
+
+        // THEN
+        then(xmppClient).should(times(1)).connect(USERNAME, PASSWORD);
+        then(xmppClient).should(times(1)).addIncomingMessageListener(eq(authenticatedConnection), any());
+        then(webSocketTextMessageHelper).should().send(eq(sharingSession), argThat(joined -> joined.getMessageType() == JOIN_SUCCESS));
+        then(xmppMessageTransmitter).should().sendResponse(message, session);
+        then(xmppMessageTransmitter).should().sendResponse(message, sharingSession);
+    }
+
+    @Test
+    void disconnectShouldKeepConnectionWhileOtherSessionsOfUserShareIt() {
+        // GIVEN
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(authenticatedConnection));
+        given(xmppClient.isAuthenticated(authenticatedConnection)).willReturn(true);
+        given(sharingSession.isOpen()).willReturn(true);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+        xmppFacade.startSession(sharingSession, USERNAME, PASSWORD).join();
+
+        // WHEN
+        xmppFacade.disconnect(session, false);
+
+        // THEN
+        then(xmppClient).should(never()).sendStanza(authenticatedConnection, Presence.Type.unavailable);
+        then(xmppClient).should(never()).disconnect(authenticatedConnection);
+        assertThat(resumableSessions.getSharedConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void hibernateShouldReleaseConnectionOfIdleSession() {
+        // GIVEN
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(authenticatedConnection));
+        given(sessionHibernation.hibernate(List.of(session))).willReturn(true);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+        ArgumentCaptor<Runnable> hibernate = ArgumentCaptor.forClass(Runnable.class);
+        then(sessionHibernation).should().track(eq(session), eq(USERNAME), hibernate.capture(), any());
+
+        // WHEN
+        hibernate.getValue().run();
+
+        // THEN
+        then(xmppClient).should().disconnect(authenticatedConnection);
+        then(xmppClient).should(never()).sendStanza(authenticatedConnection, Presence.Type.unavailable);
+    }
+
+    @Test
+    void sendMessageShouldWakeHibernatedSessionAndSendThroughNewConnection() {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .content(MESSAGE)
+                .to(TO)
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(authenticatedConnection), Optional.of(wokenConnection));
+        given(sessionHibernation.hibernate(List.of(session))).willReturn(true);
+        given(sessionHibernation.wake(session)).willReturn(true);
+        given(sessionHibernation.getReauthenticationTimeout()).willReturn(Duration.ofSeconds(5));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+        ArgumentCaptor<Runnable> hibernate = ArgumentCaptor.forClass(Runnable.class);
+        then(sessionHibernation).should().track(eq(session), eq(USERNAME), hibernate.capture(), any());
+        hibernate.getValue().run();
+
+        // WHEN
+        CompletableFuture<Void> sent = xmppFacade.sendMessage(message, session);
+        xmppFacade.reauthenticate(session, PASSWORD);
+        sent.join();
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(session, createTextMessage(REAUTHENTICATE, USERNAME));
+        then(xmppClient).should().login(wokenConnection, USERNAME, PASSWORD);
+        then(xmppClient).should().sendMessage(wokenConnection, MESSAGE, TO);
+        then(xmppClient).should(never()).sendMessage(authenticatedConnection, MESSAGE, TO);
+        then(webSocketTextMessageHelper).should(times(2)).send(session, createTextMessage(JOIN_SUCCESS, USERNAME));
+        then(sessionHibernation).should(never()).wakeFailed(session);
+    }
+
+    @Test
+    void sendMessageShouldHibernateSessionAgainWhenWakingUpFails() {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .content(MESSAGE)
+                .to(TO)
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(authenticatedConnection), Optional.empty());
+        given(sessionHibernation.hibernate(List.of(session))).willReturn(true);
+        given(sessionHibernation.wake(session)).willReturn(true);
+        given(sessionHibernation.getReauthenticationTimeout()).willReturn(Duration.ofSeconds(5));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+        ArgumentCaptor<Runnable> hibernate = ArgumentCaptor.forClass(Runnable.class);
+        then(sessionHibernation).should().track(eq(session), eq(USERNAME), hibernate.capture(), any());
+        hibernate.getValue().run();
+
+        // WHEN
+        CompletableFuture<Void> failedLogin = xmppFacade.sendMessage(message, session);
+        xmppFacade.reauthenticate(session, PASSWORD);
+        failedLogin.join();
+        CompletableFuture<Void> wrongPassword = xmppFacade.sendMessage(message, session);
+        xmppFacade.reauthenticate(session, "WRONG");
+        wrongPassword.join();
+
+        // THEN
+        then(webSocketTextMessageHelper).should().send(session, createTextMessage(ERROR, null));
+        then(webSocketTextMessageHelper).should().send(session, createTextMessage(FORBIDDEN, null));
+        then(sessionHibernation).should(times(2)).wakeFailed(session);
+        then(xmppClient).should(times(2)).connect(USERNAME, PASSWORD);
+        then(xmppClient).should(never()).sendMessage(any(), any(), any());
+    }
+
+    @Test
+    void sendMessageShouldHibernateSessionAgainWhenClientDoesNotReauthenticate() {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .content(MESSAGE)
+                .to(TO)
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+        String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
+        given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
+        given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(authenticatedConnection));
+        given(sessionHibernation.hibernate(List.of(session))).willReturn(true);
+        given(sessionHibernation.wake(session)).willReturn(true);
+        given(sessionHibernation.getReauthenticationTimeout()).willReturn(Duration.ofMillis(50));
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
+        ArgumentCaptor<Runnable> hibernate = ArgumentCaptor.forClass(Runnable.class);
+        then(sessionHibernation).should().track(eq(session), eq(USERNAME), hibernate.capture(), any());
+        hibernate.getValue().run();
+
+        // WHEN
+        xmppFacade.sendMessage(message, session).join();
+
+        // THEN
+        then(sessionHibernation).should().wakeFailed(session);
+        then(xmppClient).should(times(1)).connect(USERNAME, PASSWORD);
+        then(xmppClient).should(never()).sendMessage(any(), any(), any());
+    }
+
     @Test
     void disconnectShouldSendStanzaAndDisconnect() throws XmppStringprepException {
         // GIVEN
@@ -218,7 +879,7 @@ class XMPPFacadeTest {
         String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
         given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
         given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
-        xmppFacade.startSession(session, USERNAME, PASSWORD);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
 
         // WHEN
         xmppFacade.disconnect(session);
@@ -238,7 +899,7 @@ class XMPPFacadeTest {
         String hashedPassword = BCrypt.hashpw(PASSWORD, BCrypt.gensalt());
         given(accountService.getAccount(USERNAME)).willReturn(Optional.of(new Account(USERNAME, hashedPassword)));
         given(xmppClient.connect(USERNAME, PASSWORD)).willReturn(Optional.of(connection));
-        xmppFacade.startSession(session, USERNAME, PASSWORD);
+        xmppFacade.startSession(session, USERNAME, PASSWORD).join();
         willThrow(XMPPGenericException.class).given(xmppClient).sendStanza(connection, Presence.Type.unavailable);
 
 
@@ -0,0 +1,128 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.session;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.websocket.Session;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class SessionHibernationTest {
+
+    private static final String USERNAME = "user";
+
+    private SessionRegistry sessionRegistry;
+    private SessionMailboxes sessionMailboxes;
+    private HibernationProperties hibernationProperties;
+    private SessionHibernation sessionHibernation;
+
+    @BeforeEach
+    void setUp() {
+        MailboxProperties mailboxProperties = new MailboxProperties();
+        mailboxProperties.setVirtualThreads(false);
+        sessionRegistry = new SessionRegistry();
+        sessionMailboxes = new SessionMailboxes(mailboxProperties, new ChatMetrics(new SimpleMeterRegistry()));
+        hibernationProperties = new HibernationProperties();
+        hibernationProperties.setEnabled(true);
+        hibernationProperties.setIdleTimeout(Duration.ZERO);
+        hibernationProperties.setCheckInterval(Duration.ofMillis(10));
+        sessionHibernation = new SessionHibernation(hibernationProperties, sessionRegistry, sessionMailboxes);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sessionHibernation.destroy();
+        sessionMailboxes.destroy();
+    }
+
+    @Test
+    void idleSessionShouldHibernateAndCountOneWakeUpPerHibernation() throws InterruptedException {
+        // GIVEN
+        Session session = openSession();
+        CountDownLatch hibernated = new CountDownLatch(1);
+        sessionHibernation.track(session, USERNAME, () -> {
+            if (sessionHibernation.hibernate(session)) {
+                hibernated.countDown();
+            }
+        }, () -> null);
+
+        // WHEN
+        boolean idle = hibernated.await(5, TimeUnit.SECONDS);
+
+        // THEN
+        assertThat(idle).isTrue();
+        assertThat(sessionHibernation.isHibernated(session)).isTrue();
+        assertThat(sessionHibernation.getHibernatedSessions()).isEqualTo(1);
+        assertThat(sessionHibernation.wake(session)).isTrue();
+        assertThat(sessionHibernation.wake(session)).isTrue();
+        assertThat(sessionHibernation.getHibernatedSessions()).isZero();
+        assertThat(sessionHibernation.getWakeUps()).isEqualTo(1);
+    }
+
+    @Test
+    void wakeFailedShouldHibernateSessionAgain() {
+        // GIVEN
+        hibernationProperties.setCheckInterval(Duration.ofHours(1));
+        sessionHibernation.destroy();
+        sessionHibernation = new SessionHibernation(hibernationProperties, sessionRegistry, sessionMailboxes);
+        Session session = openSession();
+        sessionHibernation.track(session, USERNAME, () -> {}, () -> null);
+        sessionHibernation.hibernate(session);
+        sessionHibernation.wake(session);
+
+        // WHEN
+        sessionHibernation.wakeFailed(session);
+
+        // THEN
+        assertThat(sessionHibernation.isHibernated(session)).isTrue();
+        assertThat(sessionHibernation.getHibernatedSessions()).isEqualTo(1);
+    }
+
+    @Test
+    void wakeUserShouldWakeOnlyHibernatedSessionsOfTheUser() throws InterruptedException {
+        // GIVEN
+        hibernationProperties.setCheckInterval(Duration.ofHours(1));
+        sessionHibernation.destroy();
+        sessionHibernation = new SessionHibernation(hibernationProperties, sessionRegistry, sessionMailboxes);
+        Session hibernatedSession = openSession();
+        Session activeSession = openSession();
+        sessionRegistry.register(hibernatedSession, USERNAME, mock(AbstractXMPPConnection.class));
+        sessionRegistry.register(activeSession, USERNAME, mock(AbstractXMPPConnection.class));
+        CountDownLatch woken = new CountDownLatch(1);
+        CountDownLatch wrongSessionWoken = new CountDownLatch(1);
+        sessionHibernation.track(hibernatedSession, USERNAME, () -> {}, () -> {
+            woken.countDown();
+            return null;
+        });
+        sessionHibernation.track(activeSession, USERNAME, () -> {}, () -> {
+            wrongSessionWoken.countDown();
+            return null;
+        });
+        sessionHibernation.hibernate(hibernatedSession);
+        sessionRegistry.hibernate(hibernatedSession);
+
+        // WHEN
+        sessionHibernation.wakeUser(USERNAME);
+
+        // THEN
+        assertThat(woken.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(wrongSessionWoken.await(100, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(sessionRegistry.getSession(hibernatedSession).orElseThrow().isHibernated()).isTrue();
+        assertThat(sessionRegistry.getBoundConnections()).isEqualTo(1);
+    }
+
+    private static Session openSession() {
+        Session session = mock(Session.class);
+        given(session.isOpen()).willReturn(true);
+        return session;
+    }
+}
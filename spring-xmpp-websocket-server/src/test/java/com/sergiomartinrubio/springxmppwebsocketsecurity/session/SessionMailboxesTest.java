@@ -0,0 +1,151 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.session;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.websocket.Session;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class SessionMailboxesTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SessionMailboxes sessionMailboxes;
+
+    @BeforeEach
+    void setUp() {
+        MailboxProperties mailboxProperties = new MailboxProperties();
+        mailboxProperties.setCapacity(2);
+        mailboxProperties.setBatchSize(4);
+        mailboxProperties.setThreads(4);
+        mailboxProperties.setVirtualThreads(false);
+        meterRegistry = new SimpleMeterRegistry();
+        sessionMailboxes = new SessionMailboxes(mailboxProperties, new ChatMetrics(meterRegistry));
+    }
+
+    @AfterEach
+    void tearDown() {
+        sessionMailboxes.destroy();
+    }
+
+    @Test
+    void submitShouldRunOperationsOfOneSessionInOrder() throws InterruptedException {
+        // GIVEN
+        Session session = openSession();
+        List<Integer> completed = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(100);
+
+        // WHEN
+        for (int i = 0; i < 100; i++) {
+            int operation = i;
+            while (sessionMailboxes.getDepth(session) == 2) {
+                Thread.onSpinWait();
+            }
+            sessionMailboxes.submit(session, () -> {
+                completed.add(operation);
+                done.countDown();
+            });
+        }
+
+        // THEN
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(completed).isEqualTo(IntStream.range(0, 100).boxed().collect(Collectors.toList()));
+    }
+
+    @Test
+    void submitAsyncShouldHoldFollowingOperationsUntilStageCompletes() throws InterruptedException {
+        // GIVEN
+        Session session = openSession();
+        CompletableFuture<Void> login = new CompletableFuture<>();
+        CountDownLatch next = new CountDownLatch(1);
+        sessionMailboxes.submitAsync(session, () -> login);
+        sessionMailboxes.submit(session, next::countDown);
+        assertThat(next.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+        // WHEN
+        login.complete(null);
+
+        // THEN
+        assertThat(next.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void submitShouldRefuseOperationsOverCapacityWithoutBlockingOtherSessions() throws InterruptedException {
+        // GIVEN
+        Session busySession = openSession();
+        Session otherSession = openSession();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        sessionMailboxes.submit(busySession, () -> {
+            running.countDown();
+            awaitQuietly(release);
+        });
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // WHEN
+        sessionMailboxes.submit(busySession, () -> {});
+        sessionMailboxes.submit(busySession, () -> {});
+        boolean accepted = sessionMailboxes.submit(busySession, () -> {});
+        CountDownLatch otherDone = new CountDownLatch(1);
+        sessionMailboxes.submit(otherSession, otherDone::countDown);
+
+        // THEN
+        assertThat(accepted).isFalse();
+        assertThat(otherDone.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(sessionMailboxes.getDepth(busySession)).isEqualTo(2);
+        assertThat(meterRegistry.get("chat.errors").tag("path", "mailbox_full").counter().count()).isEqualTo(1);
+        release.countDown();
+    }
+
+    @Test
+    void submitShouldNotRecreateMailboxOfReleasedSession() throws InterruptedException {
+        // GIVEN
+        Session session = openSession();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        sessionMailboxes.submit(session, () -> {
+            running.countDown();
+            awaitQuietly(release);
+        });
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+        given(session.isOpen()).willReturn(false);
+        sessionMailboxes.release(session);
+        List<Integer> completed = new CopyOnWriteArrayList<>();
+
+        // WHEN
+        boolean accepted = sessionMailboxes.submit(session, () -> completed.add(1));
+        release.countDown();
+
+        // THEN
+        assertThat(accepted).isTrue();
+        assertThat(sessionMailboxes.getDepth(session)).isZero();
+        assertThat(sessionMailboxes.getTotalDepth()).isZero();
+        assertThat(completed).isEmpty();
+    }
+
+    private static Session openSession() {
+        Session session = mock(Session.class);
+        given(session.isOpen()).willReturn(true);
+        return session;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.session;
+
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+import javax.websocket.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class SessionRegistryTest {
+
+    private static final String USERNAME = "user";
+
+    private SessionRegistry sessionRegistry;
+    private XMPPTCPConnection connection;
+
+    @BeforeEach
+    void setUp() throws XmppStringprepException {
+        sessionRegistry = new SessionRegistry();
+        XMPPTCPConnectionConfiguration configuration = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("domain")
+                .build();
+        connection = new XMPPTCPConnection(configuration);
+    }
+
+    @Test
+    void registerShouldIndexSessionByUsername() {
+        // GIVEN
+        Session session = mock(Session.class);
+
+        // WHEN
+        sessionRegistry.register(session, USERNAME, connection);
+
+        // THEN
+        assertThat(sessionRegistry.getConnection(session)).contains(connection);
+        assertThat(sessionRegistry.getSessionsByUsername(USERNAME)).containsExactly(session);
+        assertThat(sessionRegistry.getActiveSessions()).isEqualTo(1);
+        assertThat(sessionRegistry.getConnectedUsers()).isEqualTo(1);
+    }
+
+    @Test
+    void registerShouldBindSessionsSharingConnection() {
+        // GIVEN
+        Session session = mock(Session.class);
+        Session sharingSession = mock(Session.class);
+        sessionRegistry.register(session, USERNAME, connection);
+        sessionRegistry.register(sharingSession, USERNAME, connection);
+
+        // WHEN
+        sessionRegistry.remove(session);
+
+        // THEN
+        assertThat(sessionRegistry.getSessionsByConnection(connection)).containsExactly(sharingSession);
+        assertThat(sessionRegistry.getBoundConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void removeShouldReturnConnectionOnlyOnce() {
+        // GIVEN
+        Session session = mock(Session.class);
+        sessionRegistry.register(session, USERNAME, connection);
+
+        // WHEN
+        sessionRegistry.remove(session);
+
+        // THEN
+        assertThat(sessionRegistry.remove(session)).isEmpty();
+        assertThat(sessionRegistry.getConnection(session)).isEmpty();
+        assertThat(sessionRegistry.getSessionsByUsername(USERNAME)).isEmpty();
+        assertThat(sessionRegistry.getActiveSessions()).isZero();
+        assertThat(sessionRegistry.getConnectedUsers()).isZero();
+        assertThat(sessionRegistry.getRemovedSessions()).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentRegisterAndRemoveShouldKeepCountersConsistent() throws Exception {
+        // GIVEN
+        int threads = 8;
+        int sessionsPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // WHEN
+        for (int i = 0; i < threads; i++) {
+            String username = USERNAME + (i % 2);
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < sessionsPerThread; j++) {
+                    Session session = mock(Session.class);
+                    sessionRegistry.register(session, username, connection);
+                    if (j % 2 == 0) {
+                        sessionRegistry.remove(session);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // THEN
+        int expected = threads * sessionsPerThread / 2;
+        assertThat(sessionRegistry.getActiveSessions()).isEqualTo(expected);
+        assertThat(sessionRegistry.getSessionsByUsername(USERNAME + 0).size()
+                + sessionRegistry.getSessionsByUsername(USERNAME + 1).size()).isEqualTo(expected);
+        assertThat(sessionRegistry.getRegisteredSessions()).isEqualTo((long) threads * sessionsPerThread);
+    }
+
+    @Test
+    void removeRacingWithRegisterShouldNotLeaveSessionIndexed() throws Exception {
+        // GIVEN
+        Session session = mock(Session.class);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicBoolean armed = new AtomicBoolean();
+        XMPPTCPConnection racingConnection = new XMPPTCPConnection(XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("domain")
+                .build()) {
+            @Override
+            public int hashCode() {
+                // The connection is hashed while register indexes the session, remove it right then.
+                if (armed.compareAndSet(true, false)) {
+                    Future<?> removing = executor.submit(() -> sessionRegistry.remove(session));
+                    try {
+                        removing.get(200, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        // Blocked until register completes.
+                    } catch (InterruptedException | ExecutionException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return super.hashCode();
+            }
+        };
+
+        armed.set(true);
+
+        // WHEN
+        sessionRegistry.register(session, USERNAME, racingConnection);
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+
+        // THEN
+        assertThat(sessionRegistry.getSession(session)).isEmpty();
+        assertThat(sessionRegistry.getActiveSessions()).isZero();
+        assertThat(sessionRegistry.getSessionsByUsername(USERNAME)).isEmpty();
+        assertThat(sessionRegistry.getSessionsByConnection(racingConnection)).isEmpty();
+        assertThat(sessionRegistry.getBoundConnections()).isZero();
+    }
+}
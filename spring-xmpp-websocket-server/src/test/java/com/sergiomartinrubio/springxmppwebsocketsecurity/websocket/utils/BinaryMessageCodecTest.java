@@ -0,0 +1,57 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryMessageCodecTest {
+
+    @Test
+    void decodeShouldReadWhatEncodeWrites() throws IOException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .from("sergio")
+                .to("jose")
+                .content("h\u00e9llo ".repeat(100))
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+
+        // WHEN
+        WebsocketMessage decoded = BinaryMessageCodec.decode(BinaryMessageCodec.encode(message));
+
+        // THEN
+        assertThat(decoded).isEqualTo(message);
+    }
+
+    @Test
+    void encodeShouldOnlyWriteHeaderWhenFieldsAreMissing() throws IOException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .messageType(MessageType.JOIN_SUCCESS)
+                .build();
+
+        // WHEN
+        ByteBuffer encoded = BinaryMessageCodec.encode(message);
+
+        // THEN
+        assertThat(encoded.remaining()).isEqualTo(3);
+        assertThat(BinaryMessageCodec.decode(encoded)).isEqualTo(message);
+    }
+
+    @Test
+    void decodeShouldFailOnTruncatedMessage() {
+        // GIVEN
+        ByteBuffer encoded = BinaryMessageCodec.encode(WebsocketMessage.builder().to("jose").build());
+        encoded.limit(encoded.limit() - 1);
+
+        // WHEN / THEN
+        assertThatThrownBy(() -> BinaryMessageCodec.decode(encoded))
+                .isInstanceOf(IOException.class);
+    }
+}
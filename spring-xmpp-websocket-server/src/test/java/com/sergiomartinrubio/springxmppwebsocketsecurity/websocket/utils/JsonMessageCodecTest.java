@@ -0,0 +1,120 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
+
+import com.google.gson.Gson;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JsonMessageCodecTest {
+
+    private final Gson gson = new Gson();
+
+    @Test
+    void encodeShouldProduceSameJsonAsGson() {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .from("sergio")
+                .to("jose")
+                .content("<b>\"quoted\" & 'single' \\ tab\t line\n unicode \u00f1 \u2028 \u0001</b>")
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+
+        // WHEN
+        String json = JsonMessageCodec.encode(message);
+
+        // THEN
+        assertThat(json).isEqualTo(gson.toJson(message));
+    }
+
+    @Test
+    void encodeShouldOmitNullFields() {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .messageType(MessageType.JOIN_SUCCESS)
+                .build();
+
+        // WHEN
+        String json = JsonMessageCodec.encode(message);
+
+        // THEN
+        assertThat(json).isEqualTo("{\"messageType\":\"JOIN_SUCCESS\"}");
+    }
+
+    @Test
+    void decodeShouldReadWhatGsonWrites() throws IOException {
+        // GIVEN
+        WebsocketMessage message = WebsocketMessage.builder()
+                .from("sergio")
+                .to("jose")
+                .content("hello \"world\" \u00f1")
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+
+        // WHEN
+        WebsocketMessage decoded = JsonMessageCodec.decode(gson.toJson(message));
+
+        // THEN
+        assertThat(decoded).isEqualTo(message);
+    }
+
+    @Test
+    void decodeShouldIgnoreUnknownFieldsAndUnknownMessageTypes() throws IOException {
+        // WHEN
+        WebsocketMessage decoded = JsonMessageCodec.decode(
+                "{ \"to\": \"jose\", \"extra\": {\"a\": [1, 2]}, \"content\": null, \"messageType\": \"UNKNOWN\" }");
+
+        // THEN
+        assertThat(decoded).isEqualTo(WebsocketMessage.builder().to("jose").build());
+    }
+
+    @Test
+    void decodeShouldUnescapeStringsAndFieldNames() throws IOException {
+        // WHEN
+        WebsocketMessage decoded = JsonMessageCodec.decode(
+                "{\"\\u0063ontent\": \"a\\\"b\\\\c\\n\\u00f1\", \"messageType\": \"NEW_MESSAGE\"}");
+
+        // THEN
+        assertThat(decoded).isEqualTo(WebsocketMessage.builder()
+                .content("a\"b\\c\n\u00f1")
+                .messageType(MessageType.NEW_MESSAGE)
+                .build());
+    }
+
+    @Test
+    void decodeShouldCoerceScalarsOfKnownFieldsToStringsLikeGson() throws IOException {
+        // GIVEN
+        String json = "{\"from\": null, \"to\": 42, \"content\": true, \"messageType\": \"NEW_MESSAGE\"}";
+
+        // WHEN
+        WebsocketMessage decoded = JsonMessageCodec.decode(json);
+
+        // THEN
+        assertThat(decoded).isEqualTo(WebsocketMessage.builder()
+                .to("42")
+                .content("true")
+                .messageType(MessageType.NEW_MESSAGE)
+                .build());
+        assertThat(decoded).isEqualTo(gson.fromJson(json, WebsocketMessage.class));
+    }
+
+    @Test
+    void decodeShouldFailWhenKnownFieldIsObjectOrArray() {
+        // WHEN / THEN
+        assertThatThrownBy(() -> JsonMessageCodec.decode("{\"content\": {\"text\": \"hello\"}}"))
+                .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> JsonMessageCodec.decode("{\"to\": [\"jose\"]}"))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void decodeShouldFailOnMalformedJson() {
+        // WHEN / THEN
+        assertThatThrownBy(() -> JsonMessageCodec.decode("{\"to\": \"jose\""))
+                .isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,149 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.websocket.utils;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.metrics.ChatMetrics;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.MessageType;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.model.WebsocketMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.times;
+
+@ExtendWith(MockitoExtension.class)
+class WebSocketTextMessageHelperTest {
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private RemoteEndpoint.Async asyncRemote;
+
+    private OutboundProperties outboundProperties;
+
+    private WebSocketTextMessageHelper webSocketTextMessageHelper;
+
+    @BeforeEach
+    void setUp() {
+        outboundProperties = new OutboundProperties();
+        outboundProperties.setCapacity(2);
+        webSocketTextMessageHelper = new WebSocketTextMessageHelper(outboundProperties, new ChatMetrics(new SimpleMeterRegistry()));
+        given(session.isOpen()).willReturn(true);
+    }
+
+    @Test
+    void sendShouldWriteOneMessageAtATimeInOrder() {
+        // GIVEN
+        given(session.getAsyncRemote()).willReturn(asyncRemote);
+        ArgumentCaptor<SendHandler> handler = ArgumentCaptor.forClass(SendHandler.class);
+
+        // WHEN
+        webSocketTextMessageHelper.send(session, createMessage("1"));
+        webSocketTextMessageHelper.send(session, createMessage("2"));
+
+        // THEN
+        then(asyncRemote).should().sendObject(eq(createMessage("1")), handler.capture());
+        then(asyncRemote).shouldHaveNoMoreInteractions();
+        assertThat(webSocketTextMessageHelper.getQueueDepth(session)).isEqualTo(1);
+
+        handler.getValue().onResult(new SendResult());
+        then(asyncRemote).should().sendObject(eq(createMessage("2")), any(SendHandler.class));
+        assertThat(webSocketTextMessageHelper.getQueueDepth(session)).isZero();
+    }
+
+    @Test
+    void sendShouldDropOldestMessageWhenQueueIsFull() {
+        // GIVEN
+        given(session.getAsyncRemote()).willReturn(asyncRemote);
+        ArgumentCaptor<SendHandler> handler = ArgumentCaptor.forClass(SendHandler.class);
+
+        // WHEN
+        webSocketTextMessageHelper.send(session, createMessage("1"));
+        webSocketTextMessageHelper.send(session, createMessage("2"));
+        webSocketTextMessageHelper.send(session, createMessage("3"));
+        webSocketTextMessageHelper.send(session, createMessage("4"));
+
+        // THEN
+        assertThat(webSocketTextMessageHelper.getQueueDepth(session)).isEqualTo(2);
+        assertThat(webSocketTextMessageHelper.getDroppedMessages(session)).isEqualTo(1);
+
+        then(asyncRemote).should().sendObject(eq(createMessage("1")), handler.capture());
+        handler.getValue().onResult(new SendResult());
+        then(asyncRemote).should().sendObject(eq(createMessage("3")), any(SendHandler.class));
+    }
+
+    @Test
+    void sendShouldCloseSessionWhenQueueIsFullAndPolicyIsDisconnect() throws Exception {
+        // GIVEN
+        outboundProperties.setOverflowPolicy(OutboundProperties.OverflowPolicy.DISCONNECT);
+        given(session.getAsyncRemote()).willReturn(asyncRemote);
+
+        // WHEN
+        webSocketTextMessageHelper.send(session, createMessage("1"));
+        webSocketTextMessageHelper.send(session, createMessage("2"));
+        webSocketTextMessageHelper.send(session, createMessage("3"));
+        webSocketTextMessageHelper.send(session, createMessage("4"));
+
+        // THEN
+        then(session).should().close(any(CloseReason.class));
+        then(asyncRemote).should(times(1)).sendObject(any(), any(SendHandler.class));
+        assertThat(webSocketTextMessageHelper.getQueueDepth(session)).isZero();
+    }
+
+    @Test
+    void sendShouldDropNewMessageWhenQueueStaysFullAndPolicyIsBlock() {
+        // GIVEN
+        outboundProperties.setOverflowPolicy(OutboundProperties.OverflowPolicy.BLOCK);
+        given(session.getAsyncRemote()).willReturn(asyncRemote);
+
+        // WHEN
+        webSocketTextMessageHelper.send(session, createMessage("1"));
+        webSocketTextMessageHelper.send(session, createMessage("2"));
+        webSocketTextMessageHelper.send(session, createMessage("3"));
+        webSocketTextMessageHelper.send(session, createMessage("4"));
+
+        // THEN
+        assertThat(webSocketTextMessageHelper.getQueueDepth(session)).isEqualTo(2);
+        assertThat(webSocketTextMessageHelper.getDroppedMessages(session)).isEqualTo(1);
+    }
+
+    @Test
+    void sendShouldNotRecreateQueueOfReleasedSession() {
+        // GIVEN
+        given(session.isOpen()).willReturn(true, false);
+        given(session.getAsyncRemote()).willReturn(asyncRemote);
+        webSocketTextMessageHelper.send(session, createMessage("1"));
+        webSocketTextMessageHelper.send(session, createMessage("2"));
+        webSocketTextMessageHelper.release(session);
+
+        // WHEN
+        webSocketTextMessageHelper.send(session, createMessage("3"));
+
+        // THEN
+        then(asyncRemote).should().sendObject(eq(createMessage("1")), any(SendHandler.class));
+        then(asyncRemote).shouldHaveNoMoreInteractions();
+        assertThat(webSocketTextMessageHelper.getQueueDepth(session)).isZero();
+        assertThat(webSocketTextMessageHelper.getTotalQueueDepth()).isZero();
+    }
+
+    private WebsocketMessage createMessage(String content) {
+        return WebsocketMessage.builder()
+                .content(content)
+                .messageType(MessageType.NEW_MESSAGE)
+                .build();
+    }
+}
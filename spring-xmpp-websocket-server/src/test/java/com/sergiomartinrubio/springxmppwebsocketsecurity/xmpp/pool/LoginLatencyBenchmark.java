@@ -0,0 +1,92 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.pool;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.StreamManagementProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.StreamRecovery;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.gateway.GatewayProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.transport.TcpConnectionFactory;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smackx.iqregister.AccountManager;
+import org.jxmpp.jid.parts.Localpart;
+
+import java.util.Arrays;
+
+/**
+ * Measures the XMPP leg of a login, from taking a connection to being authenticated, with the pool
+ * disabled and enabled. It leaves out the account lookup, password verification, admission queue and
+ * listener setup that also come before JOIN_SUCCESS, so it shows what the pool saves on that leg
+ * rather than the whole wait of a client; {@code ChatLoadTest} covers logins up to JOIN_SUCCESS.
+ * Logins are paced at a fixed rate against a running XMPP server, accounts are registered in-band
+ * first. Run with {@code java -cp <test classpath> ...LoginLatencyBenchmark <logins> <logins/s> <host> <port> <domain>}.
+ */
+public class LoginLatencyBenchmark {
+
+    private static final String PASSWORD = "benchmark";
+
+    public static void main(String[] args) throws Exception {
+        int logins = Integer.parseInt(args[0]);
+        int loginsPerSecond = Integer.parseInt(args[1]);
+        XMPPProperties xmppProperties = new XMPPProperties();
+        xmppProperties.setHost(args[2]);
+        xmppProperties.setPort(Integer.parseInt(args[3]));
+        xmppProperties.setDomain(args[4]);
+        TcpConnectionFactory factory = new TcpConnectionFactory(xmppProperties, new StreamRecovery(new StreamManagementProperties()));
+
+        register(factory, logins);
+
+        ConnectionPoolProperties disabled = new ConnectionPoolProperties();
+        disabled.setEnabled(false);
+        run("without pool", new XMPPConnectionPool(disabled, new GatewayProperties(), factory), logins, loginsPerSecond);
+
+        XMPPConnectionPool pool = new XMPPConnectionPool(new ConnectionPoolProperties(), new GatewayProperties(), factory);
+        pool.afterPropertiesSet();
+        Thread.sleep(3000);
+        run("with pool", pool, logins, loginsPerSecond);
+        System.out.printf("pool hit rate %.2f%n", pool.getHitRate());
+        pool.destroy();
+        System.exit(0);
+    }
+
+    private static void run(String name, XMPPConnectionPool pool, int logins, int loginsPerSecond) throws Exception {
+        long[] latencies = new long[logins];
+        long pause = 1_000_000_000L / loginsPerSecond;
+        for (int i = 0; i < logins; i++) {
+            long next = System.nanoTime() + pause;
+            long start = System.nanoTime();
+            AbstractXMPPConnection connection = pool.poll().orElse(null);
+            if (connection == null) {
+                connection = pool.connect();
+            }
+            connection.login(username(i), PASSWORD);
+            latencies[i] = System.nanoTime() - start;
+            connection.disconnect();
+            Thread.sleep(Math.max(0, (next - System.nanoTime()) / 1_000_000));
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("%-14s p50 %6.1f ms  p99 %6.1f ms%n",
+                name,
+                latencies[logins / 2] / 1_000_000d,
+                latencies[Math.min(logins - 1, (int) Math.ceil(logins * 0.99) - 1)] / 1_000_000d);
+    }
+
+    private static void register(TcpConnectionFactory factory, int logins) throws Exception {
+        AbstractXMPPConnection connection = factory.createConnection();
+        connection.connect();
+        AccountManager accountManager = AccountManager.getInstance(connection);
+        accountManager.sensitiveOperationOverInsecureConnection(true);
+        for (int i = 0; i < logins; i++) {
+            try {
+                accountManager.createAccount(Localpart.from(username(i)), PASSWORD);
+            } catch (XMPPException.XMPPErrorException e) {
+                // already registered by a previous run
+            }
+        }
+        connection.disconnect();
+    }
+
+    private static String username(int i) {
+        return "benchmark-" + i;
+    }
+}
@@ -0,0 +1,102 @@
+package com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.transport;
+
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.StreamManagementProperties;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.StreamRecovery;
+import com.sergiomartinrubio.springxmppwebsocketsecurity.xmpp.XMPPProperties;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smackx.iqregister.AccountManager;
+import org.jxmpp.jid.parts.Localpart;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Logs in {@code users} accounts against a running XMPP server with one transport and reports the
+ * threads and resident memory added per 1k connected users. Accounts are registered in-band on the
+ * first run. Run once per transport so each measurement gets a fresh JVM:
+ * {@code java -cp <test classpath> ...ConnectionLoadTest <tcp|nio> <users> <host> <port> <domain>}.
+ */
+public class ConnectionLoadTest {
+
+    private static final String PASSWORD = "load-test";
+    private static final int CONNECTING_THREADS = 32;
+
+    public static void main(String[] args) throws Exception {
+        XMPPProperties xmppProperties = new XMPPProperties();
+        xmppProperties.setTransport(XMPPProperties.Transport.valueOf(args[0].toUpperCase()));
+        int users = Integer.parseInt(args[1]);
+        xmppProperties.setHost(args[2]);
+        xmppProperties.setPort(Integer.parseInt(args[3]));
+        xmppProperties.setDomain(args[4]);
+
+        XMPPConnectionFactory factory = xmppProperties.getTransport() == XMPPProperties.Transport.NIO
+                ? new NioConnectionFactory(xmppProperties)
+                : new TcpConnectionFactory(xmppProperties, new StreamRecovery(new StreamManagementProperties()));
+
+        System.gc();
+        int baselineThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long baselineRss = readRssKilobytes();
+
+        List<AbstractXMPPConnection> connections = new ArrayList<>();
+        ExecutorService connecting = Executors.newFixedThreadPool(CONNECTING_THREADS);
+        List<Future<AbstractXMPPConnection>> pending = new ArrayList<>();
+        try {
+            for (int i = 0; i < users; i++) {
+                String username = "load-" + i;
+                pending.add(connecting.submit(() -> connect(factory, username)));
+            }
+            for (Future<AbstractXMPPConnection> connection : pending) {
+                connections.add(connection.get());
+            }
+        } finally {
+            connecting.shutdownNow();
+        }
+
+        System.gc();
+        Thread.sleep(1000);
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount() - baselineThreads;
+        long rss = readRssKilobytes() - baselineRss;
+
+        System.out.printf("%-4s %,6d users %,8.0f threads/1k users %,10.0f KB RSS/1k users%n",
+                xmppProperties.getTransport(),
+                users,
+                threads * 1000d / users,
+                rss * 1000d / users);
+
+        connections.forEach(AbstractXMPPConnection::disconnect);
+        System.exit(0);
+    }
+
+    private static AbstractXMPPConnection connect(XMPPConnectionFactory factory, String username) throws Exception {
+        AbstractXMPPConnection connection = factory.createConnection();
+        connection.connect();
+
+        AccountManager accountManager = AccountManager.getInstance(connection);
+        accountManager.sensitiveOperationOverInsecureConnection(true);
+        try {
+            accountManager.createAccount(Localpart.from(username), PASSWORD);
+        } catch (XMPPException.XMPPErrorException e) {
+            // already registered by a previous run
+        }
+
+        connection.login(username, PASSWORD);
+        return connection;
+    }
+
+    private static long readRssKilobytes() throws IOException {
+        return Files.readAllLines(Path.of("/proc/self/status")).stream()
+                .filter(line -> line.startsWith("VmRSS:"))
+                .map(line -> line.replaceAll("\\D", ""))
+                .mapToLong(Long::parseLong)
+                .findFirst()
+                .orElse(0);
+    }
+}
@@ -0,0 +1,117 @@
+// Compact binary encoding negotiated through the "chat.binary.v1" WebSocket subprotocol.
+// Must stay in sync with BinaryMessageCodec on the server.
+export const BINARY_SUBPROTOCOL = "chat.binary.v1";
+
+const VERSION = 1;
+const FROM = 1;
+const TO = 1 << 1;
+const CONTENT = 1 << 2;
+
+// Same order as the server's MessageType enum.
+const MESSAGE_TYPES = [
+  "NEW_MESSAGE",
+  "JOIN_SUCCESS",
+  "LEAVE",
+  "ERROR",
+  "FORBIDDEN",
+  "ADD_CONTACT",
+  "GET_CONTACTS",
+  "GET_HISTORY",
+  "ROSTER_DELTA",
+  "PRESENCE",
+  "MULTI_MESSAGE",
+  "BROADCAST_MESSAGE",
+  "SEND_STATUS",
+  "RETRY_AFTER",
+  "THROTTLED",
+  "REAUTHENTICATE",
+  "UNSUPPORTED",
+];
+
+const textEncoder = new TextEncoder();
+const textDecoder = new TextDecoder();
+
+const varintSize = (value) => {
+  let size = 1;
+  while (value > 0x7f) {
+    value >>>= 7;
+    size++;
+  }
+  return size;
+};
+
+export const encodeBinary = (message) => {
+  const fields = [message.from, message.to, message.content].map((value) =>
+    value === undefined || value === null ? null : textEncoder.encode(value)
+  );
+  const size = fields.reduce(
+    (total, bytes) =>
+      bytes === null ? total : total + varintSize(bytes.length) + bytes.length,
+    3
+  );
+
+  const buffer = new Uint8Array(size);
+  let position = 0;
+  buffer[position++] = VERSION;
+  buffer[position++] = MESSAGE_TYPES.indexOf(message.messageType) + 1;
+  buffer[position++] =
+    (fields[0] === null ? 0 : FROM) |
+    (fields[1] === null ? 0 : TO) |
+    (fields[2] === null ? 0 : CONTENT);
+
+  fields.forEach((bytes) => {
+    if (bytes === null) {
+      return;
+    }
+    let length = bytes.length;
+    while (length > 0x7f) {
+      buffer[position++] = (length & 0x7f) | 0x80;
+      length >>>= 7;
+    }
+    buffer[position++] = length;
+    buffer.set(bytes, position);
+    position += bytes.length;
+  });
+
+  return buffer.buffer;
+};
+
+export const decodeBinary = (data) => {
+  const bytes = new Uint8Array(data);
+  let position = 0;
+
+  if (bytes[position++] !== VERSION) {
+    throw new Error("Unsupported binary message version");
+  }
+  const messageType = bytes[position++];
+  const flags = bytes[position++];
+
+  const readField = () => {
+    let length = 0;
+    let shift = 0;
+    let b;
+    do {
+      b = bytes[position++];
+      length |= (b & 0x7f) << shift;
+      shift += 7;
+    } while (b & 0x80);
+    const value = textDecoder.decode(bytes.subarray(position, position + length));
+    position += length;
+    return value;
+  };
+
+  const message = {};
+  if (flags & FROM) {
+    message.from = readField();
+  }
+  if (flags & TO) {
+    message.to = readField();
+  }
+  if (flags & CONTENT) {
+    message.content = readField();
+  }
+  if (messageType > 0) {
+    message.messageType = MESSAGE_TYPES[messageType - 1];
+  }
+  return message;
+};
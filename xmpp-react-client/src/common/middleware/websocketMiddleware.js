@@ -1,11 +1,76 @@
 import { history } from "../../app/browserhistory";
 import { disableAlert, enableAlert } from "../../features/alert/alertSlice";
-import { add } from "../../features/contacts/contactsSlice";
-import { addMessage } from "../../features/messages/messagesSlice";
-import { login, logout } from "../../features/user/userSlice";
+import {
+  add,
+  applyDelta,
+  updatePresence,
+} from "../../features/contacts/contactsSlice";
+import {
+  addHistory,
+  addMessage,
+  clearMessages,
+} from "../../features/messages/messagesSlice";
+import {
+  login,
+  logout,
+  selectLoggedIn,
+  selectUsername,
+} from "../../features/user/userSlice";
+import {
+  BINARY_SUBPROTOCOL,
+  decodeBinary,
+  encodeBinary,
+} from "./binaryCodec";
+import { wsConnect } from "./websocketActions";
+
+// Set REACT_APP_WIRE_FORMAT=binary to ask the server for the compact binary protocol.
+// The server falls back to JSON when it does not accept the subprotocol.
+const useBinary = process.env.REACT_APP_WIRE_FORMAT === "binary";
+
+// The server answers JOIN_SUCCESS with a resume token. Presenting it on the next connection
+// (page reload, network blip) reattaches the XMPP session without logging in again.
+const RESUME_TOKEN_KEY = "resumeToken";
+
+const loadResumeToken = (username) => {
+  const stored = JSON.parse(sessionStorage.getItem(RESUME_TOKEN_KEY));
+  return stored && stored.username === username ? stored.token : null;
+};
+
+const saveResumeToken = (username, token) => {
+  if (token) {
+    sessionStorage.setItem(RESUME_TOKEN_KEY, JSON.stringify({ username, token }));
+  } else {
+    sessionStorage.removeItem(RESUME_TOKEN_KEY);
+  }
+};
+
+// When the server is busy it answers RETRY_AFTER with a delay in milliseconds. Waiting a random
+// extra of up to the same delay spreads the reconnections of every client that was turned away
+// at the same time, instead of sending them back together.
+const retryDelay = (retryAfter) => retryAfter + Math.random() * retryAfter;
 
 const websocketMiddleware = () => {
   let socket = null;
+  let credentials = null;
+  let retryTimer = null;
+
+  const cancelRetry = () => {
+    if (retryTimer !== null) {
+      clearTimeout(retryTimer);
+      retryTimer = null;
+    }
+  };
+
+  const send = (message) => {
+    if (socket.protocol === BINARY_SUBPROTOCOL) {
+      socket.send(encodeBinary(message));
+    } else {
+      socket.send(JSON.stringify(message));
+    }
+  };
+
+  const decode = (data) =>
+    typeof data === "string" ? JSON.parse(data) : decodeBinary(data);
 
   const onOpen = (store) => (event) => {
     // store.dispatch(actions.wsConnected(event.target.url));
@@ -17,9 +82,13 @@ const websocketMiddleware = () => {
   };
 
   const onMessage = (store) => (event) => {
-    const payload = JSON.parse(event.data);
+    const payload = decode(event.data);
     switch (payload.messageType) {
       case "JOIN_SUCCESS":
+        saveResumeToken(payload.to, payload.content);
+        // A session that hibernated while idle logs in again on the next action; stay on the
+        // current page and only refresh the contacts.
+        const wokenUp = selectLoggedIn(store.getState());
         store.dispatch(
           login({
             username: payload.to,
@@ -29,13 +98,15 @@ const websocketMiddleware = () => {
 
         store.dispatch(disableAlert());
 
-        history.push("/home");
+        if (!wokenUp) {
+          history.push("/home");
+        }
 
         const msg = {
           messageType: "GET_CONTACTS",
         };
 
-        socket.send(JSON.stringify(msg));
+        send(msg);
         break;
       case "NEW_MESSAGE":
         const message = {
@@ -44,7 +115,74 @@ const websocketMiddleware = () => {
         };
         store.dispatch(addMessage(message));
         break;
+      case "RETRY_AFTER":
+        const delay = retryDelay(Number(payload.content));
+        // Closing the socket of a turned away login must not log the user out.
+        socket.onclose = null;
+        socket.close(1000);
+        socket = null;
+        store.dispatch(
+          enableAlert({
+            message:
+              "The Chat Server is busy, retrying in " +
+              Math.ceil(delay / 1000) +
+              " seconds.",
+            enabled: true,
+          })
+        );
+        retryTimer = setTimeout(() => {
+          retryTimer = null;
+          store.dispatch(wsConnect(credentials.username, credentials.password));
+        }, delay);
+        break;
+      case "THROTTLED":
+        const throttled = JSON.parse(payload.content);
+        store.dispatch(
+          enableAlert({
+            message:
+              "You are going too fast, wait " +
+              Math.ceil(throttled.retryAfter / 1000) +
+              " seconds before trying again.",
+            enabled: true,
+          })
+        );
+        break;
+      case "SEND_STATUS":
+        const statuses = JSON.parse(payload.content);
+        const failed = Object.keys(statuses).filter(
+          (recipient) => statuses[recipient] !== "SENT"
+        );
+        if (failed.length > 0) {
+          store.dispatch(
+            enableAlert({
+              message:
+                "The message could not be sent to " +
+                failed
+                  .map((recipient) => recipient + " (" + statuses[recipient] + ")")
+                  .join(", ") +
+                ".",
+              enabled: true,
+            })
+          );
+        }
+        break;
+      case "UNSUPPORTED":
+        store.dispatch(
+          enableAlert({
+            message: payload.content + " is not available on this Chat Server.",
+            enabled: true,
+          })
+        );
+        break;
+      case "REAUTHENTICATE":
+        // The server does not keep the password of a hibernated session and asks for it again
+        // when the session wakes up.
+        if (credentials !== null) {
+          send({ messageType: "REAUTHENTICATE", content: credentials.password });
+        }
+        break;
       case "ERROR":
+        saveResumeToken(null, null);
         store.dispatch(logout());
         history.push("/login");
         socket = null;
@@ -54,6 +192,7 @@ const websocketMiddleware = () => {
         socket = null;
         break;
       case "FORBIDDEN":
+        saveResumeToken(null, null);
         store.dispatch(
           enableAlert({ message: "Invalid password", enabled: true })
         );
@@ -62,6 +201,26 @@ const websocketMiddleware = () => {
       case "GET_CONTACTS":
         store.dispatch(add(JSON.parse(payload.content)));
         break;
+      case "ROSTER_DELTA":
+        store.dispatch(applyDelta(JSON.parse(payload.content)));
+        break;
+      case "PRESENCE":
+        store.dispatch(updatePresence(JSON.parse(payload.content)));
+        break;
+      case "GET_HISTORY":
+        // Ignore late pages of a conversation that is no longer open.
+        if (payload.to === store.getState().current.name) {
+          const page = JSON.parse(payload.content);
+          const user = selectUsername(store.getState());
+          store.dispatch(
+            addHistory({
+              username: user && user.username,
+              messages: page.messages,
+              cursor: page.cursor,
+            })
+          );
+        }
+        break;
       default:
         console.log(payload);
         break;
@@ -80,13 +239,22 @@ const websocketMiddleware = () => {
   return (store) => (next) => (action) => {
     switch (action.type) {
       case "WS_CONNECT":
+        cancelRetry();
+        credentials = { username: action.username, password: action.password };
         if (socket !== null) {
           socket.close();
         }
 
+        const resumeToken = loadResumeToken(action.username);
         socket = new WebSocket(
-          "ws://localhost:8080/chat/" + action.username + "/" + action.password
+          "ws://localhost:8080/chat/" +
+            action.username +
+            "/" +
+            action.password +
+            (resumeToken ? "?resume=" + encodeURIComponent(resumeToken) : ""),
+          useBinary ? [BINARY_SUBPROTOCOL] : []
         );
+        socket.binaryType = "arraybuffer";
 
         // websocket handlers
         socket.onmessage = onMessage(store);
@@ -96,24 +264,37 @@ const websocketMiddleware = () => {
 
         break;
       case "WS_DISCONNECT":
+        // A normal closure tells the server this is a logout, so it does not keep the session.
+        cancelRetry();
+        credentials = null;
+        saveResumeToken(null, null);
         if (socket !== null) {
-          socket.close();
+          socket.close(1000);
         }
         socket = null;
         store.dispatch(logout());
         history.push("/login");
         break;
       case "NEW_MESSAGE":
-        socket.send(JSON.stringify(action.msg));
+        send(action.msg);
         break;
       case "ADD_CONTACT":
-        socket.send(JSON.stringify(action.msg));
-
-        const msg = {
-          messageType: "GET_CONTACTS",
-        };
-
-        socket.send(JSON.stringify(msg));
+        // The new contact comes back as a ROSTER_DELTA once the server adds it.
+        send(action.msg);
+        break;
+      case "current/select":
+        // Opening a conversation shows its latest page of history, older pages are requested
+        // with the cursor of the last page received.
+        next(action);
+        store.dispatch(clearMessages());
+        send({ messageType: "GET_HISTORY", to: action.payload });
+        break;
+      case "GET_HISTORY":
+        send({
+          messageType: "GET_HISTORY",
+          to: action.to,
+          content: action.cursor,
+        });
         break;
       default:
         return next(action);
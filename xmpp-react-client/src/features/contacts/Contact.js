@@ -1,6 +1,7 @@
 import React from "react";
 import { useSelector } from "react-redux";
 import { selectCurrent } from "../current/currentSlice";
+import { selectPresence } from "./contactsSlice";
 
 const Contact = ({ select, name, eventKey }) => {
   const setCurrent = () => {
@@ -9,6 +10,9 @@ const Contact = ({ select, name, eventKey }) => {
 
   const current = useSelector(selectCurrent);
 
+  const presence = useSelector(selectPresence(name));
+  const online = presence !== "unavailable";
+
   return (
     <li
       className={`clearfix ${current === name ? "active" : ""}`}
@@ -22,9 +26,9 @@ const Contact = ({ select, name, eventKey }) => {
       <div class="about">
         <div class="name">{name}</div>
         <div class="status">
-          <i class="fa fa-circle offline"></i> left 7 mins ago
+          <i class={`fa fa-circle ${online ? "online" : "offline"}`}></i>{" "}
+          {online ? presence : "offline"}
         </div>
-        {/* <div class="status"> <i class="fa fa-circle online"></i> online </div> */}
       </div>
     </li>
   );
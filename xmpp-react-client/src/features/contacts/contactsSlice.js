@@ -2,6 +2,7 @@ import { createSlice } from "@reduxjs/toolkit";
 
 const initialState = {
   names: [],
+  presence: {},
 };
 
 export const contactsSlice = createSlice({
@@ -11,11 +12,29 @@ export const contactsSlice = createSlice({
     add: (state, action) => {
       state.names = action.payload;
     },
+    // Roster changes pushed by the server after the initial GET_CONTACTS.
+    applyDelta: (state, action) => {
+      const { added = [], updated = [], removed = [] } = action.payload;
+      const renamed = Object.fromEntries(
+        updated.map((contact) => [contact.previous, contact.name])
+      );
+      state.names = state.names
+        .filter((name) => !removed.includes(name))
+        .map((name) => renamed[name] || name)
+        .concat(added.filter((name) => !state.names.includes(name)));
+    },
+    // Batches of the latest presence state of each contact that changed.
+    updatePresence: (state, action) => {
+      Object.assign(state.presence, action.payload);
+    },
   },
 });
 
-export const { add } = contactsSlice.actions;
+export const { add, applyDelta, updatePresence } = contactsSlice.actions;
 
 export const selectContacts = (state) => state.contacts.names;
 
+export const selectPresence = (name) => (state) =>
+  state.contacts.presence[name] || "unavailable";
+
 export default contactsSlice.reducer;
@@ -2,8 +2,9 @@ import React, { useEffect } from "react";
 import { useDispatch, useSelector } from "react-redux";
 import { selectCurrent } from "../current/currentSlice";
 import Message from "./Message";
-import { selectMessages } from "./messagesSlice";
+import { selectHistoryCursor, selectMessages } from "./messagesSlice";
 import { TypingAreaContainer } from "./TypingAreaContainer";
+import { getHistory } from "./typingAreaActions";
 
 const ChatBox = () => {
   const messages = useSelector(selectMessages);
@@ -17,8 +18,14 @@ const ChatBox = () => {
 
   const currentContact = useSelector(selectCurrent);
 
+  const historyCursor = useSelector(selectHistoryCursor);
+
   const dispatch = useDispatch();
 
+  const loadOlderMessages = () => {
+    dispatch(getHistory(currentContact, historyCursor));
+  };
+
   return (
     <div class="chat">
       <div class="chat-header clearfix">
@@ -36,6 +43,17 @@ const ChatBox = () => {
         </div>
       </div>
       <div className="chat-history">
+        {historyCursor && (
+          <div className="text-center">
+            <button
+              className="btn btn-link"
+              type="button"
+              onClick={loadOlderMessages}
+            >
+              Load older messages
+            </button>
+          </div>
+        )}
         <ul class="m-b-0">
           {messages.map((message) => (
             <div ref={ref} key={message.id}>
@@ -2,6 +2,7 @@ import { createSlice } from "@reduxjs/toolkit";
 
 const initialState = {
   messages: [],
+  historyCursor: null,
 };
 
 export const messagesSlice = createSlice({
@@ -16,11 +17,32 @@ export const messagesSlice = createSlice({
       }
       state.messages.push(newMessage);
     },
+    clearMessages: (state) => {
+      state.messages = [];
+      state.historyCursor = null;
+    },
+    // Pages arrive newest first, each one older than everything already shown.
+    addHistory: (state, action) => {
+      const { username, messages, cursor } = action.payload;
+      const older = messages
+        .slice()
+        .reverse()
+        .map((message) => ({
+          content: message.content,
+          type: message.from === username ? undefined : "NEW_MESSAGE",
+        }));
+      state.messages = older
+        .concat(state.messages)
+        .map((message, index) => ({ ...message, id: index }));
+      state.historyCursor = cursor || null;
+    },
   },
 });
 
-export const { addMessage } = messagesSlice.actions;
+export const { addMessage, clearMessages, addHistory } = messagesSlice.actions;
 
 export const selectMessages = (state) => state.messages.messages;
 
+export const selectHistoryCursor = (state) => state.messages.historyCursor;
+
 export default messagesSlice.reducer;
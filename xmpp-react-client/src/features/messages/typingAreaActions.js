@@ -1,2 +1,3 @@
 export const messageSent = (content) => ({ type: "MESSAGE_SENT", content });
 export const newMessage = (msg) => ({ type: "NEW_MESSAGE", msg });
+export const getHistory = (to, cursor) => ({ type: "GET_HISTORY", to, cursor });